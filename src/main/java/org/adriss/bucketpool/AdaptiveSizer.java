@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.couchbase.client.java.Bucket;
+
+/**
+ * Resizes a pool between <code>adaptiveMinTotal</code> and
+ * <code>maxTotal</code>. The buckets in use are sampled ten times per
+ * interval; once per interval the sizer:
+ * <ul>
+ * <li>grows the pool by a quarter when the p99 borrow wait of the interval is
+ * over <code>adaptiveGrowWaitMillis</code> and every bucket was in use, unless
+ * the operations got twice as slow as usual: the server is then the
+ * bottleneck and more buckets would only add to its load;</li>
+ * <li>shrinks the pool by a quarter when the p99 borrow wait stayed under a
+ * quarter of the threshold, at most half of the buckets were in use and
+ * nothing was resized for <code>adaptiveCooldownMillis</code>.</li>
+ * </ul>
+ * The gap between both thresholds and the cooldown keep the pool from
+ * oscillating around a size.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+class AdaptiveSizer {
+
+    private final static Logger logger = LoggerFactory.getLogger(AdaptiveSizer.class);
+    private static final int SAMPLES = 10;
+
+    private final BucketPool pool;
+    private final BucketFactory factory;
+    private final BucketPoolMetrics metrics;
+    private final int minTotal;
+    private final int maxTotal;
+    private final int maxIdle;
+    private final int minIdle;
+    private final long growWaitNanos;
+    private final long cooldownNanos;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicInteger peakActive = new AtomicInteger();
+    private final AtomicLong grows = new AtomicLong();
+    private final AtomicLong shrinks = new AtomicLong();
+    private final AtomicLong holds = new AtomicLong();
+    private LatencyHistogram lastWait = new LatencyHistogram();
+    private long lastOperations;
+    private double lastOperationNanos;
+    private double usualLatency;
+    private long lastResize = System.nanoTime();
+    private int samples;
+    private volatile String lastDecision = "none";
+
+    AdaptiveSizer(BucketPool pool, BucketFactory factory, BucketPoolMetrics metrics, BucketPoolConfig config) {
+        this.pool = pool;
+        this.factory = factory;
+        this.metrics = metrics;
+        this.maxTotal = config.getMaxTotal();
+        this.minTotal = Math.min(config.getAdaptiveMinTotal(), this.maxTotal);
+        this.maxIdle = config.getMaxIdle();
+        this.minIdle = config.getMinIdle();
+        this.growWaitNanos = TimeUnit.MILLISECONDS.toNanos(config.getAdaptiveGrowWaitMillis());
+        this.cooldownNanos = TimeUnit.MILLISECONDS.toNanos(config.getAdaptiveCooldownMillis());
+        resize(Math.max(this.minTotal, Math.min(this.minIdle, this.maxTotal)));
+        logger.info("Adaptive pool sized {} between {} and {}", this.pool.getMaxTotal(), this.minTotal, this.maxTotal);
+        long period = Math.max(1, config.getAdaptiveIntervalMillis() * 1000 / SAMPLES);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bucketpool-adaptive");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleAtFixedRate(this::tick, period, period, TimeUnit.MICROSECONDS);
+    }
+
+    private void tick() {
+        try {
+            sample();
+            if (++this.samples % SAMPLES == 0) {
+                adjust();
+            }
+        } catch (Exception e) {
+            logger.warn(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Records the buckets in use, keeping the peak of the interval.
+     */
+    void sample() {
+        this.peakActive.accumulateAndGet(this.pool.getNumActive(), Math::max);
+    }
+
+    /**
+     * Decides whether to resize the pool from what happened since the last
+     * decision.
+     */
+    synchronized void adjust() {
+        LatencyHistogram wait = new LatencyHistogram();
+        wait.add(this.metrics.getBorrowWait());
+        wait.add(this.metrics.getAsyncBorrowWait());
+        long p99 = wait.since(this.lastWait).getValueAtPercentile(99);
+        this.lastWait = wait;
+        int size = this.pool.getMaxTotal();
+        int peak = Math.max(this.peakActive.getAndSet(0), this.pool.getNumActive());
+        int waiters = this.pool.getNumWaiters() + this.pool.getNumAsyncWaiters();
+        double latency = operationLatency();
+        int step = Math.max(1, size / 4);
+        if (p99 > this.growWaitNanos && (peak >= size || waiters > 0) && size < this.maxTotal) {
+            if (latency > 2 * this.usualLatency && this.usualLatency > 0) {
+                this.holds.incrementAndGet();
+                decide(String.format("held %d: p99 borrow wait %.1f ms, peak %d, waiters %d, "
+                        + "operations at %.1f ms instead of %.1f ms", size, millis(p99), peak, waiters,
+                        millis(latency), millis(this.usualLatency)));
+            } else {
+                this.grows.incrementAndGet();
+                resize(Math.min(this.maxTotal, size + step));
+                decide(String.format("grew %d -> %d: p99 borrow wait %.1f ms, peak %d, waiters %d", size,
+                        this.pool.getMaxTotal(), millis(p99), peak, waiters));
+            }
+        } else if (p99 < this.growWaitNanos / 4 && waiters == 0 && peak <= size / 2 && size > this.minTotal
+                && System.nanoTime() - this.lastResize >= this.cooldownNanos) {
+            this.shrinks.incrementAndGet();
+            resize(Math.max(this.minTotal, size - step));
+            decide(String.format("shrank %d -> %d: p99 borrow wait %.1f ms, peak %d", size, this.pool.getMaxTotal(),
+                    millis(p99), peak));
+        }
+        if (latency > 0) {
+            this.usualLatency = this.usualLatency == 0 ? latency : 0.8 * this.usualLatency + 0.2 * latency;
+        }
+    }
+
+    /**
+     * Provides the mean latency of the operations run since the last
+     * decision, or 0 unless <code>operationMetrics</code> is enabled.
+     */
+    private double operationLatency() {
+        OperationMetrics operations = this.factory.getOperationMetrics();
+        if (operations == null) {
+            return 0;
+        }
+        long count = 0;
+        double nanos = 0;
+        for (LatencyHistogram latency : operations.getLatencies().values()) {
+            long operationCount = latency.getCount();
+            count += operationCount;
+            nanos += latency.getMean() * operationCount;
+        }
+        long intervalCount = count - this.lastOperations;
+        double intervalNanos = nanos - this.lastOperationNanos;
+        this.lastOperations = count;
+        this.lastOperationNanos = nanos;
+        return intervalCount > 0 && intervalNanos > 0 ? intervalNanos / intervalCount : 0;
+    }
+
+    private void resize(int size) {
+        this.pool.resize(size, this.maxIdle < 0 ? size : Math.min(this.maxIdle, size), Math.min(this.minIdle, size));
+        this.lastResize = System.nanoTime();
+    }
+
+    private void decide(String decision) {
+        this.lastDecision = decision;
+        logger.info("Adaptive pool {}", decision);
+    }
+
+    private static double millis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Provides the number of times the pool grew.
+     */
+    long getGrows() {
+        return this.grows.get();
+    }
+
+    /**
+     * Provides the number of times the pool shrank.
+     */
+    long getShrinks() {
+        return this.shrinks.get();
+    }
+
+    /**
+     * Provides the number of times the pool didn't grow because the
+     * operations were slower than usual.
+     */
+    long getHolds() {
+        return this.holds.get();
+    }
+
+    /**
+     * Describes the last resize or hold, with the figures it was based on.
+     */
+    String getLastDecision() {
+        return this.lastDecision;
+    }
+
+    /**
+     * Stops resizing, e.g. when the pool is closed. {@link Bucket}s stay in
+     * the pool.
+     */
+    void close() {
+        this.scheduler.shutdownNow();
+    }
+}
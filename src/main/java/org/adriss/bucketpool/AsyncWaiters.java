@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.couchbase.client.java.Bucket;
+
+/**
+ * Queues the borrowers of {@link BucketPool#borrowAsync()} that found no idle
+ * {@link Bucket}. No thread waits on their behalf: a returned bucket is
+ * handed straight to the oldest waiter, completing its future on the
+ * returning thread. Only idle buckets are taken on the borrowing or returning
+ * thread; when the pool has room for more, buckets are opened on a separate
+ * thread, which hands them to the waiters.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+class AsyncWaiters {
+
+    private final BucketPool pool;
+    private final BucketFactory factory;
+    private final LatencyHistogram wait;
+    private final LeakDetector leaks;
+    private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger opening = new AtomicInteger();
+    private volatile ScheduledExecutorService timer;
+    private volatile ExecutorService opener;
+
+    /**
+     * A borrower's future, with the call site the leak detector sampled.
+     */
+    private static class Waiter extends CompletableFuture<Bucket> {
+        private final LeakDetector.Site site;
+
+        private Waiter(LeakDetector.Site site) {
+            this.site = site;
+        }
+    }
+
+    AsyncWaiters(BucketPool pool, BucketFactory factory, LatencyHistogram wait, LeakDetector leaks) {
+        this.pool = pool;
+        this.factory = factory;
+        this.wait = wait;
+        this.leaks = leaks;
+    }
+
+    /**
+     * Borrows without waiting if a bucket is idle, or queues the borrower
+     * otherwise.
+     *
+     * @param borrowMaxWaitMillis
+     *            The time after which a queued borrower fails with a
+     *            <code>NoSuchElementException</code>. Negative waits
+     *            indefinitely.
+     * @return the future bucket.
+     */
+    CompletableFuture<Bucket> borrow(long borrowMaxWaitMillis) {
+        Waiter future = new Waiter(this.leaks == null ? null : this.leaks.sample());
+        long start = System.nanoTime();
+        try {
+            Bucket bucket = tryBorrow();
+            if (bucket != null) {
+                this.wait.record(System.nanoTime() - start);
+                complete(future, bucket);
+                return future;
+            }
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        future.whenComplete((bucket, e) -> this.wait.record(System.nanoTime() - start));
+        this.waiters.offer(future);
+        if (borrowMaxWaitMillis >= 0) {
+            timer().schedule(() -> {
+                if (future.completeExceptionally(new NoSuchElementException("Timeout waiting for idle object"))) {
+                    this.waiters.remove(future);
+                }
+            }, borrowMaxWaitMillis, TimeUnit.MILLISECONDS);
+        }
+        // a bucket may have been returned before the future was queued
+        dispatch();
+        return future;
+    }
+
+    /**
+     * Hands a returned bucket to the oldest waiter.
+     *
+     * @param bucket
+     *            the returned bucket.
+     * @return true if a waiter took it.
+     */
+    boolean handOff(Bucket bucket) {
+        if (bucket == null || this.waiters.isEmpty() || !this.factory.validate(bucket)) {
+            return false;
+        }
+        Waiter waiter;
+        while ((waiter = this.waiters.poll()) != null) {
+            if (complete(waiter, bucket)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hands a bucket to a waiter, recording the borrow before the waiter's
+     * callbacks may return it.
+     *
+     * @return false if the waiter had already failed or was cancelled.
+     */
+    private boolean complete(Waiter waiter, Bucket bucket) {
+        if (this.leaks != null) {
+            this.leaks.borrowed((WrappedBucket) bucket, waiter.site);
+        }
+        if (waiter.complete(bucket)) {
+            return true;
+        }
+        if (this.leaks != null) {
+            this.leaks.borrowed((WrappedBucket) bucket, null, 0);
+        }
+        return false;
+    }
+
+    /**
+     * Serves waiters from the pool while it has idle buckets, then opens a
+     * bucket in the background for each waiter left if there's room, e.g.
+     * after a bucket has been invalidated.
+     */
+    void dispatch() {
+        while (!this.waiters.isEmpty()) {
+            Bucket bucket;
+            try {
+                bucket = tryBorrow();
+            } catch (Exception e) {
+                fail(e);
+                continue;
+            }
+            if (bucket == null) {
+                break;
+            }
+            // returns the bucket to the pool if every waiter is gone
+            this.pool.returnObject(bucket);
+        }
+        while (this.opening.get() < this.waiters.size() && this.pool.hasRoom()) {
+            this.opening.incrementAndGet();
+            try {
+                opener().execute(this::open);
+            } catch (RejectedExecutionException e) {
+                // closed
+                this.opening.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Borrows a bucket, opening it if needed, and hands it to the oldest
+     * waiter.
+     */
+    private void open() {
+        try {
+            Bucket bucket = this.pool.borrowUnmeasured(0);
+            // returns the bucket to the pool if every waiter is gone
+            this.pool.returnObject(bucket);
+        } catch (NoSuchElementException e) {
+            // another borrower took the room
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            this.opening.decrementAndGet();
+        }
+    }
+
+    private void fail(Exception e) {
+        Waiter waiter = this.waiters.poll();
+        if (waiter != null) {
+            waiter.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Borrows an idle bucket on this thread, never opening one.
+     *
+     * @return the bucket, or null if none is idle.
+     */
+    private Bucket tryBorrow() throws Exception {
+        if (this.pool.getNumIdle() == 0 && !this.pool.isAffinity() || this.factory.isPassivate()) {
+            // idle buckets may be closed, opening them is left to the opener
+            return null;
+        }
+        try {
+            return this.factory.idleOnly(() -> this.pool.borrowUnmeasured(0));
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    private ExecutorService opener() {
+        if (this.opener == null) {
+            synchronized (this) {
+                if (this.opener == null) {
+                    this.opener = Executors.newCachedThreadPool(runnable -> {
+                        Thread thread = new Thread(runnable, "bucketpool-async-open");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return this.opener;
+    }
+
+    private ScheduledExecutorService timer() {
+        if (this.timer == null) {
+            synchronized (this) {
+                if (this.timer == null) {
+                    this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "bucketpool-async-timer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return this.timer;
+    }
+
+    /**
+     * Provides the number of queued borrowers.
+     */
+    int size() {
+        return this.waiters.size();
+    }
+
+    /**
+     * Fails every queued borrower, e.g. when the pool is closed.
+     */
+    void close() {
+        Waiter waiter;
+        while ((waiter = this.waiters.poll()) != null) {
+            waiter.completeExceptionally(new IllegalStateException("Pool not open"));
+        }
+        if (this.timer != null) {
+            this.timer.shutdownNow();
+        }
+        if (this.opener != null) {
+            this.opener.shutdownNow();
+        }
+    }
+}
@@ -15,8 +15,24 @@
  */
 package org.adriss.bucketpool;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.IntStream;
 
 import org.apache.commons.pool2.BasePooledObjectFactory;
@@ -26,7 +42,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
 import com.couchbase.client.java.CouchbaseCluster;
+import com.couchbase.client.java.env.CouchbaseEnvironment;
 import com.couchbase.client.java.env.DefaultCouchbaseEnvironment;
 
 /**
@@ -39,12 +57,57 @@ import com.couchbase.client.java.env.DefaultCouchbaseEnvironment;
 public class BucketFactory extends BasePooledObjectFactory<Bucket> {
 
     private final static Logger logger = LoggerFactory.getLogger(BucketFactory.class);
+    private static final int DISCONNECT_THREADS = 16;
 
     private String name;
-    private String[] nodes;
     private boolean passivate;
-    private Queue<WrappedCluster> unusedClusters = new ConcurrentLinkedQueue<>();
-    private DefaultCouchbaseEnvironment environment;
+    private boolean passivateIdle;
+    private ClusterGroup[] groups;
+    private volatile int activeGroup;
+    private CouchbaseEnvironment environment;
+    private boolean ownsEnvironment;
+    private volatile boolean closed;
+    private Function<String[], Cluster> connector;
+    private boolean lazyClusters;
+    private int spareClusters;
+    private int maxClusters;
+    private final AtomicInteger provisioning = new AtomicInteger();
+    private ExecutorService provisioner;
+    /**
+     * The operations of destroyed buckets.
+     */
+    private OperationMetrics operationMetrics;
+    private final Set<WrappedBucket> buckets = ConcurrentHashMap.newKeySet();
+    private NearCache nearCache;
+    private QueryPlanCache queryPlanCache;
+    private SingleFlight singleFlight;
+    private UpsertCoalescer upsertCoalescer;
+    private boolean latencyAware;
+    private final LongAdder created = new LongAdder();
+    private final LongAdder createFailed = new LongAdder();
+    private final LongAdder destroyed = new LongAdder();
+    private final LongAdder validationFailed = new LongAdder();
+    private final LongAdder clusterReuseHits = new LongAdder();
+    private final LongAdder clusterReuseMisses = new LongAdder();
+    private final LongAdder passivationOpens = new LongAdder();
+    private final LongAdder passivationCloses = new LongAdder();
+    private final LongAdder passivationReopens = new LongAdder();
+    private final ThreadLocal<Boolean> idleOnly = new ThreadLocal<>();
+
+    /**
+     * Clusters connected to the same nodes, e.g. one datacenter.
+     */
+    private static class ClusterGroup {
+        private final int index;
+        private final String[] nodes;
+        private final Queue<WrappedCluster> unusedClusters = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger clusters = new AtomicInteger();
+
+        private ClusterGroup(int index, String[] nodes) {
+            this.index = index;
+            this.nodes = nodes;
+        }
+    }
 
     /**
      * @param config
@@ -53,76 +116,585 @@ public class BucketFactory extends BasePooledObjectFactory<Bucket> {
      *            configuration object will not be reflected in the pool.
      */
     public BucketFactory(BucketPoolConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * @param config
+     *            The configuration to use for this pool instance. The
+     *            configuration is used by value. Subsequent changes to the
+     *            configuration object will not be reflected in the pool.
+     * @param clusterSupplier
+     *            Supplies the {@link Cluster}s the buckets are opened from. If
+     *            none is used, a <code>CouchbaseCluster</code> sharing the
+     *            configured <code>environment</code>, or a
+     *            <code>DefaultCouchbaseEnvironment</code> owned by this
+     *            factory, is created per bucket.
+     */
+    public BucketFactory(BucketPoolConfig config, Supplier<Cluster> clusterSupplier) {
+        this(clusterSupplier == null ? null : nodes -> clusterSupplier.get(), config);
+    }
+
+    /**
+     * @param connector
+     *            Connects a {@link Cluster} to the nodes of a cluster group.
+     *            If none is used, a <code>CouchbaseCluster</code> sharing the
+     *            environment is created.
+     * @param config
+     *            The configuration to use for this pool instance.
+     */
+    BucketFactory(Function<String[], Cluster> connector, BucketPoolConfig config) {
         super();
-        this.nodes = config.getNodes();
-        if (this.nodes == null) {
-            this.nodes = new String[] { "localhost" };
+        List<String[]> groups = new ArrayList<>(config.getClusterGroups());
+        if (groups.isEmpty()) {
+            groups.add(config.getNodes() == null ? new String[] { "localhost" } : config.getNodes());
+        }
+        this.groups = new ClusterGroup[groups.size()];
+        for (int i = 0; i < this.groups.length; i++) {
+            this.groups[i] = new ClusterGroup(i, groups.get(i));
         }
         this.name = config.getName();
         if (this.name == null) {
             this.name = "default";
         }
         this.passivate = config.isPassivate();
-        this.environment = DefaultCouchbaseEnvironment.create();
-        initClusters(config.getMaxTotal());
+        // closed in the background by the pool instead of on every return
+        this.passivateIdle = this.passivate && config.getPassivateIdleMillis() > 0 && !config.isShared()
+                && config.getShards() <= 1;
+        if (connector == null) {
+            this.environment = config.getEnvironment();
+            if (this.environment == null) {
+                this.environment = DefaultCouchbaseEnvironment.create();
+                this.ownsEnvironment = true;
+            }
+            connector = nodes -> CouchbaseCluster.create(this.environment, nodes);
+        }
+        this.connector = connector;
+        this.maxClusters = config.getMaxTotal() < 0 ? Integer.MAX_VALUE : config.getMaxTotal();
+        if (config.isOperationMetrics()) {
+            this.operationMetrics = new OperationMetrics();
+        }
+        if (config.getQueryPlanCacheSize() > 0) {
+            this.queryPlanCache = new QueryPlanCache(config.getQueryPlanCacheSize(), this.groups.length);
+        }
+        if (config.getNearCacheSize() > 0) {
+            this.nearCache = new NearCache(config.getNearCacheSize(), config.getNearCacheTtlMillis());
+        }
+        if (config.isSingleFlight()) {
+            this.singleFlight = new SingleFlight();
+        }
+        if (config.getUpsertCoalescingWindowMicros() >= 0) {
+            this.upsertCoalescer = new UpsertCoalescer(config.getUpsertCoalescingWindowMicros());
+        }
+        // a shared, sharded or passivated pool can't choose between idle buckets
+        this.latencyAware = config.getSelectionPolicy() == SelectionPolicy.LEAST_LATENCY && !config.isShared()
+                && config.getShards() <= 1 && !this.passivate;
+        this.lazyClusters = config.isLazyClusters();
+        if (this.lazyClusters) {
+            this.spareClusters = Math.min(Math.max(config.getSpareClusters(), 0), this.maxClusters);
+            if (this.spareClusters > 0) {
+                this.provisioner = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "bucketpool-provisioner");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            initClusters(this.spareClusters);
+        } else {
+            // an unbounded pool creates its clusters as buckets are opened
+            initClusters(Math.max(config.getMaxTotal(), 0));
+        }
     }
 
     private void initClusters(int clusterAmount) {
         logger.info("Initializing {} clusters", clusterAmount);
-        IntStream.range(0, clusterAmount).forEach(nbr -> {
-            WrappedCluster cluster = new WrappedCluster(CouchbaseCluster.create(this.environment, this.nodes),
-                    this.name);
-            logger.debug("Created [{}] cluster", cluster);
-            this.unusedClusters.offer(cluster);
-        });
+        ClusterGroup group = group();
+        IntStream.range(0, clusterAmount).forEach(nbr -> group.unusedClusters.offer(newCluster(group)));
         logger.info("Initialized {} clusters", clusterAmount);
     }
 
+    private WrappedCluster newCluster(ClusterGroup group) {
+        WrappedCluster cluster = new WrappedCluster(this.connector.apply(group.nodes), this.name, group.index);
+        group.clusters.incrementAndGet();
+        logger.debug("Created [{}] cluster", cluster);
+        return cluster;
+    }
+
+    private ClusterGroup group() {
+        return this.groups[this.activeGroup];
+    }
+
+    /**
+     * Provides the number of cluster groups, one unless
+     * <code>clusterGroups</code> are configured.
+     */
+    int getNumGroups() {
+        return this.groups.length;
+    }
+
+    /**
+     * Provides the group new buckets are opened in.
+     */
+    int getActiveGroup() {
+        return this.activeGroup;
+    }
+
+    /**
+     * Opens new buckets in another group. Buckets open in the previous group
+     * stay in use until destroyed.
+     */
+    void setActiveGroup(int group) {
+        this.activeGroup = group;
+    }
+
+    /**
+     * Connects a cluster to a group's nodes outside of the pool, e.g. to
+     * probe the group while no bucket of the pool is open in it.
+     */
+    WrappedCluster connect(int group) {
+        return new WrappedCluster(this.connector.apply(this.groups[group].nodes), this.name, group);
+    }
+
+    String getName() {
+        return this.name;
+    }
+
+    /**
+     * Provides the number of clusters waiting for a bucket to be opened.
+     *
+     * @return the unused clusters.
+     */
+    int getNumUnusedClusters() {
+        int unused = 0;
+        for (ClusterGroup group : this.groups) {
+            unused += group.unusedClusters.size();
+        }
+        return unused;
+    }
+
+    /**
+     * Provides the buckets currently in the pool.
+     */
+    Set<WrappedBucket> getBuckets() {
+        return Collections.unmodifiableSet(this.buckets);
+    }
+
+    /**
+     * Determines if the buckets measure their latency for the pool to pick
+     * the fastest.
+     */
+    boolean isLatencyAware() {
+        return this.latencyAware;
+    }
+
+    int getNumClusters() {
+        int clusters = 0;
+        for (ClusterGroup group : this.groups) {
+            clusters += group.clusters.get();
+        }
+        return clusters;
+    }
+
+    long getCreatedCount() {
+        return this.created.sum();
+    }
+
+    long getCreateFailedCount() {
+        return this.createFailed.sum();
+    }
+
+    long getDestroyedCount() {
+        return this.destroyed.sum();
+    }
+
+    long getValidationFailedCount() {
+        return this.validationFailed.sum();
+    }
+
+    long getClusterReuseHits() {
+        return this.clusterReuseHits.sum();
+    }
+
+    long getClusterReuseMisses() {
+        return this.clusterReuseMisses.sum();
+    }
+
+    long getPassivationOpenCount() {
+        return this.passivationOpens.sum();
+    }
+
+    long getPassivationCloseCount() {
+        return this.passivationCloses.sum();
+    }
+
+    long getPassivationReopenCount() {
+        return this.passivationReopens.sum();
+    }
+
+    /**
+     * Determines if idle buckets are closed and reopened in the background
+     * rather than on return and borrow.
+     */
+    boolean isPassivateIdle() {
+        return this.passivateIdle;
+    }
+
+    /**
+     * Determines if buckets may be closed while idle, so borrowing one may
+     * open it.
+     */
+    boolean isPassivate() {
+        return this.passivate;
+    }
+
+    /**
+     * Runs a borrow on this thread that may only take an idle bucket:
+     * creating one fails with a <code>NoSuchElementException</code> instead,
+     * e.g. so an event loop never waits for a bucket to open.
+     *
+     * @param borrow
+     *            the borrow.
+     * @return the bucket borrowed.
+     * @throws Exception
+     */
+    <T> T idleOnly(Callable<T> borrow) throws Exception {
+        this.idleOnly.set(Boolean.TRUE);
+        try {
+            return borrow.call();
+        } finally {
+            this.idleOnly.remove();
+        }
+    }
+
+    /**
+     * Closes an idle bucket held by the passivation thread.
+     */
+    void passivate(WrappedBucket bucket) {
+        bucket.close();
+        this.passivationCloses.increment();
+    }
+
+    /**
+     * Reopens a closed idle bucket held by the passivation thread, ahead of
+     * its borrow.
+     */
+    void reopen(WrappedBucket bucket) {
+        bucket.open();
+        this.passivationReopens.increment();
+    }
+
+    /**
+     * Provides the latency and errors of the operations run on every bucket
+     * this factory has created, destroyed ones included.
+     *
+     * @return a snapshot of the metrics, or null if operations are not
+     *         measured.
+     */
+    public OperationMetrics getOperationMetrics() {
+        if (this.operationMetrics == null) {
+            return null;
+        }
+        OperationMetrics metrics = new OperationMetrics();
+        metrics.add(this.operationMetrics);
+        this.buckets.forEach(bucket -> metrics.add(bucket.getOperationMetrics()));
+        return metrics;
+    }
+
+    /**
+     * Provides the near cache shared by the buckets this factory creates.
+     *
+     * @return the cache, or null if disabled.
+     */
+    public NearCache getNearCache() {
+        return this.nearCache;
+    }
+
+    /**
+     * Determines if mutations made through the pool must invalidate their
+     * document, in the near cache or in the reads in flight.
+     */
+    boolean isInvalidating() {
+        return this.nearCache != null || this.singleFlight != null;
+    }
+
+    /**
+     * Invalidates a document mutated through the pool.
+     *
+     * @param id
+     *            The id of the document.
+     */
+    void invalidate(String id) {
+        if (this.nearCache != null) {
+            this.nearCache.invalidate(id);
+        }
+        if (this.singleFlight != null) {
+            this.singleFlight.forget(id);
+        }
+    }
+
+    /**
+     * Provides the N1QL query plans shared by the buckets this factory
+     * creates.
+     *
+     * @return the cache, or null if disabled.
+     */
+    public QueryPlanCache getQueryPlanCache() {
+        return this.queryPlanCache;
+    }
+
+    /**
+     * Provides the number of reads served by an identical read already in
+     * flight on any of the buckets this factory creates.
+     *
+     * @return the deduplicated reads, 0 unless <code>singleFlight</code> is
+     *         enabled.
+     */
+    public long getDeduplicatedReads() {
+        return this.singleFlight == null ? 0 : this.singleFlight.getDeduplicated();
+    }
+
+    /**
+     * Provides the number of upserts written as part of a newer upsert of the
+     * same document on any of the buckets this factory creates.
+     *
+     * @return the coalesced upserts, 0 unless upserts are coalesced.
+     */
+    public long getCoalescedUpserts() {
+        return this.upsertCoalescer == null ? 0 : this.upsertCoalescer.getCoalesced();
+    }
+
+    /**
+     * Provides the operation metrics of each bucket currently in the pool.
+     *
+     * @return the metrics by bucket, empty if operations are not measured.
+     */
+    public Map<String, OperationMetrics> getBucketOperationMetrics() {
+        Map<String, OperationMetrics> metrics = new TreeMap<>();
+        if (this.operationMetrics != null) {
+            this.buckets.forEach(bucket -> metrics.put(bucket.toString(), bucket.getOperationMetrics()));
+        }
+        return metrics;
+    }
+
+    /**
+     * Tops the unused clusters up to <code>spareClusters</code> in the
+     * background, without creating more than <code>maxTotal</code> clusters.
+     */
+    private void provisionSpares() {
+        if (this.provisioner == null) {
+            return;
+        }
+        ClusterGroup group = group();
+        while (true) {
+            int pending = this.provisioning.get();
+            if (group.unusedClusters.size() + pending >= this.spareClusters
+                    || group.clusters.get() + pending >= this.maxClusters) {
+                return;
+            }
+            if (this.provisioning.compareAndSet(pending, pending + 1)) {
+                this.provisioner.execute(() -> {
+                    try {
+                        WrappedCluster cluster = newCluster(group);
+                        group.unusedClusters.offer(cluster);
+                        if (this.closed && group.unusedClusters.remove(cluster)) {
+                            cluster.disconnect();
+                        }
+                    } catch (RuntimeException e) {
+                        logger.error(e.getMessage(), e);
+                    } finally {
+                        this.provisioning.decrementAndGet();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Opens a bucket on an unused cluster, creating the cluster if none is
+     * left. Polling the queue hands each cluster to exactly one creator, so
+     * concurrent creators open their buckets in parallel.
+     */
     @Override
     public Bucket create() throws Exception {
-        synchronized (this.unusedClusters) {
-            WrappedCluster cluster = this.unusedClusters.poll();
-            if (cluster == null) {
-                cluster = new WrappedCluster(CouchbaseCluster.create(this.nodes), this.name);
-            }
-            WrappedBucket bucket = new WrappedBucket(cluster, this.name);
+        if (this.closed) {
+            throw new IllegalStateException("Factory closed");
+        }
+        if (this.idleOnly.get() != null) {
+            throw new NoSuchElementException("No idle bucket");
+        }
+        ClusterGroup group = group();
+        WrappedCluster cluster = group.unusedClusters.poll();
+        if (cluster == null) {
+            this.clusterReuseMisses.increment();
+            cluster = newCluster(group);
+        } else {
+            this.clusterReuseHits.increment();
+        }
+        provisionSpares();
+        WrappedBucket bucket = new WrappedBucket(cluster, this.name,
+                this.operationMetrics == null ? null : new OperationMetrics(), this.nearCache, this.singleFlight,
+                this.upsertCoalescer, this.latencyAware, this.queryPlanCache);
+        try {
             bucket.open();
-            return bucket;
+        } catch (RuntimeException e) {
+            this.createFailed.increment();
+            group.unusedClusters.offer(cluster);
+            throw e;
         }
+        this.created.increment();
+        this.buckets.add(bucket);
+        return bucket;
     }
 
     @Override
     public void destroyObject(PooledObject<Bucket> p) throws Exception {
         WrappedBucket bucket = (WrappedBucket) p.getObject();
         logger.debug("Destroyed [{}] bucket", bucket);
+        this.destroyed.increment();
+        if (this.buckets.remove(bucket) && this.operationMetrics != null) {
+            this.operationMetrics.add(bucket.getOperationMetrics());
+        }
         WrappedCluster cluster = bucket.getCluster();
+        if (this.closed) {
+            // disconnected by close()
+            return;
+        }
         if (bucket.close()) {
-            this.unusedClusters.add(cluster);
+            this.groups[cluster.getGroup()].unusedClusters.add(cluster);
         }
     }
 
+    /**
+     * Disconnects every cluster in parallel, closing the buckets still open
+     * on them, then shuts the environment down unless it was provided through
+     * the configuration. No bucket can be created afterwards.
+     *
+     * @param timeoutMillis
+     *            the time to wait for the clusters and environment to shut
+     *            down.
+     * @return true if everything shut down in time.
+     */
+    public boolean close(long timeoutMillis) {
+        if (this.closed) {
+            return true;
+        }
+        this.closed = true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        if (this.provisioner != null) {
+            this.provisioner.shutdownNow();
+        }
+        if (this.nearCache != null) {
+            this.nearCache.clear();
+        }
+        List<WrappedCluster> clusters = new ArrayList<>();
+        for (ClusterGroup group : this.groups) {
+            WrappedCluster unused;
+            while ((unused = group.unusedClusters.poll()) != null) {
+                clusters.add(unused);
+            }
+        }
+        this.buckets.forEach(bucket -> clusters.add(bucket.getCluster()));
+        boolean done = disconnect(clusters, deadline);
+        if (this.ownsEnvironment) {
+            try {
+                done &= this.environment.shutdown(Math.max(1, remainingMillis(deadline)), TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to shut the environment down", e);
+                done = false;
+            }
+        }
+        logger.info("Closed {} clusters{}", clusters.size(), done ? "" : ", some didn't shut down in time");
+        return done;
+    }
+
+    /**
+     * Disconnects clusters on up to 16 threads, waiting until the deadline.
+     *
+     * @return true if every cluster disconnected in time.
+     */
+    static boolean disconnect(List<WrappedCluster> clusters, long deadline) {
+        if (clusters.isEmpty()) {
+            return true;
+        }
+        ExecutorService disconnector = Executors.newFixedThreadPool(Math.min(clusters.size(), DISCONNECT_THREADS),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "bucketpool-disconnect");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        clusters.forEach(cluster -> disconnector.execute(() -> {
+            try {
+                cluster.disconnect(Math.max(1, remainingMillis(deadline)), TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to disconnect [{}] cluster: {}", cluster, e.getMessage());
+            }
+        }));
+        disconnector.shutdown();
+        try {
+            if (disconnector.awaitTermination(Math.max(0, remainingMillis(deadline)), TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        disconnector.shutdownNow();
+        return false;
+    }
+
+    static long remainingMillis(long deadline) {
+        return TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+    }
+
     @Override
     public boolean validateObject(PooledObject<Bucket> p) {
-        return !p.getObject().isClosed();
+        return validate(p.getObject());
+    }
+
+    /**
+     * Determines if a {@link Bucket} can still be handed out.
+     *
+     * @param bucket
+     *            the bucket.
+     * @return boolean
+     */
+    public boolean validate(Bucket bucket) {
+        if (bucket.isClosed() || bucket instanceof WrappedBucket && ((WrappedBucket) bucket).isUnhealthy()) {
+            this.validationFailed.increment();
+            return false;
+        }
+        return true;
     }
 
     @Override
     public PooledObject<Bucket> wrap(Bucket bucket) {
-        return new DefaultPooledObject<Bucket>(bucket);
+        PooledObject<Bucket> pooled = new DefaultPooledObject<Bucket>(bucket);
+        if (bucket instanceof WrappedBucket) {
+            ((WrappedBucket) bucket).setPooledObject(pooled);
+        }
+        return pooled;
     }
 
     @Override
     public void activateObject(PooledObject<Bucket> p) throws Exception {
         WrappedBucket bucket = (WrappedBucket) p.getObject();
+        if (bucket.isUnhealthy()) {
+            throw new IllegalStateException("Unhealthy bucket [" + bucket + "]");
+        }
         if (bucket.isClosed()) {
             bucket.open();
+            this.passivationOpens.increment();
         }
     }
 
     @Override
     public void passivateObject(PooledObject<Bucket> p) throws Exception {
-        if (this.passivate) {
+        if (((WrappedBucket) p.getObject()).isUnhealthy()) {
+            // destroyed by the pool instead of going back to idle
+            throw new IllegalStateException("Unhealthy bucket [" + p.getObject() + "]");
+        }
+        if (this.passivate && !this.passivateIdle) {
             p.getObject().close();
+            this.passivationCloses.increment();
         }
     }
 }
\ No newline at end of file
@@ -15,13 +15,44 @@
  */
 package org.adriss.bucketpool;
 
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.stream.IntStream;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.couchbase.client.java.AsyncBucket;
 import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.Document;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.error.QueryExecutionException;
+import com.couchbase.client.java.query.AsyncN1qlQueryResult;
+import com.couchbase.client.java.query.AsyncN1qlQueryRow;
+import com.couchbase.client.java.query.N1qlQuery;
+
+import rx.Observable;
+import rx.exceptions.Exceptions;
+import rx.subscriptions.Subscriptions;
 
 /**
  * <code>BucketPool</code> is an implementation of {@link GenericObjectPool} to
@@ -36,6 +67,23 @@ import com.couchbase.client.java.Bucket;
 public class BucketPool extends GenericObjectPool<Bucket> {
 
     private final static Logger logger = LoggerFactory.getLogger(BucketPool.class);
+    private static final long DRAIN_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final CompletableFuture<BucketPool> readiness = new CompletableFuture<>();
+    private final BucketFactory factory;
+    private SharedBuckets shared;
+    private BucketShards shards;
+    private ThreadAffinity affinity;
+    private AsyncWaiters async;
+    private BulkExecutor bulk;
+    private AdaptiveSizer sizer;
+    private HealthChecker healthChecker;
+    private IdlePassivator passivator;
+    private LeakDetector leaks;
+    private final boolean leastLatency;
+    private final long closeTimeoutMillis;
+    private final BucketPoolMetrics metrics;
+    private ObjectName metricsName;
 
     /**
      * @param config
@@ -48,22 +96,7 @@ public class BucketPool extends GenericObjectPool<Bucket> {
      * @throws Exception
      */
     public BucketPool(BucketPoolConfig config, BucketPoolAbandonedConfig abandonedConfig) throws Exception {
-        super(new BucketFactory(config), config, abandonedConfig);
-        logger.info("Initializing {} buckets", config.getMinIdle());
-        Bucket bucket[] = new Bucket[config.getMinIdle()];
-        IntStream.range(0, config.getMinIdle()).forEach(x -> {
-            try {
-                bucket[x] = borrowObject();
-                logger.debug("Bucket [{}] borrowed", bucket[x]);
-            } catch (Exception e) {
-                logger.error(e.getMessage(), e);
-            }
-        });
-        IntStream.range(0, config.getMinIdle()).forEach(x -> {
-            returnObject(bucket[x]);
-            logger.debug("Bucket [{}] returned", bucket[x]);
-        });
-        logger.info("Initialized {} buckets", config.getMinIdle());
+        this(new BucketFactory(config), config, abandonedConfig);
     }
 
     /**
@@ -78,4 +111,923 @@ public class BucketPool extends GenericObjectPool<Bucket> {
     public BucketPool(BucketPoolConfig config) throws Exception {
         this(config, null);
     }
+
+    /**
+     * Create a new <code>BucketPool</code> using a specific factory and
+     * configuration.
+     *
+     * @param factory
+     *            The factory used to create, validate and destroy the
+     *            {@link Bucket}s of this pool.
+     * @param config
+     *            The configuration to use for this pool instance. The
+     *            configuration is used by value. Subsequent changes to the
+     *            configuration object will not be reflected in the pool.
+     * @param abandonedConfig
+     *            Configuration for abandoned object identification and removal.
+     *            The configuration is used by value.
+     * @throws Exception
+     */
+    public BucketPool(BucketFactory factory, BucketPoolConfig config, BucketPoolAbandonedConfig abandonedConfig)
+            throws Exception {
+        super(factory, config, abandonedConfig);
+        if (config.isShared() && config.getMaxTotal() < 1) {
+            super.close();
+            throw new IllegalArgumentException("Shared mode requires a positive maxTotal, was " + config.getMaxTotal());
+        }
+        this.factory = factory;
+        this.closeTimeoutMillis = config.getCloseTimeoutMillis();
+        this.leastLatency = factory.isLatencyAware();
+        this.metrics = new BucketPoolMetrics(this, factory);
+        if (config.getJmxEnabled()) {
+            registerMetrics();
+        }
+        if (config.isShared()) {
+            this.shared = new SharedBuckets(config.getMaxTotal(), () -> super.borrowObject(getMaxWaitMillis()),
+                    factory::validate, this::destroyShared);
+        } else if (config.getShards() > 1) {
+            this.shards = new BucketShards(config.getShards(), factory, config, abandonedConfig);
+            // the shards hold every bucket, keep this pool's evictor from creating any
+            setTimeBetweenEvictionRunsMillis(-1);
+            setMinIdle(0);
+        }
+        if (config.isAffinity() && this.shared == null) {
+            this.affinity = new ThreadAffinity(this, factory);
+        }
+        if (abandonedConfig != null && abandonedConfig.getLeakSampleRate() > 0) {
+            if (this.shared != null) {
+                logger.warn("Leak detection ignored in shared mode");
+            } else {
+                this.leaks = new LeakDetector(factory, this.metrics.getHoldTime(), abandonedConfig);
+            }
+        }
+        this.async = new AsyncWaiters(this, factory, this.metrics.getAsyncBorrowWait(), this.leaks);
+        this.bulk = new BulkExecutor(this, config);
+        if (config.getAdaptiveMinTotal() > 0) {
+            if (this.shared != null || this.shards != null || config.getMaxTotal() < 0) {
+                logger.warn("Adaptive sizing ignored, it requires a bounded pool that is neither shared nor sharded");
+            } else {
+                this.sizer = new AdaptiveSizer(this, factory, this.metrics, config);
+            }
+        }
+        if (config.getHealthCheckIntervalMillis() > 0) {
+            if (this.shared != null) {
+                logger.warn("Health checking ignored in shared mode");
+            } else {
+                this.healthChecker = new HealthChecker(this, factory, config);
+            }
+        }
+        if (factory.isPassivateIdle()) {
+            this.passivator = new IdlePassivator(this, factory, config);
+        } else if (config.isPassivate() && config.getPassivateIdleMillis() > 0) {
+            logger.warn("Idle passivation ignored in shared and sharded modes, buckets are closed when returned");
+        }
+        warmUp(config);
+    }
+
+    /**
+     * In shared mode, provides the open {@link Bucket} with the fewest
+     * in-flight borrowers without waiting; the bucket may be used by other
+     * borrowers at the same time. In affinity mode, provides the bucket this
+     * thread returned last if it's still available. Otherwise borrows a bucket
+     * exclusively. The time spent waiting is recorded in the pool's
+     * {@link BucketPoolMetrics}, shared mode aside since it never waits.
+     */
+    @Override
+    public Bucket borrowObject(long borrowMaxWaitMillis) throws Exception {
+        if (this.shared != null) {
+            return this.shared.acquire();
+        }
+        long start = System.nanoTime();
+        Bucket bucket;
+        try {
+            bucket = borrowUnmeasured(borrowMaxWaitMillis);
+        } finally {
+            this.metrics.getBorrowWait().record(System.nanoTime() - start);
+        }
+        if (this.leaks != null) {
+            this.leaks.borrowed((WrappedBucket) bucket, this.leaks.sample());
+        }
+        return bucket;
+    }
+
+    /**
+     * Borrows as {@link #borrowObject(long)} does without recording the wait,
+     * for the borrows made on behalf of asynchronous borrowers.
+     */
+    Bucket borrowUnmeasured(long borrowMaxWaitMillis) throws Exception {
+        if (this.shared != null) {
+            return this.shared.acquire();
+        }
+        if (this.affinity != null) {
+            return this.affinity.borrow(borrowMaxWaitMillis);
+        }
+        return borrowExclusive(borrowMaxWaitMillis);
+    }
+
+    @Override
+    public void returnObject(Bucket bucket) {
+        if (this.shared != null) {
+            this.shared.release(bucket);
+            return;
+        }
+        if (this.leaks != null) {
+            this.leaks.returned((WrappedBucket) bucket);
+        }
+        if (this.async.handOff(bucket)) {
+            if (this.affinity != null) {
+                this.affinity.forget(bucket);
+            }
+            return;
+        }
+        if (this.affinity != null) {
+            this.affinity.release(bucket);
+            return;
+        }
+        returnExclusive(bucket);
+    }
+
+    @Override
+    public void invalidateObject(Bucket bucket) throws Exception {
+        if (this.shared != null) {
+            this.shared.invalidate(bucket);
+            return;
+        }
+        if (this.leaks != null) {
+            this.leaks.returned((WrappedBucket) bucket);
+        }
+        if (this.affinity != null) {
+            this.affinity.forget(bucket);
+        }
+        invalidateExclusive(bucket);
+        this.async.dispatch();
+    }
+
+    /**
+     * Borrows a {@link Bucket} without blocking the calling thread, which only
+     * takes an idle bucket. Otherwise the borrower is queued, without holding
+     * a thread, and the future completes when a bucket is returned, on the
+     * returning thread, or when a pool thread opened one if there's room.
+     * The future fails with a <code>NoSuchElementException</code> after
+     * <code>maxWaitMillis</code>.
+     * <p>
+     * The bucket must be returned with {@link #returnObject(Bucket)}; cancel
+     * the future to stop waiting.
+     * </p>
+     *
+     * @return the future bucket.
+     */
+    public CompletableFuture<Bucket> borrowAsync() {
+        return borrowAsync(getMaxWaitMillis());
+    }
+
+    /**
+     * Borrows a {@link Bucket} without blocking the calling thread.
+     *
+     * @param borrowMaxWaitMillis
+     *            The time after which the future fails with a
+     *            <code>NoSuchElementException</code>. Negative waits
+     *            indefinitely.
+     * @return the future bucket.
+     * @see #borrowAsync()
+     */
+    public CompletableFuture<Bucket> borrowAsync(long borrowMaxWaitMillis) {
+        if (this.shared != null) {
+            CompletableFuture<Bucket> future = new CompletableFuture<>();
+            try {
+                future.complete(this.shared.acquire());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+        return this.async.borrow(borrowMaxWaitMillis);
+    }
+
+    /**
+     * Borrows a {@link Bucket} without blocking, as {@link #borrowAsync()}
+     * does, when subscribed to. Unsubscribing before the bucket is emitted
+     * stops waiting for it.
+     *
+     * @return an <code>Observable</code> emitting one bucket, to be returned
+     *         with {@link #returnObject(Bucket)}.
+     */
+    public Observable<Bucket> borrowObservable() {
+        return Observable.create(subscriber -> {
+            CompletableFuture<Bucket> future = borrowAsync();
+            subscriber.add(Subscriptions.create(() -> future.cancel(false)));
+            future.whenComplete((bucket, e) -> {
+                if (e != null) {
+                    subscriber.onError(e);
+                } else if (subscriber.isUnsubscribed()) {
+                    returnObject(bucket);
+                } else {
+                    subscriber.onNext(bucket);
+                    subscriber.onCompleted();
+                }
+            });
+        });
+    }
+
+    /**
+     * Runs an operation on the {@link AsyncBucket} of a borrowed
+     * {@link Bucket}, without blocking, and returns the bucket to the pool
+     * once the operation completes, fails or is unsubscribed from.
+     *
+     * <pre>
+     * bucketPool.executeAsync(bucket -&gt; bucket.upsert(document)).subscribe(...);
+     * </pre>
+     *
+     * @param operation
+     *            The operation to run.
+     * @return the results of the operation.
+     */
+    public <T> Observable<T> executeAsync(Function<AsyncBucket, Observable<T>> operation) {
+        return borrowObservable().flatMap(borrowed -> Observable.using(() -> borrowed,
+                bucket -> operation.apply(bucket.async()), this::returnObject));
+    }
+
+    /**
+     * Streams the rows of a N1QL query instead of holding the whole result
+     * in memory. A {@link Bucket} is borrowed when subscribed to and returned
+     * as soon as the rows complete or fail, or the subscriber unsubscribes,
+     * e.g. with <code>take(n)</code>.
+     * <p>
+     * Rows are emitted as the subscriber requests them. The query service
+     * sends them without waiting for requests, so the rows a slow subscriber
+     * hasn't requested yet are buffered.
+     * </p>
+     *
+     * @param query
+     *            The query. With <code>queryPlanCacheSize</code>, a query
+     *            with <code>adhoc(false)</code> uses the plans shared by the
+     *            pool.
+     * @return the rows, failing with a <code>QueryExecutionException</code>
+     *         if the query reported errors.
+     */
+    public Observable<AsyncN1qlQueryRow> queryRows(N1qlQuery query) {
+        return borrowObservable().flatMap(borrowed -> Observable.using(() -> borrowed,
+                bucket -> rows(((WrappedBucket) bucket).queryAsync(query)), this::returnObject, true));
+    }
+
+    private static Observable<AsyncN1qlQueryRow> rows(Observable<AsyncN1qlQueryResult> results) {
+        return results.flatMap(result -> result.rows().onBackpressureBuffer()
+                .concatWith(result.errors().toList().flatMap(errors -> errors.isEmpty()
+                        ? Observable.<AsyncN1qlQueryRow> empty()
+                        : Observable.error(new QueryExecutionException("Query failed: " + errors, errors.get(0))))));
+    }
+
+    /**
+     * Iterates over the rows of a N1QL query as {@link #queryRows(N1qlQuery)}
+     * streams them, fetching more as they are consumed. The {@link Bucket} is
+     * returned once the last row was read, or when the iterator is closed:
+     * close an iterator that isn't read to the end.
+     *
+     * <pre>
+     * try (QueryRowIterator rows = bucketPool.queryIterator(query)) {
+     *     while (rows.hasNext()) {
+     *         ...
+     *     }
+     * }
+     * </pre>
+     *
+     * @param query
+     *            The query.
+     * @return the rows.
+     */
+    public QueryRowIterator queryIterator(N1qlQuery query) {
+        return new QueryRowIterator(queryRows(query));
+    }
+
+    /**
+     * Upserts a batch of documents, spread across <code>bulkBuckets</code>
+     * pooled {@link Bucket}s with up to <code>bulkInFlight</code> upserts in
+     * flight on each, instead of one blocking round trip per document.
+     *
+     * @param documents
+     *            The documents to upsert.
+     * @return the upserted documents and the failures, by document id.
+     * @throws Exception
+     *             if no bucket could be borrowed.
+     */
+    public <D extends Document<?>> BulkResult<D> upsertAll(Collection<D> documents) throws Exception {
+        return bulk(documents, AsyncBucket::upsert);
+    }
+
+    /**
+     * Inserts a batch of documents as {@link #upsertAll(Collection)} does.
+     *
+     * @param documents
+     *            The documents to insert.
+     * @return the inserted documents and the failures, by document id.
+     * @throws Exception
+     *             if no bucket could be borrowed.
+     */
+    public <D extends Document<?>> BulkResult<D> insertAll(Collection<D> documents) throws Exception {
+        return bulk(documents, AsyncBucket::insert);
+    }
+
+    /**
+     * Replaces a batch of documents as {@link #upsertAll(Collection)} does.
+     *
+     * @param documents
+     *            The documents to replace.
+     * @return the replaced documents and the failures, by document id.
+     * @throws Exception
+     *             if no bucket could be borrowed.
+     */
+    public <D extends Document<?>> BulkResult<D> replaceAll(Collection<D> documents) throws Exception {
+        return bulk(documents, AsyncBucket::replace);
+    }
+
+    /**
+     * Removes a batch of documents as {@link #upsertAll(Collection)} does.
+     *
+     * @param documents
+     *            The documents to remove.
+     * @return the removed documents and the failures, by document id.
+     * @throws Exception
+     *             if no bucket could be borrowed.
+     */
+    public <D extends Document<?>> BulkResult<D> removeAll(Collection<D> documents) throws Exception {
+        return bulk(documents, AsyncBucket::remove);
+    }
+
+    /**
+     * Gets a batch of {@link JsonDocument}s as
+     * {@link #getAll(Collection, Class)} does.
+     *
+     * @param ids
+     *            The ids of the documents.
+     * @return the documents found by id.
+     * @throws Exception
+     *             if no bucket could be borrowed or a get failed.
+     */
+    public Map<String, JsonDocument> getAll(Collection<String> ids) throws Exception {
+        return getAll(ids, JsonDocument.class);
+    }
+
+    /**
+     * Gets a batch of documents, spread across <code>bulkBuckets</code>
+     * pooled {@link Bucket}s with up to <code>bulkInFlight</code> gets in
+     * flight on each, instead of one blocking round trip per id. Ids that
+     * don't exist are omitted from the result.
+     *
+     * @param ids
+     *            The ids of the documents. Duplicates are fetched once.
+     * @param target
+     *            The type of the documents.
+     * @return the documents found by id, in the order they were received.
+     * @throws Exception
+     *             if no bucket could be borrowed or a get failed.
+     */
+    public <D extends Document<?>> Map<String, D> getAll(Collection<String> ids, Class<D> target)
+            throws Exception {
+        Map<String, D> documents = new LinkedHashMap<>();
+        for (BulkExecutor.Outcome<D> outcome : this.bulk.executeAll(new LinkedHashSet<>(ids), Function.identity(),
+                (bucket, id) -> bucket.get(id, target))) {
+            if (outcome.error instanceof Exception) {
+                throw (Exception) outcome.error;
+            } else if (outcome.error != null) {
+                throw Exceptions.propagate(outcome.error);
+            }
+            documents.put(outcome.id, outcome.result);
+        }
+        return documents;
+    }
+
+    /**
+     * Gets documents as {@link #getAll(Collection, Class)} does while the ids
+     * are emitted, for id sets too large to hold the documents in memory.
+     * Ids are requested only as in-flight gets complete and documents are
+     * emitted as they arrive, so a slow subscriber slows the gets down.
+     * <p>
+     * The buckets are borrowed on the subscribing thread and returned once
+     * the ids are exhausted, a get fails or the subscriber unsubscribes.
+     * </p>
+     *
+     * @param ids
+     *            The ids of the documents.
+     * @param target
+     *            The type of the documents.
+     * @return the documents found, in the order they were received.
+     */
+    public <D extends Document<?>> Observable<D> getAll(Observable<String> ids, Class<D> target) {
+        return this.bulk.stream(ids, Function.identity(), (AsyncBucket bucket, String id) -> bucket.get(id, target))
+                .flatMap(outcome -> outcome.error == null ? Observable.just(outcome.result)
+                        : Observable.<D> error(outcome.error));
+    }
+
+    private <D extends Document<?>> BulkResult<D> bulk(Collection<D> documents,
+            BiFunction<AsyncBucket, D, Observable<D>> operation) throws Exception {
+        if (this.factory.isInvalidating()) {
+            BiFunction<AsyncBucket, D, Observable<D>> uncached = operation;
+            operation = (bucket, document) -> uncached.apply(bucket, document)
+                    .doOnTerminate(() -> this.factory.invalidate(document.id()));
+        }
+        BulkResult<D> result = new BulkResult<>();
+        this.bulk.executeAll(documents, Document::id, operation).forEach(outcome -> {
+            if (outcome.error != null) {
+                result.failed(outcome.id, outcome.error);
+            } else {
+                result.succeeded(outcome.id, outcome.result);
+            }
+        });
+        return result;
+    }
+
+    boolean isAffinity() {
+        return this.affinity != null;
+    }
+
+    Bucket borrowExclusive(long borrowMaxWaitMillis) throws Exception {
+        if (this.shards != null) {
+            return this.shards.borrow(borrowMaxWaitMillis);
+        }
+        Bucket bucket = super.borrowObject(borrowMaxWaitMillis);
+        if (this.leastLatency && getNumIdle() > 0) {
+            return faster(bucket);
+        }
+        return bucket;
+    }
+
+    /**
+     * Borrows a second bucket, if one is already idle and open, and keeps the
+     * one with the lowest recent latency, returning the other one through
+     * {@link #returnObject(Bucket)} so waiters and bookkeeping see it.
+     */
+    private Bucket faster(Bucket bucket) {
+        if (this.factory.isPassivate()) {
+            // an idle bucket may be closed, comparing must not open it
+            return bucket;
+        }
+        Bucket other;
+        try {
+            other = this.factory.idleOnly(() -> super.borrowObject(0));
+        } catch (Exception e) {
+            // lost the race for the last idle bucket
+            return bucket;
+        }
+        long now = System.nanoTime();
+        if (((WrappedBucket) other).getRecentLatency(now) < ((WrappedBucket) bucket).getRecentLatency(now)) {
+            returnObject(bucket);
+            return other;
+        }
+        returnObject(other);
+        return bucket;
+    }
+
+    void returnExclusive(Bucket bucket) {
+        if (this.shards != null) {
+            this.shards.release(bucket);
+            return;
+        }
+        super.returnObject(bucket);
+    }
+
+    void invalidateExclusive(Bucket bucket) throws Exception {
+        if (this.shards != null) {
+            this.shards.invalidate(bucket);
+            return;
+        }
+        super.invalidateObject(bucket);
+    }
+
+    /**
+     * Destroys an idle bucket claimed with
+     * <code>PooledObject.startEvictionTest()</code>, e.g. by the
+     * {@link HealthChecker}. Idle buckets are neither borrowed nor parked, so
+     * there's nothing to forget beyond the pool itself.
+     */
+    void invalidateIdle(Bucket bucket) throws Exception {
+        if (this.shards != null) {
+            this.shards.invalidateIdle(bucket);
+        } else {
+            super.invalidateObject(bucket);
+        }
+        this.async.dispatch();
+    }
+
+    /**
+     * Applies a new size chosen by the {@link AdaptiveSizer}, destroying the
+     * idle buckets over the new <code>maxIdle</code> and handing any room
+     * gained to the async waiters.
+     */
+    void resize(int maxTotal, int maxIdle, int minIdle) {
+        setMaxTotal(maxTotal);
+        setMaxIdle(maxIdle);
+        setMinIdle(minIdle);
+        while (getNumIdle() > getMaxIdle()) {
+            try {
+                super.invalidateObject(super.borrowObject(0));
+            } catch (NoSuchElementException e) {
+                break;
+            } catch (Exception e) {
+                logger.warn(e.getMessage(), e);
+                break;
+            }
+        }
+        this.async.dispatch();
+    }
+
+    AdaptiveSizer getSizer() {
+        return this.sizer;
+    }
+
+    LeakDetector getLeakDetector() {
+        return this.leaks;
+    }
+
+    IdlePassivator getPassivator() {
+        return this.passivator;
+    }
+
+    SharedBuckets getShared() {
+        return this.shared;
+    }
+
+    HealthChecker getHealthChecker() {
+        return this.healthChecker;
+    }
+
+    /**
+     * Determines if a bucket can be borrowed exclusively without waiting,
+     * because one is idle or there's room to create one.
+     */
+    boolean hasRoom() {
+        int idle = getNumIdle();
+        return idle > 0 || getMaxTotal() < 0 || getNumActive() + idle < getMaxTotal();
+    }
+
+    @Override
+    public void addObject() throws Exception {
+        if (this.shards != null) {
+            this.shards.addObject();
+            return;
+        }
+        super.addObject();
+    }
+
+    @Override
+    public int getNumIdle() {
+        return this.shards == null ? super.getNumIdle() : this.shards.getNumIdle();
+    }
+
+    @Override
+    public int getNumActive() {
+        return this.shards == null ? super.getNumActive() : this.shards.getNumActive();
+    }
+
+    @Override
+    public int getNumWaiters() {
+        return this.shards == null ? super.getNumWaiters() : this.shards.getNumWaiters();
+    }
+
+    /**
+     * Also hands the buckets parked by threads that have died back to the pool
+     * when running in affinity mode.
+     */
+    @Override
+    public void evict() throws Exception {
+        if (this.affinity != null) {
+            this.affinity.reclaim(false);
+        }
+        super.evict();
+    }
+
+    @Override
+    public void clear() {
+        if (this.affinity != null) {
+            this.affinity.reclaim(true);
+        }
+        if (this.shards != null) {
+            this.shards.clear();
+        }
+        super.clear();
+    }
+
+    /**
+     * Stops handing buckets out, waits up to half of
+     * <code>closeTimeoutMillis</code> for the borrowed ones to be returned,
+     * then disconnects every cluster in parallel and shuts the environment
+     * down unless it was provided through the configuration, within the rest
+     * of the timeout. Buckets still borrowed by then are closed along with
+     * their cluster.
+     */
+    @Override
+    public void close() {
+        if (isClosed()) {
+            return;
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(this.closeTimeoutMillis);
+        if (this.metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.metricsName);
+            } catch (JMException e) {
+                logger.warn(e.getMessage(), e);
+            }
+            this.metricsName = null;
+        }
+        if (this.sizer != null) {
+            this.sizer.close();
+        }
+        if (this.healthChecker != null) {
+            this.healthChecker.close();
+        }
+        if (this.passivator != null) {
+            this.passivator.close();
+        }
+        if (this.leaks != null) {
+            this.leaks.close();
+        }
+        this.async.close();
+        if (this.shared != null) {
+            this.shared.close();
+        }
+        if (this.affinity != null) {
+            this.affinity.reclaim(true);
+        }
+        if (this.shards != null) {
+            this.shards.close();
+        }
+        super.close();
+        // keep half of the time for the clusters to disconnect
+        drain(start + TimeUnit.MILLISECONDS.toNanos(this.closeTimeoutMillis / 2));
+        this.factory.close(Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+    }
+
+    private void destroyShared(Bucket bucket) {
+        try {
+            super.invalidateObject(bucket);
+        } catch (Exception e) {
+            logger.warn(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Waits for the borrowed buckets to be returned, destroying them as they
+     * are, then destroys the shared buckets.
+     */
+    private void drain(long deadline) {
+        while (getNumInUse() > 0 && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(DRAIN_POLL_NANOS);
+        }
+        int inUse = getNumInUse();
+        if (inUse > 0) {
+            logger.warn("Closing the pool with {} buckets still borrowed", inUse);
+        }
+        if (this.shared != null) {
+            this.shared.getBuckets().forEach(this::destroyShared);
+        }
+    }
+
+    private int getNumInUse() {
+        return this.shared == null ? getNumActive() : this.shared.getInFlight();
+    }
+
+    /**
+     * Provides the near cache serving the <code>get</code>s of the
+     * {@link Bucket}s of this pool.
+     *
+     * @return the cache, or null unless <code>nearCacheSize</code> is set.
+     */
+    public NearCache getNearCache() {
+        return this.factory.getNearCache();
+    }
+
+    /**
+     * Provides the N1QL query plans shared by the {@link Bucket}s of this
+     * pool, e.g. to invalidate them all at once.
+     *
+     * @return the cache, or null unless <code>queryPlanCacheSize</code> is
+     *         set.
+     */
+    public QueryPlanCache getQueryPlanCache() {
+        return this.factory.getQueryPlanCache();
+    }
+
+    /**
+     * Provides the number of reads served by an identical read already in
+     * flight, with <code>singleFlight</code> enabled.
+     *
+     * @return the deduplicated reads.
+     */
+    public long getDeduplicatedReads() {
+        return this.factory.getDeduplicatedReads();
+    }
+
+    /**
+     * Provides the number of upserts written as part of a newer upsert of the
+     * same document, with <code>upsertCoalescingWindowMicros</code> set.
+     *
+     * @return the coalesced upserts.
+     */
+    public long getCoalescedUpserts() {
+        return this.factory.getCoalescedUpserts();
+    }
+
+    /**
+     * Provides the number of {@link #borrowAsync()} borrowers queued for a
+     * {@link Bucket}.
+     *
+     * @return the queued borrowers.
+     */
+    public int getNumAsyncWaiters() {
+        return this.async.size();
+    }
+
+    /**
+     * Provides the borrow wait, bucket and cluster metrics of this pool, also
+     * available through JMX when enabled.
+     *
+     * @return the metrics.
+     */
+    public BucketPoolMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Registers the metrics under the same name as the pool's own MBean, with
+     * the <code>org.adriss.bucketpool:type=BucketPoolMetrics</code> domain and
+     * type.
+     */
+    private void registerMetrics() {
+        ObjectName poolName = getJmxName();
+        if (poolName == null) {
+            return;
+        }
+        try {
+            ObjectName name = new ObjectName("org.adriss.bucketpool:type=BucketPoolMetrics,name="
+                    + poolName.getKeyProperty("name"));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this.metrics, name);
+            this.metricsName = name;
+        } catch (JMException e) {
+            logger.warn("Failed to register the pool metrics", e);
+        }
+    }
+
+    /**
+     * Provides the latency and errors of the operations run on the
+     * {@link Bucket}s of this pool, per operation family.
+     *
+     * @return the metrics, or null unless <code>operationMetrics</code> is
+     *         enabled.
+     */
+    public OperationMetrics getOperationMetrics() {
+        return this.factory.getOperationMetrics();
+    }
+
+    /**
+     * Provides the operation metrics of each {@link Bucket} currently in the
+     * pool.
+     *
+     * @return the metrics by bucket.
+     */
+    public Map<String, OperationMetrics> getBucketOperationMetrics() {
+        return this.factory.getBucketOperationMetrics();
+    }
+
+    /**
+     * Provides the average latency, in milliseconds, of the health probes of
+     * each {@link Bucket} currently in the pool.
+     *
+     * @return the latencies by bucket, empty unless
+     *         <code>healthCheckIntervalMillis</code> is set.
+     */
+    public Map<String, Double> getBucketHealth() {
+        return this.healthChecker == null ? Collections.emptyMap() : this.healthChecker.getLatencies();
+    }
+
+    /**
+     * Provides the {@link Bucket}s currently held longer than
+     * <code>leakReportMillis</code>, with their hold time and, if sampled,
+     * the call site that borrowed them.
+     *
+     * @return the suspected leaks, empty unless <code>leakSampleRate</code> is
+     *         set.
+     */
+    public List<String> getLeakSuspects() {
+        return this.leaks == null ? Collections.emptyList() : this.leaks.getSuspects();
+    }
+
+    /**
+     * Provides the number of {@link Bucket}s reported as held longer than
+     * <code>leakReportMillis</code>, by sampled call site.
+     *
+     * @return the leaks by call site, empty unless <code>leakSampleRate</code>
+     *         is set.
+     */
+    public Map<String, Long> getLeaksBySite() {
+        return this.leaks == null ? Collections.emptyMap() : this.leaks.getLeaks();
+    }
+
+    /**
+     * Provides the hold time histogram of the sampled borrows, by call site.
+     * The hold time of every borrow is in {@link BucketPoolMetrics}.
+     *
+     * @return the hold times by call site, empty unless
+     *         <code>leakSampleRate</code> is set.
+     */
+    public Map<String, LatencyHistogram> getHoldTimesBySite() {
+        return this.leaks == null ? Collections.emptyMap() : this.leaks.getHoldTimes();
+    }
+
+    /**
+     * Provides the number of borrowers currently using a shared
+     * {@link Bucket}.
+     *
+     * @param bucket
+     *            a bucket borrowed from this pool.
+     * @return the in-flight count, or -1 if the pool isn't shared or the
+     *         bucket isn't part of it.
+     */
+    public int getInFlight(Bucket bucket) {
+        return this.shared == null ? -1 : this.shared.getInFlight(bucket);
+    }
+
+    /**
+     * Opens <code>minIdle</code> buckets concurrently. The pool becomes ready
+     * once <code>warmUpReadyCount</code> of them are open; the constructor
+     * waits for readiness up to <code>warmUpTimeoutMillis</code> and the
+     * remaining buckets keep opening in the background.
+     */
+    private void warmUp(BucketPoolConfig config) {
+        int total = config.getMinIdle();
+        int readyCount = config.getWarmUpReadyCount() < 0 ? total : Math.min(config.getWarmUpReadyCount(), total);
+        if (readyCount == 0) {
+            this.readiness.complete(this);
+        }
+        if (total == 0) {
+            return;
+        }
+        logger.info("Initializing {} buckets, ready at {}", total, readyCount);
+        AtomicInteger opened = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(total, runnable -> {
+            Thread thread = new Thread(runnable, "bucketpool-warmup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        IntStream.range(0, total).forEach(x -> executor.execute(() -> {
+            try {
+                addObject();
+                if (opened.incrementAndGet() == readyCount) {
+                    this.readiness.complete(this);
+                }
+            } catch (Exception e) {
+                if (isClosed()) {
+                    logger.debug("Warm-up stopped, the pool is closed");
+                } else {
+                    logger.error(e.getMessage(), e);
+                }
+            } finally {
+                if (finished.incrementAndGet() == total) {
+                    logger.info("Initialized {} of {} buckets", opened.get(), total);
+                    this.readiness.completeExceptionally(new IllegalStateException(
+                            "Only " + opened.get() + " of " + readyCount + " buckets could be opened"));
+                }
+            }
+        }));
+        executor.shutdown();
+        long timeout = config.getWarmUpTimeoutMillis();
+        if (timeout == 0) {
+            return;
+        }
+        try {
+            if (timeout < 0) {
+                this.readiness.get();
+            } else {
+                this.readiness.get(timeout, TimeUnit.MILLISECONDS);
+            }
+        } catch (TimeoutException e) {
+            logger.warn("Pool not ready after {} ms, warm-up continues in the background", timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Provides a future completed with this pool once
+     * <code>warmUpReadyCount</code> buckets are open, or completed
+     * exceptionally if the warm-up could not open enough of them. Callbacks
+     * can be attached to it, e.g. to flip a health endpoint.
+     *
+     * @return the readiness of the pool.
+     */
+    public CompletableFuture<BucketPool> getReadiness() {
+        return this.readiness;
+    }
+
+    /**
+     * Determines if the warm-up has opened <code>warmUpReadyCount</code>
+     * buckets.
+     *
+     * @return boolean
+     */
+    public boolean isReady() {
+        return this.readiness.isDone() && !this.readiness.isCompletedExceptionally();
+    }
 }
\ No newline at end of file
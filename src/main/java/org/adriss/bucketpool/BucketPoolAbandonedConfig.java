@@ -17,12 +17,62 @@ package org.adriss.bucketpool;
 
 import org.apache.commons.pool2.impl.AbandonedConfig;
 
+import com.couchbase.client.java.Bucket;
+
 /**
  * Configuration settings for abandoned object removal.
+ * <p>
+ * <code>logAbandoned</code> captures a stack trace on every borrow. The
+ * sampling leak detector, enabled by <code>leakSampleRate</code>, captures
+ * the call site of one borrow in N instead and reports the {@link Bucket}s
+ * held longer than <code>leakReportMillis</code>.
+ * </p>
  *
  * @author JC Carrillo
  * @since 0.1
  */
 public class BucketPoolAbandonedConfig extends AbandonedConfig {
 
+    private int leakSampleRate;
+    private long leakReportMillis = 60000;
+
+    /**
+     * Enables the leak detector, capturing the call site of one borrow in
+     * <code>leakSampleRate</code>; 1 captures every borrow. If 0 or less, the
+     * detector is disabled. Ignored in shared mode.
+     * 
+     * @param leakSampleRate
+     */
+    public void setLeakSampleRate(int leakSampleRate) {
+        this.leakSampleRate = leakSampleRate;
+    }
+
+    /**
+     * Provides the number of borrows per captured call site.
+     * 
+     * @return int
+     */
+    public int getLeakSampleRate() {
+        return leakSampleRate;
+    }
+
+    /**
+     * The time after which a borrowed {@link Bucket} is reported as leaked by
+     * the leak detector.
+     * 
+     * @param leakReportMillis
+     */
+    public void setLeakReportMillis(long leakReportMillis) {
+        this.leakReportMillis = leakReportMillis;
+    }
+
+    /**
+     * Provides the time after which a borrowed {@link Bucket} is reported as
+     * leaked.
+     * 
+     * @return long
+     */
+    public long getLeakReportMillis() {
+        return leakReportMillis;
+    }
 }
\ No newline at end of file
@@ -15,9 +15,13 @@
  */
 package org.adriss.bucketpool;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 
 import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.env.CouchbaseEnvironment;
 
 /**
  * A simple "struct" extending the configuration of
@@ -36,6 +40,35 @@ public class BucketPoolConfig extends GenericObjectPoolConfig {
     private String[] nodes;
     private String name;
     private boolean passivate;
+    private long passivateIdleMillis;
+    private long warmUpTimeoutMillis = -1;
+    private int warmUpReadyCount = -1;
+    private boolean lazyClusters;
+    private int spareClusters;
+    private boolean shared;
+    private int shards = 1;
+    private boolean affinity;
+    private boolean operationMetrics;
+    private int bulkBuckets = 4;
+    private int bulkInFlight = 64;
+    private long bulkTimeoutMillis = 2500;
+    private int nearCacheSize;
+    private long nearCacheTtlMillis = 1000;
+    private int queryPlanCacheSize;
+    private boolean singleFlight;
+    private long upsertCoalescingWindowMicros = -1;
+    private int adaptiveMinTotal;
+    private long adaptiveIntervalMillis = 1000;
+    private long adaptiveCooldownMillis = 10000;
+    private long adaptiveGrowWaitMillis = 5;
+    private CouchbaseEnvironment environment;
+    private long closeTimeoutMillis = 10000;
+    private long healthCheckIntervalMillis = -1;
+    private long healthCheckTimeoutMillis = 1000;
+    private long healthCheckMaxLatencyMillis = 250;
+    private int healthCheckMaxFailures = 3;
+    private boolean leastLatency;
+    private final List<String[]> clusterGroups = new ArrayList<>();
 
     /**
      * 
@@ -91,4 +124,607 @@ public class BucketPoolConfig extends GenericObjectPoolConfig {
     public boolean isPassivate() {
         return passivate;
     }
-}
\ No newline at end of file
+
+    /**
+     * With <code>passivate</code>, closes only the {@link Bucket}s idle for
+     * longer than this, in the background, and reopens closed ones ahead of
+     * the borrows predicted from the recent borrow rate. If 0 or less, buckets
+     * are closed when returned and reopened when borrowed. Ignored in shared
+     * and sharded modes.
+     * 
+     * @param passivateIdleMillis
+     */
+    public void setPassivateIdleMillis(long passivateIdleMillis) {
+        this.passivateIdleMillis = passivateIdleMillis;
+    }
+
+    /**
+     * Provides the idle time after which a passivated {@link Bucket} is
+     * closed.
+     * 
+     * @return long
+     */
+    public long getPassivateIdleMillis() {
+        return passivateIdleMillis;
+    }
+
+    /**
+     * Sets how long the pool constructor waits for the warm-up to make the pool
+     * ready. A negative value waits indefinitely, zero returns immediately and
+     * leaves the warm-up running in the background.
+     * 
+     * @param warmUpTimeoutMillis
+     */
+    public void setWarmUpTimeoutMillis(long warmUpTimeoutMillis) {
+        this.warmUpTimeoutMillis = warmUpTimeoutMillis;
+    }
+
+    /**
+     * Provides how long the pool constructor waits for the warm-up.
+     * 
+     * @return the timeout in milliseconds.
+     */
+    public long getWarmUpTimeoutMillis() {
+        return warmUpTimeoutMillis;
+    }
+
+    /**
+     * Sets how many of the <code>minIdle</code> {@link Bucket}s must be open
+     * for the pool to be ready. A negative value requires all of them.
+     * 
+     * @param warmUpReadyCount
+     */
+    public void setWarmUpReadyCount(int warmUpReadyCount) {
+        this.warmUpReadyCount = warmUpReadyCount;
+    }
+
+    /**
+     * Provides how many {@link Bucket}s must be open for the pool to be ready.
+     * 
+     * @return the ready count.
+     */
+    public int getWarmUpReadyCount() {
+        return warmUpReadyCount;
+    }
+
+    /**
+     * If true, clusters are created when the pool grows instead of creating
+     * <code>maxTotal</code> clusters up front.
+     * 
+     * @param lazyClusters
+     */
+    public void setLazyClusters(boolean lazyClusters) {
+        this.lazyClusters = lazyClusters;
+    }
+
+    /**
+     * Determines if clusters are created on demand.
+     * 
+     * @return boolean
+     */
+    public boolean isLazyClusters() {
+        return lazyClusters;
+    }
+
+    /**
+     * Sets how many unused clusters are kept ready ahead of demand when
+     * clusters are created on demand, so growing the pool doesn't wait for a
+     * cluster to connect.
+     * 
+     * @param spareClusters
+     */
+    public void setSpareClusters(int spareClusters) {
+        this.spareClusters = spareClusters;
+    }
+
+    /**
+     * Provides how many unused clusters are kept ready ahead of demand.
+     * 
+     * @return the spare clusters.
+     */
+    public int getSpareClusters() {
+        return spareClusters;
+    }
+
+    /**
+     * If true, {@link Bucket}s are not borrowed exclusively: the pool keeps up
+     * to <code>maxTotal</code> buckets open and hands each borrower the one
+     * with the fewest in-flight borrowers, without waiting. Buckets must still
+     * be returned to the pool. <code>maxTotal</code> must be positive. Closed
+     * buckets are replaced in the background.
+     * 
+     * @param shared
+     */
+    public void setShared(boolean shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * Determines if {@link Bucket}s are shared between borrowers.
+     * 
+     * @return boolean
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Sets the number of sub-pools the pool is split into. Each thread borrows
+     * from its own shard and steals from the others when it's empty, which
+     * reduces contention on the idle {@link Bucket}s. <code>maxTotal</code>,
+     * <code>maxIdle</code> and <code>minIdle</code> are divided between the
+     * shards. Ignored in shared mode.
+     * 
+     * @param shards
+     */
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * Provides the number of sub-pools the pool is split into.
+     * 
+     * @return the shards.
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * If true, a {@link Bucket} returned to the pool stays bound to the
+     * returning thread, so its next borrow reuses it without going through the
+     * pool. Other threads take it over when the pool is exhausted. Ignored in
+     * shared mode.
+     * 
+     * @param affinity
+     */
+    public void setAffinity(boolean affinity) {
+        this.affinity = affinity;
+    }
+
+    /**
+     * Determines if {@link Bucket}s stay bound to the thread that returned
+     * them.
+     * 
+     * @return boolean
+     */
+    public boolean isAffinity() {
+        return affinity;
+    }
+
+    /**
+     * If true, the latency and errors of every blocking {@link Bucket}
+     * operation, <code>lookupIn</code> and <code>mutateIn</code> included, are
+     * recorded per operation family, for each bucket and for the whole pool.
+     * Operations made through <code>async()</code> are not measured.
+     * 
+     * @param operationMetrics
+     */
+    public void setOperationMetrics(boolean operationMetrics) {
+        this.operationMetrics = operationMetrics;
+    }
+
+    /**
+     * Determines if {@link Bucket} operations are measured.
+     * 
+     * @return boolean
+     */
+    public boolean isOperationMetrics() {
+        return operationMetrics;
+    }
+
+    /**
+     * The number of {@link Bucket}s a bulk operation spreads its documents
+     * across. The first one is waited for, the others are only taken if
+     * available.
+     * 
+     * @param bulkBuckets
+     */
+    public void setBulkBuckets(int bulkBuckets) {
+        this.bulkBuckets = bulkBuckets;
+    }
+
+    /**
+     * Provides the number of buckets a bulk operation uses.
+     * 
+     * @return int
+     */
+    public int getBulkBuckets() {
+        return bulkBuckets;
+    }
+
+    /**
+     * The max number of operations a bulk operation keeps in flight on each
+     * {@link Bucket}.
+     * 
+     * @param bulkInFlight
+     */
+    public void setBulkInFlight(int bulkInFlight) {
+        this.bulkInFlight = bulkInFlight;
+    }
+
+    /**
+     * Provides the max in-flight operations per bucket of a bulk operation.
+     * 
+     * @return int
+     */
+    public int getBulkInFlight() {
+        return bulkInFlight;
+    }
+
+    /**
+     * The time after which an operation of a bulk operation fails with a
+     * <code>TimeoutException</code>. 0 or less never times out.
+     * 
+     * @param bulkTimeoutMillis
+     */
+    public void setBulkTimeoutMillis(long bulkTimeoutMillis) {
+        this.bulkTimeoutMillis = bulkTimeoutMillis;
+    }
+
+    /**
+     * Provides the timeout of each operation of a bulk operation.
+     * 
+     * @return long
+     */
+    public long getBulkTimeoutMillis() {
+        return bulkTimeoutMillis;
+    }
+
+    /**
+     * The max number of documents kept in the near cache shared by the
+     * {@link Bucket}s of the pool. 0 disables the cache.
+     * 
+     * @param nearCacheSize
+     */
+    public void setNearCacheSize(int nearCacheSize) {
+        this.nearCacheSize = nearCacheSize;
+    }
+
+    /**
+     * Provides the max number of documents in the near cache.
+     * 
+     * @return int
+     */
+    public int getNearCacheSize() {
+        return nearCacheSize;
+    }
+
+    /**
+     * The max time a document is served from the near cache, bounding how
+     * stale it can be when mutated outside of the pool.
+     * 
+     * @param nearCacheTtlMillis
+     */
+    public void setNearCacheTtlMillis(long nearCacheTtlMillis) {
+        this.nearCacheTtlMillis = nearCacheTtlMillis;
+    }
+
+    /**
+     * Provides the max time a document is served from the near cache.
+     * 
+     * @return long
+     */
+    public long getNearCacheTtlMillis() {
+        return nearCacheTtlMillis;
+    }
+
+    /**
+     * The max number of N1QL query plans, per cluster group, shared by the
+     * {@link Bucket}s of the pool for the queries run with
+     * <code>adhoc(false)</code>. 0 leaves each bucket with its own plans.
+     * 
+     * @param queryPlanCacheSize
+     */
+    public void setQueryPlanCacheSize(int queryPlanCacheSize) {
+        this.queryPlanCacheSize = queryPlanCacheSize;
+    }
+
+    /**
+     * Provides the max number of N1QL query plans shared by the pool.
+     * 
+     * @return int
+     */
+    public int getQueryPlanCacheSize() {
+        return queryPlanCacheSize;
+    }
+
+    /**
+     * If true, identical reads (<code>get</code>, <code>exists</code>,
+     * <code>lookupIn</code>) running concurrently on any {@link Bucket} of
+     * the pool are sent to the server once and share its result.
+     * 
+     * @param singleFlight
+     */
+    public void setSingleFlight(boolean singleFlight) {
+        this.singleFlight = singleFlight;
+    }
+
+    /**
+     * Determines if concurrent identical reads are coalesced.
+     * 
+     * @return boolean
+     */
+    public boolean isSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Coalesces the upserts of the same document on any {@link Bucket} of the
+     * pool, writing only the newest one and returning its result to every
+     * caller. The first upsert of a batch waits this long for others to join
+     * it; 0 only coalesces the upserts arriving while a write of the document
+     * is in flight. -1 (default) disables coalescing: every upsert pays for
+     * the hand-off, which lowers throughput unless the same documents are
+     * written concurrently. Upserts requesting durability
+     * (<code>PersistTo</code>/<code>ReplicateTo</code>) are never coalesced.
+     * 
+     * @param upsertCoalescingWindowMicros
+     */
+    public void setUpsertCoalescingWindowMicros(long upsertCoalescingWindowMicros) {
+        this.upsertCoalescingWindowMicros = upsertCoalescingWindowMicros;
+    }
+
+    /**
+     * Provides how long the first upsert of a batch waits for others, or -1
+     * if upserts are not coalesced.
+     * 
+     * @return long
+     */
+    public long getUpsertCoalescingWindowMicros() {
+        return upsertCoalescingWindowMicros;
+    }
+
+    /**
+     * If greater than 0, the pool sizes itself between this and
+     * <code>maxTotal</code>: it grows while borrowers wait for a
+     * {@link Bucket} and shrinks once half of its buckets stay unused.
+     * <code>maxIdle</code> and <code>minIdle</code> are capped by the current
+     * size. 0 (default) keeps the size fixed. Ignored in shared and sharded
+     * modes.
+     * 
+     * @param adaptiveMinTotal
+     */
+    public void setAdaptiveMinTotal(int adaptiveMinTotal) {
+        this.adaptiveMinTotal = adaptiveMinTotal;
+    }
+
+    /**
+     * Provides the smallest size of an adaptive pool, or 0 if its size is
+     * fixed.
+     * 
+     * @return int
+     */
+    public int getAdaptiveMinTotal() {
+        return adaptiveMinTotal;
+    }
+
+    /**
+     * How often an adaptive pool decides whether to resize, looking at the
+     * borrow wait, buckets in use and operation latency of the interval.
+     * 
+     * @param adaptiveIntervalMillis
+     */
+    public void setAdaptiveIntervalMillis(long adaptiveIntervalMillis) {
+        this.adaptiveIntervalMillis = adaptiveIntervalMillis;
+    }
+
+    /**
+     * Provides how often an adaptive pool decides whether to resize.
+     * 
+     * @return long
+     */
+    public long getAdaptiveIntervalMillis() {
+        return adaptiveIntervalMillis;
+    }
+
+    /**
+     * How long an adaptive pool waits after resizing before it shrinks. It
+     * may grow again on the next interval.
+     * 
+     * @param adaptiveCooldownMillis
+     */
+    public void setAdaptiveCooldownMillis(long adaptiveCooldownMillis) {
+        this.adaptiveCooldownMillis = adaptiveCooldownMillis;
+    }
+
+    /**
+     * Provides how long an adaptive pool waits after resizing before it
+     * shrinks.
+     * 
+     * @return long
+     */
+    public long getAdaptiveCooldownMillis() {
+        return adaptiveCooldownMillis;
+    }
+
+    /**
+     * The p99 borrow wait over which an adaptive pool grows. It only shrinks
+     * while the p99 stays under a quarter of it.
+     * 
+     * @param adaptiveGrowWaitMillis
+     */
+    public void setAdaptiveGrowWaitMillis(long adaptiveGrowWaitMillis) {
+        this.adaptiveGrowWaitMillis = adaptiveGrowWaitMillis;
+    }
+
+    /**
+     * Provides the p99 borrow wait over which an adaptive pool grows.
+     * 
+     * @return long
+     */
+    public long getAdaptiveGrowWaitMillis() {
+        return adaptiveGrowWaitMillis;
+    }
+
+    /**
+     * The environment shared by every cluster of the pool. It is left running
+     * when the pool is closed, so it can be shared with other pools and
+     * clients. If none is set, the pool creates its own and shuts it down on
+     * close.
+     * 
+     * @param environment
+     */
+    public void setEnvironment(CouchbaseEnvironment environment) {
+        this.environment = environment;
+    }
+
+    /**
+     * Provides the environment shared by every cluster of the pool.
+     * 
+     * @return the environment, or null if the pool owns its own.
+     */
+    public CouchbaseEnvironment getEnvironment() {
+        return environment;
+    }
+
+    /**
+     * The time <code>close()</code> takes at most: half of it waiting for the
+     * borrowed {@link Bucket}s to be returned, the rest for the clusters to
+     * disconnect. Buckets still borrowed by then are closed regardless.
+     * 
+     * @param closeTimeoutMillis
+     */
+    public void setCloseTimeoutMillis(long closeTimeoutMillis) {
+        this.closeTimeoutMillis = closeTimeoutMillis;
+    }
+
+    /**
+     * Provides the time <code>close()</code> waits for the pool to shut down.
+     * 
+     * @return long
+     */
+    public long getCloseTimeoutMillis() {
+        return closeTimeoutMillis;
+    }
+
+    /**
+     * How often every {@link Bucket} of the pool is probed in the background
+     * with a cheap key-value read. Buckets whose probe latency, averaged over
+     * recent probes, exceeds <code>healthCheckMaxLatencyMillis</code> or
+     * whose last <code>healthCheckMaxFailures</code> probes failed are
+     * replaced. -1 (default) disables health checking. Ignored in shared
+     * mode.
+     * 
+     * @param healthCheckIntervalMillis
+     */
+    public void setHealthCheckIntervalMillis(long healthCheckIntervalMillis) {
+        this.healthCheckIntervalMillis = healthCheckIntervalMillis;
+    }
+
+    /**
+     * Provides how often the buckets are probed, or -1 if they aren't.
+     * 
+     * @return long
+     */
+    public long getHealthCheckIntervalMillis() {
+        return healthCheckIntervalMillis;
+    }
+
+    /**
+     * The time after which a probe fails.
+     * 
+     * @param healthCheckTimeoutMillis
+     */
+    public void setHealthCheckTimeoutMillis(long healthCheckTimeoutMillis) {
+        this.healthCheckTimeoutMillis = healthCheckTimeoutMillis;
+    }
+
+    /**
+     * Provides the time after which a probe fails.
+     * 
+     * @return long
+     */
+    public long getHealthCheckTimeoutMillis() {
+        return healthCheckTimeoutMillis;
+    }
+
+    /**
+     * The average probe latency over which a {@link Bucket} is replaced.
+     * 
+     * @param healthCheckMaxLatencyMillis
+     */
+    public void setHealthCheckMaxLatencyMillis(long healthCheckMaxLatencyMillis) {
+        this.healthCheckMaxLatencyMillis = healthCheckMaxLatencyMillis;
+    }
+
+    /**
+     * Provides the average probe latency over which a {@link Bucket} is
+     * replaced.
+     * 
+     * @return long
+     */
+    public long getHealthCheckMaxLatencyMillis() {
+        return healthCheckMaxLatencyMillis;
+    }
+
+    /**
+     * The number of consecutive failed probes after which a {@link Bucket}
+     * is replaced.
+     * 
+     * @param healthCheckMaxFailures
+     */
+    public void setHealthCheckMaxFailures(int healthCheckMaxFailures) {
+        this.healthCheckMaxFailures = healthCheckMaxFailures;
+    }
+
+    /**
+     * Provides the number of consecutive failed probes after which a
+     * {@link Bucket} is replaced.
+     * 
+     * @return int
+     */
+    public int getHealthCheckMaxFailures() {
+        return healthCheckMaxFailures;
+    }
+
+    /**
+     * The order in which idle {@link Bucket}s are handed out. LIFO and FIFO
+     * set <code>lifo</code>; LEAST_LATENCY picks the faster of two idle
+     * buckets, measuring the latency of every operation, and is ignored in
+     * shared and sharded modes and with <code>passivate</code>.
+     * 
+     * @param selectionPolicy
+     */
+    public void setSelectionPolicy(SelectionPolicy selectionPolicy) {
+        this.leastLatency = selectionPolicy == SelectionPolicy.LEAST_LATENCY;
+        setLifo(selectionPolicy != SelectionPolicy.FIFO);
+    }
+
+    /**
+     * Provides the order in which idle {@link Bucket}s are handed out.
+     * 
+     * @return SelectionPolicy
+     */
+    public SelectionPolicy getSelectionPolicy() {
+        if (this.leastLatency) {
+            return SelectionPolicy.LEAST_LATENCY;
+        }
+        return getLifo() ? SelectionPolicy.LIFO : SelectionPolicy.FIFO;
+    }
+
+    /**
+     * Adds a group of Couchbase's nodes, e.g. an XDCR replica in another
+     * datacenter, in decreasing order of preference; <code>nodes</code> is
+     * then ignored. New {@link Bucket}s are opened in the first group while it
+     * is healthy. With <code>healthCheckIntervalMillis</code> set, the pool
+     * fails over to the next healthy group when the probes of the current one
+     * exceed the health check thresholds, and moves back once the preferred
+     * group has recovered.
+     * 
+     * @param nodes
+     *            The nodes of the group.
+     */
+    public void addClusterGroup(String... nodes) {
+        this.clusterGroups.add(nodes);
+    }
+
+    /**
+     * Provides the groups of nodes, by preference.
+     * 
+     * @return the groups, empty if only <code>nodes</code> is used.
+     */
+    public List<String[]> getClusterGroups() {
+        return clusterGroups;
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool-level metrics of a {@link BucketPool}: how long borrowers wait, how
+ * many buckets are in use, how buckets and clusters are created and reused,
+ * and how often passivation closes and reopens buckets. Registered as an
+ * MXBean next to the pool's own MBean when JMX is enabled.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+public class BucketPoolMetrics implements BucketPoolMetricsMXBean {
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final BucketPool pool;
+    private final BucketFactory factory;
+    private final LatencyHistogram borrowWait = new LatencyHistogram();
+    private final LatencyHistogram asyncBorrowWait = new LatencyHistogram();
+    private final LatencyHistogram holdTime = new LatencyHistogram();
+
+    BucketPoolMetrics(BucketPool pool, BucketFactory factory) {
+        super();
+        this.pool = pool;
+        this.factory = factory;
+    }
+
+    /**
+     * Provides the time blocking borrows waited for a bucket, in nanoseconds.
+     *
+     * @return the histogram.
+     */
+    public LatencyHistogram getBorrowWait() {
+        return this.borrowWait;
+    }
+
+    /**
+     * Provides the time asynchronous borrows waited for a bucket, in
+     * nanoseconds.
+     *
+     * @return the histogram.
+     */
+    public LatencyHistogram getAsyncBorrowWait() {
+        return this.asyncBorrowWait;
+    }
+
+    /**
+     * Provides the histogram of the time borrowers held a bucket, in
+     * nanoseconds, recorded when the leak detector is enabled.
+     *
+     * @return the histogram.
+     */
+    public LatencyHistogram getHoldTime() {
+        return this.holdTime;
+    }
+
+    private static double millis(double nanos) {
+        return nanos / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public int getNumActive() {
+        return this.pool.getNumActive();
+    }
+
+    @Override
+    public int getNumIdle() {
+        return this.pool.getNumIdle();
+    }
+
+    @Override
+    public int getNumWaiters() {
+        return this.pool.getNumWaiters();
+    }
+
+    @Override
+    public int getNumAsyncWaiters() {
+        return this.pool.getNumAsyncWaiters();
+    }
+
+    @Override
+    public int getMaxTotal() {
+        return this.pool.getMaxTotal();
+    }
+
+    @Override
+    public long getBorrowWaitCount() {
+        return this.borrowWait.getCount();
+    }
+
+    @Override
+    public double getBorrowWaitMeanMillis() {
+        return millis(this.borrowWait.getMean());
+    }
+
+    @Override
+    public double getBorrowWaitP50Millis() {
+        return millis(this.borrowWait.getValueAtPercentile(50));
+    }
+
+    @Override
+    public double getBorrowWaitP99Millis() {
+        return millis(this.borrowWait.getValueAtPercentile(99));
+    }
+
+    @Override
+    public double getBorrowWaitP999Millis() {
+        return millis(this.borrowWait.getValueAtPercentile(99.9));
+    }
+
+    @Override
+    public double getBorrowWaitMaxMillis() {
+        return millis(this.borrowWait.getMax());
+    }
+
+    @Override
+    public long getAsyncBorrowWaitCount() {
+        return this.asyncBorrowWait.getCount();
+    }
+
+    @Override
+    public double getAsyncBorrowWaitMeanMillis() {
+        return millis(this.asyncBorrowWait.getMean());
+    }
+
+    @Override
+    public double getAsyncBorrowWaitP50Millis() {
+        return millis(this.asyncBorrowWait.getValueAtPercentile(50));
+    }
+
+    @Override
+    public double getAsyncBorrowWaitP99Millis() {
+        return millis(this.asyncBorrowWait.getValueAtPercentile(99));
+    }
+
+    @Override
+    public double getAsyncBorrowWaitP999Millis() {
+        return millis(this.asyncBorrowWait.getValueAtPercentile(99.9));
+    }
+
+    @Override
+    public double getAsyncBorrowWaitMaxMillis() {
+        return millis(this.asyncBorrowWait.getMax());
+    }
+
+    @Override
+    public long getHoldTimeCount() {
+        return this.holdTime.getCount();
+    }
+
+    @Override
+    public double getHoldTimeMeanMillis() {
+        return millis(this.holdTime.getMean());
+    }
+
+    @Override
+    public double getHoldTimeP50Millis() {
+        return millis(this.holdTime.getValueAtPercentile(50));
+    }
+
+    @Override
+    public double getHoldTimeP99Millis() {
+        return millis(this.holdTime.getValueAtPercentile(99));
+    }
+
+    @Override
+    public double getHoldTimeP999Millis() {
+        return millis(this.holdTime.getValueAtPercentile(99.9));
+    }
+
+    @Override
+    public double getHoldTimeMaxMillis() {
+        return millis(this.holdTime.getMax());
+    }
+
+    @Override
+    public int getLeakSuspectCount() {
+        return this.pool.getLeakSuspects().size();
+    }
+
+    @Override
+    public long getLeaksReported() {
+        LeakDetector leaks = this.pool.getLeakDetector();
+        return leaks == null ? 0 : leaks.getReported();
+    }
+
+    @Override
+    public long getCreatedCount() {
+        return this.factory.getCreatedCount();
+    }
+
+    @Override
+    public long getCreateFailedCount() {
+        return this.factory.getCreateFailedCount();
+    }
+
+    @Override
+    public long getDestroyedCount() {
+        return this.factory.getDestroyedCount();
+    }
+
+    @Override
+    public long getValidationFailedCount() {
+        return this.factory.getValidationFailedCount();
+    }
+
+    @Override
+    public long getClusterReuseHits() {
+        return this.factory.getClusterReuseHits();
+    }
+
+    @Override
+    public long getClusterReuseMisses() {
+        return this.factory.getClusterReuseMisses();
+    }
+
+    @Override
+    public int getNumUnusedClusters() {
+        return this.factory.getNumUnusedClusters();
+    }
+
+    @Override
+    public int getNumClusters() {
+        return this.factory.getNumClusters();
+    }
+
+    @Override
+    public long getPassivationOpenCount() {
+        return this.factory.getPassivationOpenCount();
+    }
+
+    @Override
+    public long getPassivationCloseCount() {
+        return this.factory.getPassivationCloseCount();
+    }
+
+    @Override
+    public long getPassivationReopenCount() {
+        return this.factory.getPassivationReopenCount();
+    }
+
+    @Override
+    public double getPassivationBorrowRate() {
+        IdlePassivator passivator = this.pool.getPassivator();
+        return passivator == null ? 0 : passivator.getBorrowRate();
+    }
+
+    @Override
+    public long getQueryPlanHits() {
+        QueryPlanCache cache = this.factory.getQueryPlanCache();
+        return cache == null ? 0 : cache.getHits();
+    }
+
+    @Override
+    public long getQueryPlanMisses() {
+        QueryPlanCache cache = this.factory.getQueryPlanCache();
+        return cache == null ? 0 : cache.getMisses();
+    }
+
+    @Override
+    public long getQueryPlanPrepares() {
+        QueryPlanCache cache = this.factory.getQueryPlanCache();
+        return cache == null ? 0 : cache.getPrepares();
+    }
+
+    @Override
+    public int getQueryPlanCacheSize() {
+        QueryPlanCache cache = this.factory.getQueryPlanCache();
+        return cache == null ? 0 : cache.size();
+    }
+
+    @Override
+    public long getNearCacheHits() {
+        NearCache nearCache = this.factory.getNearCache();
+        return nearCache == null ? 0 : nearCache.getHits();
+    }
+
+    @Override
+    public long getNearCacheMisses() {
+        NearCache nearCache = this.factory.getNearCache();
+        return nearCache == null ? 0 : nearCache.getMisses();
+    }
+
+    @Override
+    public long getNearCacheEvictions() {
+        NearCache nearCache = this.factory.getNearCache();
+        return nearCache == null ? 0 : nearCache.getEvictions();
+    }
+
+    @Override
+    public long getDeduplicatedReads() {
+        return this.factory.getDeduplicatedReads();
+    }
+
+    @Override
+    public long getCoalescedUpserts() {
+        return this.factory.getCoalescedUpserts();
+    }
+
+    @Override
+    public long getAdaptiveGrowCount() {
+        AdaptiveSizer sizer = this.pool.getSizer();
+        return sizer == null ? 0 : sizer.getGrows();
+    }
+
+    @Override
+    public long getAdaptiveShrinkCount() {
+        AdaptiveSizer sizer = this.pool.getSizer();
+        return sizer == null ? 0 : sizer.getShrinks();
+    }
+
+    @Override
+    public long getAdaptiveHoldCount() {
+        AdaptiveSizer sizer = this.pool.getSizer();
+        return sizer == null ? 0 : sizer.getHolds();
+    }
+
+    @Override
+    public String getAdaptiveLastDecision() {
+        AdaptiveSizer sizer = this.pool.getSizer();
+        return sizer == null ? "none" : sizer.getLastDecision();
+    }
+
+    @Override
+    public long getHealthCheckProbes() {
+        HealthChecker healthChecker = this.pool.getHealthChecker();
+        return healthChecker == null ? 0 : healthChecker.getProbes();
+    }
+
+    @Override
+    public long getHealthCheckFailures() {
+        HealthChecker healthChecker = this.pool.getHealthChecker();
+        return healthChecker == null ? 0 : healthChecker.getFailures();
+    }
+
+    @Override
+    public long getHealthCheckEvictions() {
+        HealthChecker healthChecker = this.pool.getHealthChecker();
+        return healthChecker == null ? 0 : healthChecker.getEvictions();
+    }
+
+    @Override
+    public int getActiveClusterGroup() {
+        return this.factory.getActiveGroup();
+    }
+
+    @Override
+    public long getClusterGroupFailovers() {
+        HealthChecker healthChecker = this.pool.getHealthChecker();
+        return healthChecker == null ? 0 : healthChecker.getFailovers();
+    }
+
+    @Override
+    public void resetBorrowWait() {
+        this.borrowWait.reset();
+        this.asyncBorrowWait.reset();
+    }
+}
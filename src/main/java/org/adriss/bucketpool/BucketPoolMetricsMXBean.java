@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+/**
+ * The JMX management interface of {@link BucketPoolMetrics}. Times are in
+ * milliseconds; counts are totals since the pool was created.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+public interface BucketPoolMetricsMXBean {
+
+    /**
+     * @return the buckets currently borrowed.
+     */
+    int getNumActive();
+
+    /**
+     * @return the buckets currently idle in the pool.
+     */
+    int getNumIdle();
+
+    /**
+     * @return the threads blocked waiting for a bucket.
+     */
+    int getNumWaiters();
+
+    /**
+     * @return the borrowers of <code>borrowAsync()</code> queued for a bucket.
+     */
+    int getNumAsyncWaiters();
+
+    /**
+     * @return the max total of buckets in the pool.
+     */
+    int getMaxTotal();
+
+    /**
+     * @return the number of blocking borrows timed.
+     */
+    long getBorrowWaitCount();
+
+    /**
+     * @return the mean time a blocking borrow waited.
+     */
+    double getBorrowWaitMeanMillis();
+
+    /**
+     * @return the median time a blocking borrow waited.
+     */
+    double getBorrowWaitP50Millis();
+
+    /**
+     * @return the 99th percentile of the time a blocking borrow waited.
+     */
+    double getBorrowWaitP99Millis();
+
+    /**
+     * @return the 99.9th percentile of the time a blocking borrow waited.
+     */
+    double getBorrowWaitP999Millis();
+
+    /**
+     * @return the longest time a blocking borrow waited.
+     */
+    double getBorrowWaitMaxMillis();
+
+    /**
+     * @return the number of asynchronous borrows timed.
+     */
+    long getAsyncBorrowWaitCount();
+
+    /**
+     * @return the mean time until an asynchronous borrow got a bucket.
+     */
+    double getAsyncBorrowWaitMeanMillis();
+
+    /**
+     * @return the median time until an asynchronous borrow got a bucket.
+     */
+    double getAsyncBorrowWaitP50Millis();
+
+    /**
+     * @return the 99th percentile of the time until an asynchronous borrow
+     *         got a bucket.
+     */
+    double getAsyncBorrowWaitP99Millis();
+
+    /**
+     * @return the 99.9th percentile of the time until an asynchronous borrow
+     *         got a bucket.
+     */
+    double getAsyncBorrowWaitP999Millis();
+
+    /**
+     * @return the longest time until an asynchronous borrow got a bucket.
+     */
+    double getAsyncBorrowWaitMaxMillis();
+
+    /**
+     * @return the number of borrows whose hold time was recorded by the leak
+     *         detector.
+     */
+    long getHoldTimeCount();
+
+    /**
+     * @return the mean time a borrower held a bucket.
+     */
+    double getHoldTimeMeanMillis();
+
+    /**
+     * @return the median time a borrower held a bucket.
+     */
+    double getHoldTimeP50Millis();
+
+    /**
+     * @return the 99th percentile of the time a borrower held a bucket.
+     */
+    double getHoldTimeP99Millis();
+
+    /**
+     * @return the 99.9th percentile of the time a borrower held a bucket.
+     */
+    double getHoldTimeP999Millis();
+
+    /**
+     * @return the longest time a borrower held a bucket.
+     */
+    double getHoldTimeMaxMillis();
+
+    /**
+     * @return the buckets currently held longer than
+     *         <code>leakReportMillis</code>.
+     */
+    int getLeakSuspectCount();
+
+    /**
+     * @return the buckets reported by the leak detector since the pool
+     *         started.
+     */
+    long getLeaksReported();
+
+    /**
+     * @return the buckets opened by the factory.
+     */
+    long getCreatedCount();
+
+    /**
+     * @return the buckets the factory failed to open.
+     */
+    long getCreateFailedCount();
+
+    /**
+     * @return the buckets destroyed.
+     */
+    long getDestroyedCount();
+
+    /**
+     * @return the buckets found closed when validated.
+     */
+    long getValidationFailedCount();
+
+    /**
+     * @return the buckets opened on an unused cluster.
+     */
+    long getClusterReuseHits();
+
+    /**
+     * @return the buckets that found no unused cluster and had to create one.
+     */
+    long getClusterReuseMisses();
+
+    /**
+     * @return the clusters waiting for a bucket to be opened.
+     */
+    int getNumUnusedClusters();
+
+    /**
+     * @return the clusters created by the factory.
+     */
+    int getNumClusters();
+
+    /**
+     * @return the buckets reopened on borrow after being passivated.
+     */
+    long getPassivationOpenCount();
+
+    /**
+     * @return the buckets closed by passivation, on return or once idle.
+     */
+    long getPassivationCloseCount();
+
+    /**
+     * @return the idle buckets reopened ahead of the predicted borrows.
+     */
+    long getPassivationReopenCount();
+
+    /**
+     * @return the borrows per second predicting the buckets passivation keeps
+     *         open.
+     */
+    double getPassivationBorrowRate();
+
+    /**
+     * @return the prepared N1QL queries run with a plan shared by the pool.
+     */
+    long getQueryPlanHits();
+
+    /**
+     * @return the prepared N1QL queries that found no shared plan.
+     */
+    long getQueryPlanMisses();
+
+    /**
+     * @return the N1QL statements prepared for the pool.
+     */
+    long getQueryPlanPrepares();
+
+    /**
+     * @return the N1QL query plans shared by the pool.
+     */
+    int getQueryPlanCacheSize();
+
+    /**
+     * @return the <code>get</code>s served from the near cache.
+     */
+    long getNearCacheHits();
+
+    /**
+     * @return the <code>get</code>s the near cache sent to the server.
+     */
+    long getNearCacheMisses();
+
+    /**
+     * @return the documents evicted from the near cache to keep it within its
+     *         size.
+     */
+    long getNearCacheEvictions();
+
+    /**
+     * @return the reads served by an identical read already in flight.
+     */
+    long getDeduplicatedReads();
+
+    /**
+     * @return the upserts written as part of a newer upsert of the same
+     *         document.
+     */
+    long getCoalescedUpserts();
+
+    /**
+     * @return the times an adaptive pool grew.
+     */
+    long getAdaptiveGrowCount();
+
+    /**
+     * @return the times an adaptive pool shrank.
+     */
+    long getAdaptiveShrinkCount();
+
+    /**
+     * @return the times an adaptive pool didn't grow because the operations
+     *         were slower than usual.
+     */
+    long getAdaptiveHoldCount();
+
+    /**
+     * @return the last resize or hold of an adaptive pool, with the figures it
+     *         was based on.
+     */
+    String getAdaptiveLastDecision();
+
+    /**
+     * @return the health probes sent to the buckets.
+     */
+    long getHealthCheckProbes();
+
+    /**
+     * @return the health probes that failed or timed out.
+     */
+    long getHealthCheckFailures();
+
+    /**
+     * @return the buckets replaced because their probes were too slow or
+     *         kept failing.
+     */
+    long getHealthCheckEvictions();
+
+    /**
+     * @return the index of the cluster group new buckets are opened in.
+     */
+    int getActiveClusterGroup();
+
+    /**
+     * @return the times new buckets were moved to another cluster group.
+     */
+    long getClusterGroupFailovers();
+
+    /**
+     * Clears the borrow wait histograms. Counts are not affected.
+     */
+    void resetBorrowWait();
+}
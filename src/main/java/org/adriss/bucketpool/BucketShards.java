@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.PooledObjectFactory;
+import org.apache.commons.pool2.impl.AbandonedConfig;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+
+import com.couchbase.client.java.Bucket;
+
+/**
+ * Splits a pool into several {@link GenericObjectPool}s so borrowers don't
+ * all contend on one idle deque. Each thread borrows from its home shard and
+ * steals from the next shards when its home has neither idle buckets nor
+ * room to create one. <code>maxTotal</code>, <code>maxIdle</code> and
+ * <code>minIdle</code> are divided between the shards, so the pool as a whole
+ * keeps to the configured limits.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+class BucketShards {
+
+    /**
+     * The longest time a borrower waits on its home shard before looking at
+     * the other shards again.
+     */
+    private static final long WAIT_SLICE_MILLIS = 10;
+
+    private final List<GenericObjectPool<Bucket>> pools;
+    private final ConcurrentMap<Bucket, GenericObjectPool<Bucket>> owners = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Bucket, Integer> homes = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Remembers which shard created each bucket, so idle buckets, which
+     * aren't in <code>owners</code>, can be destroyed through their shard.
+     */
+    private class ShardFactory implements PooledObjectFactory<Bucket> {
+        private final int shard;
+        private final BucketFactory factory;
+
+        private ShardFactory(int shard, BucketFactory factory) {
+            this.shard = shard;
+            this.factory = factory;
+        }
+
+        @Override
+        public PooledObject<Bucket> makeObject() throws Exception {
+            PooledObject<Bucket> p = this.factory.makeObject();
+            BucketShards.this.homes.put(p.getObject(), this.shard);
+            return p;
+        }
+
+        @Override
+        public void destroyObject(PooledObject<Bucket> p) throws Exception {
+            BucketShards.this.homes.remove(p.getObject());
+            this.factory.destroyObject(p);
+        }
+
+        @Override
+        public boolean validateObject(PooledObject<Bucket> p) {
+            return this.factory.validateObject(p);
+        }
+
+        @Override
+        public void activateObject(PooledObject<Bucket> p) throws Exception {
+            this.factory.activateObject(p);
+        }
+
+        @Override
+        public void passivateObject(PooledObject<Bucket> p) throws Exception {
+            this.factory.passivateObject(p);
+        }
+    }
+
+    /**
+     * @param count
+     *            The number of shards, reduced to <code>maxTotal</code> if
+     *            greater.
+     * @param factory
+     *            The factory shared by every shard.
+     * @param config
+     *            The configuration of the whole pool.
+     * @param abandonedConfig
+     *            Configuration for abandoned object identification and removal.
+     */
+    BucketShards(int count, BucketFactory factory, BucketPoolConfig config, AbandonedConfig abandonedConfig) {
+        if (config.getMaxTotal() >= 0) {
+            count = Math.min(count, config.getMaxTotal());
+        }
+        count = Math.max(count, 1);
+        this.pools = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            GenericObjectPoolConfig shardConfig = config.clone();
+            shardConfig.setMaxTotal(share(config.getMaxTotal(), i, count));
+            shardConfig.setMaxIdle(share(config.getMaxIdle(), i, count));
+            shardConfig.setMinIdle(share(config.getMinIdle(), i, count));
+            shardConfig.setJmxEnabled(false);
+            this.pools.add(new GenericObjectPool<>(new ShardFactory(i, factory), shardConfig, abandonedConfig));
+        }
+    }
+
+    private static int share(int total, int shard, int count) {
+        if (total < 0) {
+            return total;
+        }
+        return total / count + (shard < total % count ? 1 : 0);
+    }
+
+    private static boolean canCreate(GenericObjectPool<Bucket> pool) {
+        return pool.getMaxTotal() < 0 || pool.getNumActive() + pool.getNumIdle() < pool.getMaxTotal();
+    }
+
+    private static boolean hasRoom(GenericObjectPool<Bucket> pool) {
+        return pool.getNumIdle() > 0 || canCreate(pool);
+    }
+
+    private int home() {
+        return (int) (Thread.currentThread().getId() % this.pools.size());
+    }
+
+    /**
+     * Borrows from the home shard, then from the others. If every shard is
+     * exhausted, waits on the home shard in short slices, looking at every
+     * shard again between them, so a bucket returned to any shard is found.
+     *
+     * @param borrowMaxWaitMillis
+     *            The time to wait for a bucket once every shard is exhausted.
+     * @return a bucket.
+     * @throws Exception
+     */
+    Bucket borrow(long borrowMaxWaitMillis) throws Exception {
+        int home = home();
+        GenericObjectPool<Bucket> homePool = this.pools.get(home);
+        long deadline = borrowMaxWaitMillis < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + borrowMaxWaitMillis;
+        while (true) {
+            for (int i = 0; i < this.pools.size(); i++) {
+                GenericObjectPool<Bucket> pool = this.pools.get((home + i) % this.pools.size());
+                if (hasRoom(pool)) {
+                    try {
+                        return track(pool, pool.borrowObject(0));
+                    } catch (NoSuchElementException e) {
+                        // lost the race for the last bucket, try the next shard
+                    }
+                }
+            }
+            if (!homePool.getBlockWhenExhausted()) {
+                return track(homePool, homePool.borrowObject(borrowMaxWaitMillis));
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new NoSuchElementException("Timeout waiting for idle object");
+            }
+            try {
+                return track(homePool, homePool.borrowObject(Math.min(remaining, WAIT_SLICE_MILLIS)));
+            } catch (NoSuchElementException e) {
+                // nothing returned to the home shard yet, look at every shard again
+            }
+        }
+    }
+
+    private Bucket track(GenericObjectPool<Bucket> pool, Bucket bucket) {
+        this.owners.put(bucket, pool);
+        return bucket;
+    }
+
+    private GenericObjectPool<Bucket> owner(Bucket bucket) {
+        GenericObjectPool<Bucket> pool = bucket == null ? null : this.owners.remove(bucket);
+        if (pool == null) {
+            throw new IllegalStateException("Returned object not currently part of this pool");
+        }
+        return pool;
+    }
+
+    void release(Bucket bucket) {
+        owner(bucket).returnObject(bucket);
+    }
+
+    void invalidate(Bucket bucket) throws Exception {
+        owner(bucket).invalidateObject(bucket);
+    }
+
+    /**
+     * Destroys an idle bucket claimed with
+     * <code>PooledObject.startEvictionTest()</code> through the shard that
+     * created it, replacing it if the pool falls under its
+     * <code>minIdle</code>.
+     *
+     * @param bucket
+     *            The idle bucket.
+     * @throws Exception
+     */
+    void invalidateIdle(Bucket bucket) throws Exception {
+        Integer home = bucket == null ? null : this.homes.get(bucket);
+        if (home == null) {
+            throw new IllegalStateException("Invalidated object not currently part of this pool");
+        }
+        this.pools.get(home).invalidateObject(bucket);
+        if (getNumIdle() < getMinIdle()) {
+            addObject();
+        }
+    }
+
+    /**
+     * Adds an idle bucket to the next shard, round robin, that has room for
+     * it.
+     *
+     * @throws Exception
+     */
+    void addObject() throws Exception {
+        int start = this.next.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < this.pools.size(); i++) {
+            GenericObjectPool<Bucket> pool = this.pools.get((start + i) % this.pools.size());
+            if (canCreate(pool)) {
+                pool.addObject();
+                return;
+            }
+        }
+    }
+
+    int getNumIdle() {
+        int idle = 0;
+        for (GenericObjectPool<Bucket> pool : this.pools) {
+            idle += pool.getNumIdle();
+        }
+        return idle;
+    }
+
+    int getMinIdle() {
+        int minIdle = 0;
+        for (GenericObjectPool<Bucket> pool : this.pools) {
+            minIdle += pool.getMinIdle();
+        }
+        return minIdle;
+    }
+
+    int getNumActive() {
+        int active = 0;
+        for (GenericObjectPool<Bucket> pool : this.pools) {
+            active += pool.getNumActive();
+        }
+        return active;
+    }
+
+    int getNumWaiters() {
+        int waiters = 0;
+        for (GenericObjectPool<Bucket> pool : this.pools) {
+            waiters += pool.getNumWaiters();
+        }
+        return waiters;
+    }
+
+    int size() {
+        return this.pools.size();
+    }
+
+    void clear() {
+        for (GenericObjectPool<Bucket> pool : this.pools) {
+            pool.clear();
+        }
+    }
+
+    void close() {
+        for (GenericObjectPool<Bucket> pool : this.pools) {
+            pool.close();
+        }
+    }
+}
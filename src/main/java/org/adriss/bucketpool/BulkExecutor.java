@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.Bucket;
+
+import rx.Observable;
+
+/**
+ * Runs an operation per item across several borrowed {@link Bucket}s of a
+ * {@link BucketPool}, through their {@link AsyncBucket}s, with at most
+ * <code>bulkInFlight</code> operations in flight per bucket. Items are handed
+ * to the buckets round-robin and pulled from their source only as in-flight
+ * operations complete.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+class BulkExecutor {
+
+    private final static Logger logger = LoggerFactory.getLogger(BulkExecutor.class);
+
+    private final BucketPool pool;
+    private final int buckets;
+    private final int inFlight;
+    private final long timeoutMillis;
+
+    BulkExecutor(BucketPool pool, BucketPoolConfig config) {
+        this.pool = pool;
+        this.buckets = Math.max(config.getBulkBuckets(), 1);
+        this.inFlight = Math.max(config.getBulkInFlight(), 1);
+        this.timeoutMillis = config.getBulkTimeoutMillis();
+    }
+
+    /**
+     * The outcome of the operation on one item: a result, an error, or
+     * neither if the operation completed empty.
+     */
+    static class Outcome<O> {
+
+        final String id;
+        final O result;
+        final Throwable error;
+
+        Outcome(String id, O result, Throwable error) {
+            this.id = id;
+            this.result = result;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Borrows the buckets for a batch of <code>size</code> items: waits for
+     * the first one and takes as many more as are available right away, so
+     * concurrent batches never wait on each other's buckets.
+     *
+     * @param size
+     *            the number of items, or -1 if unknown.
+     * @return the borrowed buckets.
+     */
+    List<Bucket> borrow(int size) throws Exception {
+        int wanted = size < 0 ? this.buckets : Math.min(this.buckets, Math.max(size, 1));
+        List<Bucket> borrowed = new ArrayList<>(wanted);
+        borrowed.add(this.pool.borrowObject());
+        while (borrowed.size() < wanted && this.pool.hasRoom()) {
+            try {
+                borrowed.add(this.pool.borrowUnmeasured(0));
+            } catch (NoSuchElementException e) {
+                break;
+            }
+        }
+        return borrowed;
+    }
+
+    void release(List<Bucket> borrowed) {
+        borrowed.forEach(this.pool::returnObject);
+    }
+
+    /**
+     * Runs the operation on every item with the borrowed buckets. A failed or
+     * timed out operation yields an outcome with its error instead of ending
+     * the stream.
+     */
+    <I, O> Observable<Outcome<O>> execute(List<Bucket> borrowed, Observable<I> items, Function<I, String> id,
+            BiFunction<AsyncBucket, I, Observable<O>> operation) {
+        AtomicInteger next = new AtomicInteger();
+        return items.flatMap(item -> {
+            Bucket bucket = borrowed.get(Math.floorMod(next.getAndIncrement(), borrowed.size()));
+            Observable<O> result = Observable.defer(() -> operation.apply(bucket.async(), item));
+            if (this.timeoutMillis > 0) {
+                result = result.timeout(this.timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            String key = id.apply(item);
+            return result.map(value -> new Outcome<>(key, value, null))
+                    .onErrorReturn(e -> new Outcome<O>(key, null, e));
+        }, borrowed.size() * this.inFlight);
+    }
+
+    /**
+     * Runs the operation on every item emitted, borrowing the buckets when
+     * subscribed to, on the subscribing thread, and returning them once the
+     * items are exhausted, an error occurs or the subscriber unsubscribes.
+     */
+    <I, O> Observable<Outcome<O>> stream(Observable<I> items, Function<I, String> id,
+            BiFunction<AsyncBucket, I, Observable<O>> operation) {
+        return Observable.defer(() -> {
+            List<Bucket> borrowed;
+            try {
+                borrowed = borrow(-1);
+            } catch (Exception e) {
+                return Observable.error(e);
+            }
+            // disposes eagerly so the buckets are back before completion is emitted
+            return Observable.using(() -> borrowed, resource -> execute(resource, items, id, operation),
+                    this::release, true);
+        });
+    }
+
+    /**
+     * Runs the operation on every item of a batch and waits for all of them.
+     */
+    <I, O> List<Outcome<O>> executeAll(Collection<I> items, Function<I, String> id,
+            BiFunction<AsyncBucket, I, Observable<O>> operation) throws Exception {
+        if (items.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Bucket> borrowed = borrow(items.size());
+        try {
+            logger.debug("Running {} operations on {} buckets", items.size(), borrowed.size());
+            return execute(borrowed, Observable.from(items), id, operation).toList().toBlocking().single();
+        } finally {
+            release(borrowed);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The outcome of a bulk operation of a {@link BucketPool}, per document id.
+ * If an id appears more than once in the batch, the outcome of its last
+ * completed operation is kept.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+public class BulkResult<D> {
+
+    private final Map<String, D> results = new LinkedHashMap<>();
+    private final Map<String, Throwable> failures = new LinkedHashMap<>();
+
+    void succeeded(String id, D result) {
+        this.failures.remove(id);
+        this.results.put(id, result);
+    }
+
+    void failed(String id, Throwable failure) {
+        this.results.remove(id);
+        this.failures.put(id, failure);
+    }
+
+    /**
+     * Provides the documents returned by the server, with their new CAS, for
+     * every document the operation succeeded on.
+     *
+     * @return the results by document id, in completion order.
+     */
+    public Map<String, D> getResults() {
+        return Collections.unmodifiableMap(this.results);
+    }
+
+    /**
+     * Provides the reason the operation failed, e.g. a
+     * <code>DocumentAlreadyExistsException</code> or a
+     * <code>TimeoutException</code>, for every document it failed on.
+     *
+     * @return the failures by document id, in completion order.
+     */
+    public Map<String, Throwable> getFailures() {
+        return Collections.unmodifiableMap(this.failures);
+    }
+
+    /**
+     * Determines if the operation succeeded on every document.
+     *
+     * @return boolean
+     */
+    public boolean isSuccess() {
+        return this.failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "succeeded=" + this.results.size() + ", failed=" + this.failures.size();
+    }
+}
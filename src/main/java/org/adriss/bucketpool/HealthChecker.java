@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.pool2.PooledObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.couchbase.client.java.Bucket;
+
+/**
+ * Probes every {@link Bucket} of a pool in the background with an
+ * asynchronous <code>exists</code> of a key that is never written, keeping
+ * an exponentially weighted moving average of the probe latency per bucket.
+ * <p>
+ * A bucket whose average goes over <code>healthCheckMaxLatencyMillis</code>,
+ * or whose last <code>healthCheckMaxFailures</code> probes failed, is flagged
+ * unhealthy. If idle, it is claimed the way the pool's evictor claims idle
+ * objects, destroyed and replaced up to <code>minIdle</code>; if borrowed, it
+ * is destroyed when returned. Borrowers never wait on a probe: the only cost
+ * on their path is reading the flag.
+ * </p>
+ * <p>
+ * With several cluster groups, each group is also probed through a bucket
+ * opened outside of the pool. A group goes unhealthy over the same
+ * thresholds, and only recovers after as many successful probes as
+ * <code>healthCheckMaxFailures</code> with an average under half of
+ * <code>healthCheckMaxLatencyMillis</code>. New buckets are opened in the
+ * first healthy group, and the buckets of the other groups are replaced.
+ * </p>
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+class HealthChecker {
+
+    private final static Logger logger = LoggerFactory.getLogger(HealthChecker.class);
+    private static final String PROBE_ID = "bucketpool-health-check";
+    private static final double WEIGHT = 0.3;
+
+    private final BucketPool pool;
+    private final BucketFactory factory;
+    private final long timeoutMillis;
+    private final long maxLatencyNanos;
+    private final int maxFailures;
+    private final ScheduledExecutorService scheduler;
+    private final Map<WrappedBucket, Score> scores = new ConcurrentHashMap<>();
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder failovers = new LongAdder();
+    private final Group[] groups;
+
+    private static class Score {
+        private final AtomicBoolean probing = new AtomicBoolean();
+        private double latency = -1;
+        private int failures;
+        private int successes;
+    }
+
+    private static class Group {
+        private final int index;
+        private final Score score = new Score();
+        private volatile boolean healthy = true;
+        private WrappedCluster cluster;
+        private Bucket sentinel;
+
+        private Group(int index) {
+            this.index = index;
+        }
+    }
+
+    HealthChecker(BucketPool pool, BucketFactory factory, BucketPoolConfig config) {
+        this.pool = pool;
+        this.factory = factory;
+        this.timeoutMillis = config.getHealthCheckTimeoutMillis();
+        this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(config.getHealthCheckMaxLatencyMillis());
+        this.maxFailures = Math.max(1, config.getHealthCheckMaxFailures());
+        if (factory.getNumGroups() > 1) {
+            this.groups = new Group[factory.getNumGroups()];
+            for (int i = 0; i < this.groups.length; i++) {
+                this.groups[i] = new Group(i);
+            }
+        } else {
+            this.groups = null;
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bucketpool-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = config.getHealthCheckIntervalMillis();
+        this.scheduler.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Probes every open bucket that isn't already being probed.
+     */
+    void check() {
+        try {
+            // buckets opened while probing, e.g. replacements, wait for the next check
+            List<WrappedBucket> buckets = new ArrayList<>(this.factory.getBuckets());
+            this.scores.keySet().retainAll(buckets);
+            for (WrappedBucket bucket : buckets) {
+                if (!bucket.isClosed() && !bucket.isUnhealthy()) {
+                    probe(bucket);
+                }
+            }
+            if (this.groups != null) {
+                route();
+                for (Group group : this.groups) {
+                    probe(group);
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.warn(e.getMessage(), e);
+        }
+    }
+
+    private void probe(WrappedBucket bucket) {
+        Score score = this.scores.computeIfAbsent(bucket, key -> new Score());
+        if (!score.probing.compareAndSet(false, true)) {
+            return;
+        }
+        this.probes.increment();
+        long start = System.nanoTime();
+        try {
+            bucket.async().exists(PROBE_ID).timeout(this.timeoutMillis, TimeUnit.MILLISECONDS).subscribe(
+                    exists -> scored(bucket, score, System.nanoTime() - start, true),
+                    e -> scored(bucket, score, System.nanoTime() - start, false));
+        } catch (RuntimeException e) {
+            // closed while being probed
+            scored(bucket, score, System.nanoTime() - start, false);
+        }
+    }
+
+    private void scored(WrappedBucket bucket, Score score, long nanos, boolean succeeded) {
+        boolean unhealthy;
+        synchronized (score) {
+            score.latency = score.latency < 0 ? nanos : WEIGHT * nanos + (1 - WEIGHT) * score.latency;
+            score.failures = succeeded ? 0 : score.failures + 1;
+            unhealthy = score.latency > this.maxLatencyNanos || score.failures >= this.maxFailures;
+        }
+        if (!succeeded) {
+            this.failures.increment();
+        }
+        score.probing.set(false);
+        if (unhealthy && !bucket.isUnhealthy()) {
+            bucket.markUnhealthy();
+            logger.warn("Replacing [{}] bucket: probe latency {} ms, {} consecutive failures", bucket,
+                    String.format("%.1f", score.latency / TimeUnit.MILLISECONDS.toNanos(1)), score.failures);
+            this.evictions.increment();
+            // closing a bucket blocks, keep it off the probe's callback thread
+            this.scheduler.execute(() -> evict(bucket));
+        }
+    }
+
+    /**
+     * Opens new buckets in the first healthy group, replacing the buckets of
+     * the others.
+     */
+    private void route() {
+        int active = this.factory.getActiveGroup();
+        for (Group group : this.groups) {
+            if (group.healthy) {
+                if (group.index != active) {
+                    this.factory.setActiveGroup(group.index);
+                    this.failovers.increment();
+                    logger.warn("Opening new buckets in cluster group {} instead of {}", group.index, active);
+                    for (WrappedBucket bucket : this.factory.getBuckets()) {
+                        if (bucket.getCluster().getGroup() != group.index && !bucket.isUnhealthy()) {
+                            bucket.markUnhealthy();
+                            evict(bucket);
+                        }
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    private void probe(Group group) {
+        if (!group.score.probing.compareAndSet(false, true)) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            if (group.sentinel == null) {
+                group.cluster = this.factory.connect(group.index);
+                group.sentinel = group.cluster.openBucket(this.factory.getName(), this.timeoutMillis,
+                        TimeUnit.MILLISECONDS);
+            }
+            group.sentinel.async().exists(PROBE_ID).timeout(this.timeoutMillis, TimeUnit.MILLISECONDS).subscribe(
+                    exists -> scored(group, System.nanoTime() - start, true),
+                    e -> scored(group, System.nanoTime() - start, false));
+        } catch (RuntimeException e) {
+            scored(group, System.nanoTime() - start, false);
+        }
+    }
+
+    private void scored(Group group, long nanos, boolean succeeded) {
+        Score score = group.score;
+        synchronized (score) {
+            score.latency = score.latency < 0 ? nanos : WEIGHT * nanos + (1 - WEIGHT) * score.latency;
+            score.failures = succeeded ? 0 : score.failures + 1;
+            score.successes = succeeded ? score.successes + 1 : 0;
+            if (group.healthy && (score.latency > this.maxLatencyNanos || score.failures >= this.maxFailures)) {
+                group.healthy = false;
+                logger.warn("Cluster group {} unhealthy: probe latency {} ms, {} consecutive failures", group.index,
+                        String.format("%.1f", score.latency / TimeUnit.MILLISECONDS.toNanos(1)), score.failures);
+            } else if (!group.healthy && score.successes >= this.maxFailures
+                    && score.latency < this.maxLatencyNanos / 2) {
+                group.healthy = true;
+                logger.info("Cluster group {} recovered", group.index);
+            }
+        }
+        if (!succeeded) {
+            this.failures.increment();
+            // reconnect on the next probe, the connection may be half-open
+            this.scheduler.execute(() -> disconnect(group));
+        } else {
+            score.probing.set(false);
+        }
+    }
+
+    private void disconnect(Group group) {
+        try {
+            if (group.cluster != null) {
+                group.cluster.disconnect(this.timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (RuntimeException e) {
+            logger.debug("Failed to disconnect the probe of cluster group {}: {}", group.index, e.getMessage());
+        } finally {
+            group.cluster = null;
+            group.sentinel = null;
+            group.score.probing.set(false);
+        }
+    }
+
+    private void evict(WrappedBucket bucket) {
+        PooledObject<Bucket> pooled = bucket.getPooledObject();
+        if (pooled == null || !pooled.startEvictionTest()) {
+            // borrowed, destroyed once returned
+            return;
+        }
+        try {
+            this.pool.invalidateIdle(bucket);
+            if (this.pool.getNumIdle() < this.pool.getMinIdle()) {
+                this.pool.addObject();
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to replace [{}] bucket: {}", bucket, e.getMessage());
+        }
+    }
+
+    /**
+     * Waits for the buckets already flagged to be replaced and refilled, so
+     * callers of {@link #check()} don't have to poll.
+     */
+    void awaitEvictions() throws InterruptedException, ExecutionException {
+        this.scheduler.submit(() -> {
+        }).get();
+    }
+
+    /**
+     * Provides the average probe latency of each bucket currently in the
+     * pool.
+     */
+    Map<String, Double> getLatencies() {
+        Map<String, Double> latencies = new TreeMap<>();
+        this.scores.forEach((bucket, score) -> {
+            synchronized (score) {
+                if (score.latency >= 0) {
+                    latencies.put(bucket.toString(), score.latency / TimeUnit.MILLISECONDS.toNanos(1));
+                }
+            }
+        });
+        return latencies;
+    }
+
+    long getProbes() {
+        return this.probes.sum();
+    }
+
+    long getFailures() {
+        return this.failures.sum();
+    }
+
+    long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    long getFailovers() {
+        return this.failovers.sum();
+    }
+
+    /**
+     * Determines if the probes of a cluster group are within the thresholds.
+     */
+    boolean isHealthy(int group) {
+        return this.groups == null || this.groups[group].healthy;
+    }
+
+    /**
+     * Stops probing, e.g. when the pool is closed.
+     */
+    void close() {
+        this.scheduler.shutdownNow();
+        if (this.groups != null) {
+            for (Group group : this.groups) {
+                disconnect(group);
+            }
+        }
+    }
+}
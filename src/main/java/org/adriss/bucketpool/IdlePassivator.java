@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.PooledObjectState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.couchbase.client.java.Bucket;
+
+/**
+ * Closes and reopens the idle buckets of a pool with <code>passivate</code>
+ * and <code>passivateIdleMillis</code>, so borrowers don't wait for a bucket
+ * to open. Four times per idle period, the passivator estimates the buckets
+ * the coming borrows need from the borrow rate, averaged exponentially, and
+ * the mean time buckets are held:
+ * <ul>
+ * <li>none, when less than one borrow is expected within the idle period;</li>
+ * <li>otherwise the borrows in flight at that rate, plus half as many again,
+ * at least one and less those already borrowed.</li>
+ * </ul>
+ * Open idle buckets over that estimate are closed once idle for longer than
+ * the period; closed ones are reopened while under it, those the pool hands
+ * out next first. An idle bucket is held
+ * as the pool's evictor holds it, so a borrower never gets one being closed or
+ * opened.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+class IdlePassivator {
+
+    private final static Logger logger = LoggerFactory.getLogger(IdlePassivator.class);
+    private static final double WEIGHT = 0.3;
+    private static final double HEADROOM = 1.5;
+
+    private final BucketPool pool;
+    private final BucketFactory factory;
+    private final long idleMillis;
+    private final ScheduledExecutorService scheduler;
+    private long lastBorrowed;
+    private long lastTick = System.nanoTime();
+    private volatile double borrowRate = -1;
+
+    IdlePassivator(BucketPool pool, BucketFactory factory, BucketPoolConfig config) {
+        this.pool = pool;
+        this.factory = factory;
+        this.idleMillis = config.getPassivateIdleMillis();
+        this.lastBorrowed = pool.getBorrowedCount();
+        long period = Math.max(1, this.idleMillis / 4);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bucketpool-passivation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::tick, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void tick() {
+        try {
+            check();
+        } catch (Exception e) {
+            logger.warn(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Updates the borrow rate, then closes or reopens idle buckets to match
+     * the buckets it predicts.
+     */
+    synchronized void check() {
+        long now = System.nanoTime();
+        long borrowed = this.pool.getBorrowedCount();
+        double rate = (borrowed - this.lastBorrowed) * (double) TimeUnit.SECONDS.toNanos(1)
+                / Math.max(1, now - this.lastTick);
+        this.lastBorrowed = borrowed;
+        this.lastTick = now;
+        this.borrowRate = this.borrowRate < 0 ? rate : WEIGHT * rate + (1 - WEIGHT) * this.borrowRate;
+        int wanted = getPredictedIdle();
+        List<WrappedBucket> open = new ArrayList<>();
+        List<WrappedBucket> closed = new ArrayList<>();
+        for (WrappedBucket bucket : this.factory.getBuckets()) {
+            PooledObject<Bucket> pooled = bucket.getPooledObject();
+            if (pooled != null && pooled.getState() == PooledObjectState.IDLE && !bucket.isUnhealthy()) {
+                (bucket.isClosed() ? closed : open).add(bucket);
+            }
+        }
+        // in the order the pool hands idle buckets out, closing the last ones
+        Comparator<WrappedBucket> next = Comparator
+                .comparingLong(bucket -> bucket.getPooledObject().getLastReturnTime());
+        if (this.pool.getLifo()) {
+            next = next.reversed();
+        }
+        open.sort(next.reversed());
+        closed.sort(next);
+        int idle = open.size();
+        for (WrappedBucket bucket : open) {
+            if (idle <= wanted) {
+                break;
+            }
+            if (bucket.getPooledObject().getIdleTimeMillis() > this.idleMillis && hold(bucket, true)) {
+                idle--;
+            }
+        }
+        for (WrappedBucket bucket : closed) {
+            if (idle >= wanted) {
+                break;
+            }
+            if (hold(bucket, false)) {
+                idle++;
+            }
+        }
+    }
+
+    /**
+     * Closes or reopens an idle bucket unless it was borrowed meanwhile.
+     */
+    private boolean hold(WrappedBucket bucket, boolean close) {
+        PooledObject<Bucket> pooled = bucket.getPooledObject();
+        if (!pooled.startEvictionTest()) {
+            return false;
+        }
+        boolean done = false;
+        try {
+            if (close) {
+                this.factory.passivate(bucket);
+            } else {
+                this.factory.reopen(bucket);
+            }
+            done = true;
+        } catch (RuntimeException e) {
+            logger.warn("Failed to {} idle [{}] bucket: {}", close ? "close" : "reopen", bucket, e.getMessage());
+        }
+        // a borrower that polled the bucket meanwhile skipped it, leaving it
+        // out of the idle buckets
+        Deque<PooledObject<Bucket>> skipped = new ArrayDeque<>();
+        pooled.endEvictionTest(skipped);
+        if (!done) {
+            try {
+                this.pool.invalidateObject(bucket);
+                if (this.pool.getNumIdle() < this.pool.getMinIdle()) {
+                    this.pool.addObject();
+                }
+            } catch (Exception e) {
+                logger.warn("Failed to replace [{}] bucket: {}", bucket, e.getMessage());
+            }
+            return false;
+        }
+        if (!skipped.isEmpty() && pooled.allocate()) {
+            // handed back like a borrowed bucket, so the next borrower or waiter gets it
+            this.pool.returnObject(bucket);
+        }
+        return true;
+    }
+
+    /**
+     * Provides the buckets to keep open in the pool for the borrows expected
+     * within the idle period.
+     */
+    int getPredictedIdle() {
+        double rate = Math.max(0, this.borrowRate);
+        if (rate * this.idleMillis / 1000 < 1) {
+            return 0;
+        }
+        double inFlight = rate * Math.max(1, this.pool.getMeanActiveTimeMillis()) / 1000;
+        return Math.max(1, (int) Math.ceil(inFlight * HEADROOM) - this.pool.getNumActive());
+    }
+
+    /**
+     * Provides the borrows per second, averaged exponentially.
+     */
+    double getBorrowRate() {
+        return Math.max(0, this.borrowRate);
+    }
+
+    void close() {
+        this.scheduler.shutdownNow();
+    }
+}
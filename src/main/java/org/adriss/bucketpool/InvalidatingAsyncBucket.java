@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.Document;
+
+import rx.Observable;
+
+/**
+ * Provides the {@link AsyncBucket} of a {@link Bucket} whose mutations
+ * invalidate the document, e.g. in the {@link NearCache}, once they have completed,
+ * failed or been unsubscribed from, as the blocking mutations of
+ * {@link WrappedBucket} do. Every other operation goes straight to the
+ * bucket's own <code>AsyncBucket</code>.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+class InvalidatingAsyncBucket implements InvocationHandler {
+
+    /**
+     * The operations changing the document whose id, or the document itself,
+     * is their first argument.
+     */
+    private static final Set<String> MUTATIONS = new HashSet<>(Arrays.asList("append", "counter", "getAndLock",
+            "getAndTouch", "insert", "listAppend", "listPrepend", "listRemove", "listSet", "mapAdd", "mapRemove",
+            "prepend", "queuePop", "queuePush", "remove", "replace", "setAdd", "setRemove", "touch", "unlock",
+            "upsert"));
+
+    private final Bucket bucket;
+    private final AsyncBucket async;
+    private final Consumer<String> invalidator;
+    private final AsyncBucket proxy;
+
+    InvalidatingAsyncBucket(Bucket bucket, Consumer<String> invalidator) {
+        this.bucket = bucket;
+        this.async = bucket.async();
+        this.invalidator = invalidator;
+        this.proxy = (AsyncBucket) Proxy.newProxyInstance(AsyncBucket.class.getClassLoader(),
+                new Class<?>[] { AsyncBucket.class }, this);
+    }
+
+    /**
+     * Determines if this wraps the <code>AsyncBucket</code> of a bucket, which
+     * changes when the bucket is reopened.
+     */
+    boolean wraps(Bucket bucket) {
+        return this.bucket == bucket;
+    }
+
+    AsyncBucket async() {
+        return this.proxy;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            return method.invoke(this, args);
+        }
+        String id = args == null || args.length == 0 ? null
+                : args[0] instanceof String ? (String) args[0]
+                        : args[0] instanceof Document ? ((Document<?>) args[0]).id() : null;
+        if (id != null && method.getName().equals("mutateIn")) {
+            return new InvalidatingAsyncMutateInBuilder(this.bucket.core(), this.async.name(),
+                    this.bucket.environment(), this.invalidator, id);
+        }
+        Object result;
+        try {
+            result = method.invoke(this.async, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+        if (id == null || !(result instanceof Observable) || !MUTATIONS.contains(method.getName())) {
+            return result;
+        }
+        return ((Observable<?>) result).doOnTerminate(() -> this.invalidator.accept(id))
+                .doOnUnsubscribe(() -> this.invalidator.accept(id));
+    }
+}
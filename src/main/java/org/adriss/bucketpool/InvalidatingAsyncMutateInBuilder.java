@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.function.Consumer;
+
+import com.couchbase.client.core.ClusterFacade;
+import com.couchbase.client.core.message.kv.subdoc.multi.Mutation;
+import com.couchbase.client.java.PersistTo;
+import com.couchbase.client.java.ReplicateTo;
+import com.couchbase.client.java.env.CouchbaseEnvironment;
+import com.couchbase.client.java.subdoc.AsyncMutateInBuilder;
+import com.couchbase.client.java.subdoc.DocumentFragment;
+import com.couchbase.client.java.transcoder.JacksonTransformers;
+import com.couchbase.client.java.transcoder.subdoc.JacksonFragmentTranscoder;
+
+import rx.Observable;
+
+/**
+ * An {@link AsyncMutateInBuilder} that invalidates the document, e.g. in the
+ * {@link NearCache}, once the mutation has completed, failed or been
+ * unsubscribed from.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+class InvalidatingAsyncMutateInBuilder extends AsyncMutateInBuilder {
+
+    private final Consumer<String> invalidator;
+
+    InvalidatingAsyncMutateInBuilder(ClusterFacade core, String bucketName, CouchbaseEnvironment environment,
+            Consumer<String> invalidator, String docId) {
+        // the transcoder CouchbaseAsyncBucket gives its own builders
+        super(core, bucketName, environment, new JacksonFragmentTranscoder(JacksonTransformers.MAPPER), docId);
+        this.invalidator = invalidator;
+    }
+
+    @Override
+    public Observable<DocumentFragment<Mutation>> execute() {
+        return invalidating(super.execute());
+    }
+
+    @Override
+    public Observable<DocumentFragment<Mutation>> execute(PersistTo persistTo, ReplicateTo replicateTo) {
+        return invalidating(super.execute(persistTo, replicateTo));
+    }
+
+    private <T> Observable<T> invalidating(Observable<T> mutation) {
+        return mutation.doOnTerminate(() -> this.invalidator.accept(this.docId))
+                .doOnUnsubscribe(() -> this.invalidator.accept(this.docId));
+    }
+}
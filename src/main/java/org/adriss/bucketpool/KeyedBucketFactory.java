@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.apache.commons.pool2.BaseKeyedPooledObjectFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.CouchbaseCluster;
+import com.couchbase.client.java.env.CouchbaseEnvironment;
+import com.couchbase.client.java.env.DefaultCouchbaseEnvironment;
+
+/**
+ * A {@link Bucket} implementation of
+ * <code>BaseKeyedPooledObjectFactory</code>, keyed by bucket name.
+ * <p>
+ * Every name shares the same clusters: a cluster holds at most one open
+ * bucket of each name, so the clusters without an open bucket of a name are
+ * tracked per name, and a new cluster is only created when a name has used
+ * them all. There are never more clusters than buckets of the busiest name.
+ * </p>
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+public class KeyedBucketFactory extends BaseKeyedPooledObjectFactory<String, Bucket> {
+
+    private final static Logger logger = LoggerFactory.getLogger(KeyedBucketFactory.class);
+
+    private final boolean passivate;
+    private final Supplier<Cluster> clusterSupplier;
+    private CouchbaseEnvironment environment;
+    private boolean ownsEnvironment;
+    private final List<WrappedCluster> clusters = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<String, Queue<WrappedCluster>> unusedClusters = new ConcurrentHashMap<>();
+    // the pool hands buckets back as Buckets, this keeps them reopenable without casting
+    private final ConcurrentMap<Bucket, WrappedBucket> buckets = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+    private final LongAdder clusterReuseHits = new LongAdder();
+    private final LongAdder clusterReuseMisses = new LongAdder();
+
+    /**
+     * @param config
+     *            The configuration to use for this pool instance.
+     */
+    public KeyedBucketFactory(KeyedBucketPoolConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * @param config
+     *            The configuration to use for this pool instance.
+     * @param clusterSupplier
+     *            Supplies the {@link Cluster}s the buckets are opened from. If
+     *            none is used, a <code>CouchbaseCluster</code> sharing the
+     *            configured <code>environment</code>, or a
+     *            <code>DefaultCouchbaseEnvironment</code> owned by this
+     *            factory, is created as needed.
+     */
+    public KeyedBucketFactory(KeyedBucketPoolConfig config, Supplier<Cluster> clusterSupplier) {
+        super();
+        this.passivate = config.isPassivate();
+        if (clusterSupplier == null) {
+            String[] nodes = config.getNodes() == null ? new String[] { "localhost" } : config.getNodes();
+            this.environment = config.getEnvironment();
+            if (this.environment == null) {
+                this.environment = DefaultCouchbaseEnvironment.create();
+                this.ownsEnvironment = true;
+            }
+            clusterSupplier = () -> CouchbaseCluster.create(this.environment, nodes);
+        }
+        this.clusterSupplier = clusterSupplier;
+    }
+
+    /**
+     * Provides the clusters without an open bucket of a name, starting with
+     * every existing cluster the first time a name is seen.
+     */
+    private Queue<WrappedCluster> unusedClusters(String name) {
+        Queue<WrappedCluster> unused = this.unusedClusters.get(name);
+        if (unused == null) {
+            synchronized (this.clusters) {
+                unused = this.unusedClusters.computeIfAbsent(name,
+                        key -> new ConcurrentLinkedQueue<>(this.clusters));
+            }
+        }
+        return unused;
+    }
+
+    /**
+     * Creates a cluster for a name, making it available to every other name.
+     */
+    private WrappedCluster newCluster(String name) {
+        WrappedCluster cluster = new WrappedCluster(this.clusterSupplier.get(), name);
+        synchronized (this.clusters) {
+            this.clusters.add(cluster);
+            this.unusedClusters.forEach((other, unused) -> {
+                if (!other.equals(name)) {
+                    unused.offer(cluster);
+                }
+            });
+        }
+        logger.debug("Created [{}] cluster", cluster);
+        return cluster;
+    }
+
+    @Override
+    public Bucket create(String name) throws Exception {
+        if (this.closed) {
+            throw new IllegalStateException("Factory closed");
+        }
+        Queue<WrappedCluster> unused = unusedClusters(name);
+        WrappedCluster cluster = unused.poll();
+        if (cluster == null) {
+            this.clusterReuseMisses.increment();
+            cluster = newCluster(name);
+        } else {
+            this.clusterReuseHits.increment();
+        }
+        WrappedBucket bucket = new WrappedBucket(cluster, name);
+        try {
+            bucket.open();
+        } catch (RuntimeException e) {
+            unused.offer(cluster);
+            throw e;
+        }
+        this.buckets.put(bucket, bucket);
+        return bucket;
+    }
+
+    @Override
+    public PooledObject<Bucket> wrap(Bucket bucket) {
+        return new DefaultPooledObject<Bucket>(bucket);
+    }
+
+    @Override
+    public void destroyObject(String name, PooledObject<Bucket> p) throws Exception {
+        WrappedBucket bucket = this.buckets.remove(p.getObject());
+        logger.debug("Destroyed [{}] bucket", bucket);
+        if (this.closed) {
+            // disconnected by close()
+            return;
+        }
+        if (bucket.isClosed() || bucket.close()) {
+            unusedClusters(name).offer(bucket.getCluster());
+        }
+    }
+
+    @Override
+    public boolean validateObject(String name, PooledObject<Bucket> p) {
+        return !p.getObject().isClosed();
+    }
+
+    @Override
+    public void activateObject(String name, PooledObject<Bucket> p) throws Exception {
+        WrappedBucket bucket = this.buckets.get(p.getObject());
+        if (bucket.isClosed()) {
+            bucket.open();
+        }
+    }
+
+    @Override
+    public void passivateObject(String name, PooledObject<Bucket> p) throws Exception {
+        if (this.passivate) {
+            p.getObject().close();
+        }
+    }
+
+    /**
+     * Provides the number of clusters shared by every name.
+     *
+     * @return the clusters.
+     */
+    public int getNumClusters() {
+        return this.clusters.size();
+    }
+
+    /**
+     * Provides the number of clusters without an open bucket of a name.
+     *
+     * @param name
+     *            the bucket name.
+     * @return the unused clusters.
+     */
+    public int getNumUnusedClusters(String name) {
+        Queue<WrappedCluster> unused = this.unusedClusters.get(name);
+        return unused == null ? this.clusters.size() : unused.size();
+    }
+
+    /**
+     * Provides the number of buckets opened on an existing cluster.
+     *
+     * @return the cluster reuse hits.
+     */
+    public long getClusterReuseHits() {
+        return this.clusterReuseHits.sum();
+    }
+
+    /**
+     * Provides the number of buckets that required a new cluster.
+     *
+     * @return the cluster reuse misses.
+     */
+    public long getClusterReuseMisses() {
+        return this.clusterReuseMisses.sum();
+    }
+
+    /**
+     * Disconnects every cluster in parallel, closing the buckets still open
+     * on them, then shuts the environment down unless it was provided through
+     * the configuration. No bucket can be created afterwards.
+     *
+     * @param timeoutMillis
+     *            the time to wait for the clusters and environment to shut
+     *            down.
+     * @return true if everything shut down in time.
+     */
+    public boolean close(long timeoutMillis) {
+        if (this.closed) {
+            return true;
+        }
+        this.closed = true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        List<WrappedCluster> clusters;
+        synchronized (this.clusters) {
+            clusters = new ArrayList<>(this.clusters);
+            this.unusedClusters.clear();
+        }
+        boolean done = BucketFactory.disconnect(clusters, deadline);
+        if (this.ownsEnvironment) {
+            try {
+                done &= this.environment.shutdown(Math.max(1, BucketFactory.remainingMillis(deadline)),
+                        TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to shut the environment down", e);
+                done = false;
+            }
+        }
+        logger.info("Closed {} clusters{}", clusters.size(), done ? "" : ", some didn't shut down in time");
+        return done;
+    }
+}
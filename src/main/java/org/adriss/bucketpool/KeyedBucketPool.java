@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
+
+import com.couchbase.client.java.Bucket;
+
+/**
+ * A pool of {@link Bucket}s of several names, borrowed by name, e.g.
+ * <code>borrowObject("sessions")</code>. Every name shares one environment
+ * and one set of clusters, see {@link KeyedBucketFactory}.
+ * <p>
+ * Besides the limits of {@link KeyedBucketPoolConfig}, a name can be given a
+ * lower limit with <code>setMaxTotalPerName</code>; borrowers of that name
+ * then wait for one of its buckets to be returned.
+ * </p>
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+public class KeyedBucketPool extends GenericKeyedObjectPool<String, Bucket> {
+
+    private static final long DRAIN_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final KeyedBucketFactory factory;
+    private final Map<String, Semaphore> limits = new ConcurrentHashMap<>();
+    private final long closeTimeoutMillis;
+
+    /**
+     * @param config
+     *            The configuration to use for this pool instance. The
+     *            configuration is used by value. Subsequent changes to the
+     *            configuration object will not be reflected in the pool.
+     */
+    public KeyedBucketPool(KeyedBucketPoolConfig config) {
+        this(new KeyedBucketFactory(config), config);
+    }
+
+    /**
+     * @param factory
+     *            The factory to be used to create buckets by this pool.
+     * @param config
+     *            The configuration to use for this pool instance. The
+     *            configuration is used by value. Subsequent changes to the
+     *            configuration object will not be reflected in the pool.
+     */
+    public KeyedBucketPool(KeyedBucketFactory factory, KeyedBucketPoolConfig config) {
+        super(factory, config);
+        this.factory = factory;
+        this.closeTimeoutMillis = config.getCloseTimeoutMillis();
+        config.getMaxTotalPerName().forEach((name, maxTotal) -> this.limits.put(name, new Semaphore(maxTotal)));
+    }
+
+    @Override
+    public Bucket borrowObject(String name, long borrowMaxWaitMillis) throws Exception {
+        Semaphore limit = this.limits.get(name);
+        if (limit == null) {
+            return super.borrowObject(name, borrowMaxWaitMillis);
+        }
+        long start = System.currentTimeMillis();
+        if (!getBlockWhenExhausted()) {
+            if (!limit.tryAcquire()) {
+                throw new NoSuchElementException("Pool exhausted");
+            }
+        } else if (borrowMaxWaitMillis < 0) {
+            limit.acquire();
+        } else if (!limit.tryAcquire(borrowMaxWaitMillis, TimeUnit.MILLISECONDS)) {
+            throw new NoSuchElementException("Timeout waiting for idle object");
+        }
+        try {
+            long remaining = borrowMaxWaitMillis < 0 ? borrowMaxWaitMillis
+                    : Math.max(0, borrowMaxWaitMillis - (System.currentTimeMillis() - start));
+            return super.borrowObject(name, remaining);
+        } catch (Exception e) {
+            limit.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void returnObject(String name, Bucket bucket) {
+        super.returnObject(name, bucket);
+        release(name);
+    }
+
+    @Override
+    public void invalidateObject(String name, Bucket bucket) throws Exception {
+        super.invalidateObject(name, bucket);
+        release(name);
+    }
+
+    private void release(String name) {
+        Semaphore limit = this.limits.get(name);
+        if (limit != null) {
+            limit.release();
+        }
+    }
+
+    /**
+     * Provides the number of clusters shared by every bucket name.
+     *
+     * @return the clusters.
+     */
+    public int getNumClusters() {
+        return this.factory.getNumClusters();
+    }
+
+    /**
+     * Stops handing buckets out, waits up to half of
+     * <code>closeTimeoutMillis</code> for the borrowed ones to be returned,
+     * then disconnects every cluster in parallel and shuts the environment
+     * down unless it was provided through the configuration, within the rest
+     * of the timeout.
+     */
+    @Override
+    public void close() {
+        if (isClosed()) {
+            return;
+        }
+        long start = System.nanoTime();
+        super.close();
+        long drained = start + TimeUnit.MILLISECONDS.toNanos(this.closeTimeoutMillis / 2);
+        while (getNumActive() > 0 && System.nanoTime() < drained) {
+            LockSupport.parkNanos(DRAIN_POLL_NANOS);
+        }
+        this.factory.close(Math.max(0, this.closeTimeoutMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                - start)));
+    }
+}
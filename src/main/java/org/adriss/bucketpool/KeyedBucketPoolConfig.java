@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.env.CouchbaseEnvironment;
+
+/**
+ * A simple "struct" extending the configuration of
+ * {@link GenericKeyedObjectPoolConfig} to include the configuration of a
+ * {@link KeyedBucketPool}, whose keys are {@link Bucket} names.
+ * <p>
+ * <code>maxTotalPerKey</code>, <code>maxIdlePerKey</code> and
+ * <code>minIdlePerKey</code> apply to every name, <code>maxTotal</code> to
+ * all of them together.
+ *
+ * <p>
+ * This class is not thread-safe; it is only intended to be used to provide
+ * attributes used when creating a pool.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+public class KeyedBucketPoolConfig extends GenericKeyedObjectPoolConfig {
+
+    private String[] nodes;
+    private boolean passivate;
+    private CouchbaseEnvironment environment;
+    private long closeTimeoutMillis = 10000;
+    private final Map<String, Integer> maxTotalPerName = new HashMap<>();
+
+    /**
+     * 
+     * @param nodes
+     *            The Couchbase's nodes.
+     */
+    public void setNodes(final String... nodes) {
+        this.nodes = nodes;
+    }
+
+    /**
+     * Provides the Couchbase's nodes.
+     * 
+     * @return array of nodes.
+     */
+    public String[] getNodes() {
+        return nodes;
+    }
+
+    /**
+     * If true, {@link Bucket}s are closed when returned to the pool and
+     * reopened when borrowed.
+     * 
+     * @param passivate
+     */
+    public void setPassivate(boolean passivate) {
+        this.passivate = passivate;
+    }
+
+    /**
+     * Determines if {@link Bucket}s are closed when returned to the pool.
+     * 
+     * @return boolean
+     */
+    public boolean isPassivate() {
+        return passivate;
+    }
+
+    /**
+     * The environment shared by every cluster of the pool. It is left running
+     * when the pool is closed. If none is set, the pool creates its own and
+     * shuts it down on close.
+     * 
+     * @param environment
+     */
+    public void setEnvironment(CouchbaseEnvironment environment) {
+        this.environment = environment;
+    }
+
+    /**
+     * Provides the environment shared by every cluster of the pool.
+     * 
+     * @return the environment, or null if the pool owns its own.
+     */
+    public CouchbaseEnvironment getEnvironment() {
+        return environment;
+    }
+
+    /**
+     * The time <code>close()</code> takes at most: half of it waiting for the
+     * borrowed {@link Bucket}s to be returned, the rest for the clusters to
+     * disconnect.
+     * 
+     * @param closeTimeoutMillis
+     */
+    public void setCloseTimeoutMillis(long closeTimeoutMillis) {
+        this.closeTimeoutMillis = closeTimeoutMillis;
+    }
+
+    /**
+     * Provides the time <code>close()</code> takes at most.
+     * 
+     * @return long
+     */
+    public long getCloseTimeoutMillis() {
+        return closeTimeoutMillis;
+    }
+
+    /**
+     * Limits the {@link Bucket}s of one name below
+     * <code>maxTotalPerKey</code>, e.g. to keep a low traffic bucket from
+     * holding connections the others need.
+     * 
+     * @param name
+     *            The name of the {@link Bucket}
+     * @param maxTotal
+     *            The max number of buckets of that name.
+     */
+    public void setMaxTotalPerName(String name, int maxTotal) {
+        this.maxTotalPerName.put(name, maxTotal);
+    }
+
+    /**
+     * Provides the limits set per {@link Bucket} name.
+     * 
+     * @return the max totals by name.
+     */
+    public Map<String, Integer> getMaxTotalPerName() {
+        return maxTotalPerName;
+    }
+}
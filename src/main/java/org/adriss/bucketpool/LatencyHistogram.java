@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds.
+ * <p>
+ * Values are counted in log-linear bins: each power of two is split into
+ * eight linear bins, so percentiles are accurate to within
+ * 12.5% over the whole range while recording stays a single atomic
+ * increment.
+ * </p>
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BINS = 1 << SUB_BITS;
+    private static final int EXACT = SUB_BINS * 2;
+    private static final int BINS = EXACT + (63 - SUB_BITS - 1) * SUB_BINS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BINS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos
+     *            the latency in nanoseconds, negative values are recorded as
+     *            zero.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        this.counts.incrementAndGet(bin(nanos));
+        this.sum.addAndGet(nanos);
+        long current;
+        while (nanos > (current = this.max.get()) && !this.max.compareAndSet(current, nanos)) {
+        }
+    }
+
+    static int bin(long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BINS - 1);
+        return EXACT + (exponent - SUB_BITS - 1) * SUB_BINS + sub;
+    }
+
+    static long lowestValue(int bin) {
+        if (bin < EXACT) {
+            return bin;
+        }
+        int exponent = (bin - EXACT) / SUB_BINS + SUB_BITS + 1;
+        int sub = (bin - EXACT) % SUB_BINS;
+        return (1L << exponent) + ((long) sub << (exponent - SUB_BITS));
+    }
+
+    /**
+     * Provides the number of recorded latencies.
+     *
+     * @return the count.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BINS; i++) {
+            count += this.counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Provides the highest recorded latency.
+     *
+     * @return the max in nanoseconds.
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Provides the mean of the recorded latencies.
+     *
+     * @return the mean in nanoseconds.
+     */
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) this.sum.get() / count;
+    }
+
+    /**
+     * Provides the latency at or below which the given percentage of the
+     * recorded latencies fall, e.g. 99.9 for the p999. Values are reported
+     * at the lower bound of their bin, capped at the max.
+     *
+     * @param percentile
+     *            between 0 and 100.
+     * @return the latency in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100) / 100));
+        long seen = 0;
+        for (int i = 0; i < BINS; i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank) {
+                return Math.min(lowestValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Adds every latency recorded by another histogram to this one.
+     *
+     * @param other
+     *            the histogram to add.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BINS; i++) {
+            long count = other.counts.get(i);
+            if (count > 0) {
+                this.counts.addAndGet(i, count);
+            }
+        }
+        this.sum.addAndGet(other.sum.get());
+        long max = other.max.get();
+        long current;
+        while (max > (current = this.max.get()) && !this.max.compareAndSet(current, max)) {
+        }
+    }
+
+    /**
+     * Provides the latencies recorded since an earlier copy of this
+     * histogram, e.g. to compute the percentiles of an interval. The max is
+     * the max of the whole histogram; bins cleared since the copy are counted
+     * as empty.
+     *
+     * @param earlier
+     *            a copy taken earlier with {@link #add(LatencyHistogram)}.
+     * @return the difference.
+     */
+    LatencyHistogram since(LatencyHistogram earlier) {
+        LatencyHistogram interval = new LatencyHistogram();
+        for (int i = 0; i < BINS; i++) {
+            interval.counts.set(i, Math.max(0, this.counts.get(i) - earlier.counts.get(i)));
+        }
+        interval.sum.set(Math.max(0, this.sum.get() - earlier.sum.get()));
+        interval.max.set(this.max.get());
+        return interval;
+    }
+
+    /**
+     * Clears every recorded latency.
+     */
+    public void reset() {
+        for (int i = 0; i < BINS; i++) {
+            this.counts.set(i, 0);
+        }
+        this.sum.set(0);
+        this.max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", p50=" + getValueAtPercentile(50) + "ns, p99=" + getValueAtPercentile(99)
+                + "ns, p999=" + getValueAtPercentile(99.9) + "ns, max=" + getMax() + "ns";
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Detects the {@link com.couchbase.client.java.Bucket}s held too long or
+ * never returned, without the stack trace <code>logAbandoned</code> captures
+ * on every borrow. Every borrow records its start time and every return its
+ * hold time, a clock read and an atomic increment; only one borrow in
+ * <code>leakSampleRate</code> captures its call site, which then keeps its
+ * own hold time histogram. A background thread logs the buckets held longer
+ * than <code>leakReportMillis</code> once per borrow, and the pool logs those
+ * still held when it closes.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+class LeakDetector {
+
+    private final static Logger logger = LoggerFactory.getLogger(LeakDetector.class);
+    private static final int SITE_FRAMES = 3;
+    private static final String UNSAMPLED = "(call site not sampled)";
+    private static final Class<?>[] POOL = { LeakDetector.class, BucketPool.class, AsyncWaiters.class };
+
+    /**
+     * A sampled borrow site.
+     */
+    static class Site {
+        private final String frames;
+        private final LatencyHistogram holdTime = new LatencyHistogram();
+        private final LongAdder leaks = new LongAdder();
+
+        private Site(String frames) {
+            this.frames = frames;
+        }
+    }
+
+    private final BucketFactory factory;
+    private final LatencyHistogram holdTime;
+    private final int sampleRate;
+    private final long reportNanos;
+    private final ConcurrentMap<String, Site> sites = new ConcurrentHashMap<>();
+    private final LongAdder reported = new LongAdder();
+    private final ScheduledExecutorService scheduler;
+
+    LeakDetector(BucketFactory factory, LatencyHistogram holdTime, BucketPoolAbandonedConfig config) {
+        this.factory = factory;
+        this.holdTime = holdTime;
+        this.sampleRate = config.getLeakSampleRate();
+        this.reportNanos = TimeUnit.MILLISECONDS.toNanos(config.getLeakReportMillis());
+        long period = Math.max(1, config.getLeakReportMillis() / 4);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bucketpool-leaks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::tick, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void tick() {
+        try {
+            check();
+        } catch (Exception e) {
+            logger.warn(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Captures the call site of one borrow in <code>leakSampleRate</code>.
+     *
+     * @return the site, or null if this borrow isn't sampled.
+     */
+    Site sample() {
+        if (this.sampleRate != 1 && ThreadLocalRandom.current().nextInt(this.sampleRate) != 0) {
+            return null;
+        }
+        StringBuilder frames = new StringBuilder();
+        int count = 0;
+        for (StackTraceElement frame : new Throwable().getStackTrace()) {
+            if (isPool(frame.getClassName())) {
+                continue;
+            }
+            if (count > 0) {
+                frames.append(" <- ");
+            }
+            frames.append(frame);
+            if (++count == SITE_FRAMES) {
+                break;
+            }
+        }
+        return this.sites.computeIfAbsent(frames.toString(), Site::new);
+    }
+
+    private static boolean isPool(String className) {
+        for (Class<?> type : POOL) {
+            if (className.equals(type.getName()) || className.startsWith(type.getName() + "$")) {
+                return true;
+            }
+        }
+        return className.startsWith("org.apache.commons.pool2.") || className.startsWith("java.")
+                || className.startsWith("jdk.") || className.startsWith("sun.") || className.startsWith("rx.");
+    }
+
+    /**
+     * Records a bucket handed to a borrower.
+     *
+     * @param site
+     *            the sampled call site, or null.
+     */
+    void borrowed(WrappedBucket bucket, Site site) {
+        borrowed(bucket, site, System.nanoTime());
+    }
+
+    /**
+     * Records a bucket handed to a borrower at a given time, 0 if it wasn't
+     * handed out after all.
+     */
+    void borrowed(WrappedBucket bucket, Site site, long borrowedAt) {
+        bucket.setBorrowed(borrowedAt, site);
+    }
+
+    /**
+     * Records the hold time of a bucket given back by a borrower.
+     */
+    void returned(WrappedBucket bucket) {
+        long borrowedAt = bucket.getBorrowedAt();
+        if (borrowedAt == 0) {
+            // borrowed by the pool itself, e.g. for a bulk operation
+            return;
+        }
+        long held = System.nanoTime() - borrowedAt;
+        Site site = bucket.getBorrowSite();
+        bucket.setBorrowed(0, null);
+        this.holdTime.record(held);
+        if (site != null) {
+            site.holdTime.record(held);
+        }
+    }
+
+    /**
+     * Logs the buckets held longer than <code>leakReportMillis</code> that
+     * weren't reported yet.
+     */
+    void check() {
+        long now = System.nanoTime();
+        for (WrappedBucket bucket : this.factory.getBuckets()) {
+            long borrowedAt = bucket.getBorrowedAt();
+            if (borrowedAt != 0 && now - borrowedAt > this.reportNanos && bucket.markLeakReported()) {
+                this.reported.increment();
+                Site site = bucket.getBorrowSite();
+                if (site != null) {
+                    site.leaks.increment();
+                }
+                logger.warn("[{}] bucket held for {} ms, borrowed at {}", bucket,
+                        TimeUnit.NANOSECONDS.toMillis(now - borrowedAt), site == null ? UNSAMPLED : site.frames);
+            }
+        }
+    }
+
+    /**
+     * Provides the buckets currently held longer than
+     * <code>leakReportMillis</code>, with their hold time and call site.
+     */
+    List<String> getSuspects() {
+        long now = System.nanoTime();
+        List<String> suspects = new ArrayList<>();
+        for (WrappedBucket bucket : this.factory.getBuckets()) {
+            long borrowedAt = bucket.getBorrowedAt();
+            if (borrowedAt != 0 && now - borrowedAt > this.reportNanos) {
+                Site site = bucket.getBorrowSite();
+                suspects.add(bucket + " held for " + TimeUnit.NANOSECONDS.toMillis(now - borrowedAt)
+                        + " ms, borrowed at " + (site == null ? UNSAMPLED : site.frames));
+            }
+        }
+        return suspects;
+    }
+
+    /**
+     * Provides the hold times of the sampled borrows, by call site.
+     */
+    Map<String, LatencyHistogram> getHoldTimes() {
+        Map<String, LatencyHistogram> holdTimes = new TreeMap<>();
+        this.sites.forEach((frames, site) -> holdTimes.put(frames, site.holdTime));
+        return Collections.unmodifiableMap(holdTimes);
+    }
+
+    /**
+     * Provides the buckets reported as held too long, by sampled call site.
+     */
+    Map<String, Long> getLeaks() {
+        Map<String, Long> leaks = new TreeMap<>();
+        this.sites.forEach((frames, site) -> {
+            if (site.leaks.sum() > 0) {
+                leaks.put(frames, site.leaks.sum());
+            }
+        });
+        return leaks;
+    }
+
+    long getReported() {
+        return this.reported.sum();
+    }
+
+    /**
+     * Stops checking and logs the buckets still borrowed, which will never
+     * be returned to this pool.
+     */
+    void close() {
+        this.scheduler.shutdownNow();
+        long now = System.nanoTime();
+        for (WrappedBucket bucket : this.factory.getBuckets()) {
+            long borrowedAt = bucket.getBorrowedAt();
+            if (borrowedAt != 0) {
+                Site site = bucket.getBorrowSite();
+                logger.warn("[{}] bucket not returned before closing, held for {} ms, borrowed at {}", bucket,
+                        TimeUnit.NANOSECONDS.toMillis(now - borrowedAt), site == null ? UNSAMPLED : site.frames);
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.Document;
+
+/**
+ * A size-bounded cache of documents by id, shared by every
+ * {@link WrappedBucket} of a {@link BucketPool}, that serves
+ * <code>get</code>s without a round trip to the server. A document is cached
+ * for at most <code>nearCacheTtlMillis</code>, or until its expiry if sooner,
+ * and is invalidated by any mutation of its id through a bucket of the pool.
+ * <p>
+ * Cached documents are handed to every reader as is and must not be
+ * modified. When the cache is full, the least recently used entries are
+ * evicted first, approximated with a second-chance queue.
+ * </p>
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+public class NearCache {
+
+    /**
+     * Expiries above 30 days are absolute Unix times rather than relative.
+     */
+    private static final int RELATIVE_EXPIRY_LIMIT = (int) TimeUnit.DAYS.toSeconds(30);
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * A cached document, or a load in progress if it has none.
+     */
+    private static class Entry {
+
+        final String id;
+        final Document<?> document;
+        final long deadline;
+        volatile boolean referenced;
+
+        Entry(String id, Document<?> document, long deadline) {
+            this.id = id;
+            this.document = document;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * @param maxSize
+     *            The max number of cached documents.
+     * @param ttlMillis
+     *            The max time a document is cached for.
+     */
+    NearCache(int maxSize, long ttlMillis) {
+        super();
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * Provides the cached document, or loads and caches it. A load is not
+     * cached if the id is invalidated while it's in progress, so a mutation
+     * racing with the load can't leave the old document behind.
+     *
+     * @param id
+     *            the id of the document.
+     * @param target
+     *            the type of the document.
+     * @param loader
+     *            gets the document from the server, or null if it doesn't
+     *            exist.
+     * @return the document, or null if it doesn't exist.
+     */
+    <D extends Document<?>> D get(String id, Class<D> target, Supplier<D> loader) {
+        Entry entry = this.entries.get(id);
+        if (entry != null && entry.document != null) {
+            if (entry.deadline - System.nanoTime() <= 0) {
+                if (this.entries.remove(id, entry)) {
+                    this.expirations.increment();
+                }
+            } else if (target.isInstance(entry.document)) {
+                entry.referenced = true;
+                this.hits.increment();
+                return target.cast(entry.document);
+            }
+        }
+        this.misses.increment();
+        Entry loading = new Entry(id, null, 0);
+        if (this.entries.putIfAbsent(id, loading) != null) {
+            // another load is in progress or the cached type differs
+            loading = null;
+        }
+        D document;
+        try {
+            document = loader.get();
+        } catch (RuntimeException e) {
+            if (loading != null) {
+                this.entries.remove(id, loading);
+            }
+            throw e;
+        }
+        if (loading != null) {
+            if (document == null) {
+                this.entries.remove(id, loading);
+            } else {
+                Entry loaded = new Entry(id, document, deadline(document));
+                if (this.entries.replace(id, loading, loaded)) {
+                    this.queue.offer(loaded);
+                    this.queued.incrementAndGet();
+                    evict();
+                }
+            }
+        }
+        return document;
+    }
+
+    private long deadline(Document<?> document) {
+        long now = System.nanoTime();
+        long deadline = now + this.ttlNanos;
+        int expiry = document.expiry();
+        if (expiry > 0) {
+            long expiresIn = expiry > RELATIVE_EXPIRY_LIMIT
+                    ? TimeUnit.SECONDS.toNanos(expiry) - TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis())
+                    : TimeUnit.SECONDS.toNanos(expiry);
+            if (expiresIn < this.ttlNanos) {
+                deadline = now + expiresIn;
+            }
+        }
+        return deadline;
+    }
+
+    /**
+     * Evicts entries while the cache is over its size, giving the ones read
+     * since they were queued a second chance, and drops the queued entries
+     * already invalidated so the queue stays bounded.
+     */
+    private void evict() {
+        int budget = this.queued.get();
+        while (budget-- > 0 && (this.entries.size() > this.maxSize || this.queued.get() > 2 * this.maxSize)) {
+            Entry entry = this.queue.poll();
+            if (entry == null) {
+                return;
+            }
+            this.queued.decrementAndGet();
+            if (this.entries.get(entry.id) != entry) {
+                continue;
+            }
+            if (entry.referenced || this.entries.size() <= this.maxSize) {
+                entry.referenced = false;
+                this.queue.offer(entry);
+                this.queued.incrementAndGet();
+            } else if (this.entries.remove(entry.id, entry)) {
+                this.evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Drops the cached document, and any load in progress, of an id whose
+     * document has been mutated.
+     *
+     * @param id
+     *            the id of the document.
+     */
+    void invalidate(String id) {
+        Entry entry = this.entries.remove(id);
+        if (entry != null && entry.document != null) {
+            this.invalidations.increment();
+        }
+    }
+
+    /**
+     * Drops every cached document.
+     */
+    public void clear() {
+        this.entries.clear();
+        this.queue.clear();
+        this.queued.set(0);
+    }
+
+    /**
+     * @return the number of cached documents.
+     */
+    public int getSize() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return the <code>get</code>s served from the cache.
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @return the <code>get</code>s that went to the server.
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return the documents evicted to keep the cache within its size.
+     */
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * @return the documents dropped on reaching their TTL or expiry.
+     */
+    public long getExpirations() {
+        return this.expirations.sum();
+    }
+
+    /**
+     * @return the documents dropped because they were mutated through a
+     *         {@link Bucket} of the pool.
+     */
+    public long getInvalidations() {
+        return this.invalidations.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + getSize() + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions="
+                + getEvictions() + ", expirations=" + getExpirations() + ", invalidations=" + getInvalidations();
+    }
+}
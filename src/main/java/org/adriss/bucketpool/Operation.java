@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import com.couchbase.client.java.Bucket;
+
+/**
+ * The families {@link Bucket} operations are grouped in when measured by
+ * {@link OperationMetrics}. Overloads of the same operation, e.g. with
+ * durability requirements or timeouts, belong to the same family.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+public enum Operation {
+
+    GET,
+    EXISTS,
+    GET_FROM_REPLICA,
+    GET_AND_LOCK,
+    GET_AND_TOUCH,
+    UNLOCK,
+    TOUCH,
+    INSERT,
+    UPSERT,
+    REPLACE,
+    REMOVE,
+    COUNTER,
+    APPEND,
+    PREPEND,
+    LOOKUP_IN,
+    MUTATE_IN,
+    VIEW_QUERY,
+    N1QL_QUERY,
+    SEARCH_QUERY,
+    DATA_STRUCTURE
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and errors of the operations run through a {@link WrappedBucket},
+ * per {@link Operation} family. Each bucket records into its own instance;
+ * pool-wide totals are added up when read, keeping the recording path to two
+ * atomic updates.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+public class OperationMetrics {
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+    private final LongAdder[] errors = new LongAdder[OPERATIONS.length];
+
+    public OperationMetrics() {
+        super();
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            this.latencies[i] = new LatencyHistogram();
+            this.errors[i] = new LongAdder();
+        }
+    }
+
+    void record(Operation operation, long nanos) {
+        this.latencies[operation.ordinal()].record(nanos);
+    }
+
+    void error(Operation operation) {
+        this.errors[operation.ordinal()].increment();
+    }
+
+    /**
+     * Provides the latencies of an operation family, failed operations
+     * included.
+     *
+     * @param operation
+     *            the operation family.
+     * @return the histogram.
+     */
+    public LatencyHistogram getLatency(Operation operation) {
+        return this.latencies[operation.ordinal()];
+    }
+
+    /**
+     * Provides how many operations of a family have thrown.
+     *
+     * @param operation
+     *            the operation family.
+     * @return the error count.
+     */
+    public long getErrors(Operation operation) {
+        return this.errors[operation.ordinal()].sum();
+    }
+
+    /**
+     * Provides the latencies of every operation family that has been used.
+     *
+     * @return the histograms by operation family.
+     */
+    public Map<Operation, LatencyHistogram> getLatencies() {
+        Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+        for (Operation operation : OPERATIONS) {
+            if (getLatency(operation).getCount() > 0) {
+                latencies.put(operation, getLatency(operation));
+            }
+        }
+        return latencies;
+    }
+
+    /**
+     * Adds every latency and error recorded by other metrics to these.
+     *
+     * @param other
+     *            the metrics to add.
+     */
+    public void add(OperationMetrics other) {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            this.latencies[i].add(other.latencies[i]);
+            this.errors[i].add(other.errors[i].sum());
+        }
+    }
+
+    /**
+     * Clears every latency and error count.
+     */
+    public void reset() {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            this.latencies[i].reset();
+            this.errors[i].reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        getLatencies().forEach((operation, latency) -> builder.append(operation).append(": ").append(latency)
+                .append(", errors=").append(getErrors(operation)).append('\n'));
+        return builder.toString();
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.couchbase.client.core.ClusterFacade;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.query.AsyncN1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.query.PreparedPayload;
+import com.couchbase.client.java.query.Statement;
+import com.couchbase.client.java.query.core.N1qlQueryExecutor;
+import com.couchbase.client.java.util.LRUCache;
+
+import rx.Observable;
+
+/**
+ * A size-bounded cache of N1QL query plans, shared by every
+ * {@link WrappedBucket} of a {@link BucketPool}, so a statement run with
+ * <code>adhoc(false)</code> is prepared once for the pool rather than once
+ * per {@link Bucket}, and its plan outlives the buckets that are destroyed
+ * and recreated. Each cluster group has its own plans, prepared on its own
+ * cluster.
+ * <p>
+ * When the cache is full, the least recently used plans are evicted first.
+ * A plan the server no longer knows is prepared again, as the bucket's own
+ * cache does.
+ * </p>
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+public class QueryPlanCache {
+
+    /**
+     * The plans of a cluster group. Every executor wraps the map in its own
+     * synchronized view, so the map synchronizes itself across them.
+     */
+    private static class Plans extends LRUCache<String, PreparedPayload> {
+
+        private static final long serialVersionUID = 1L;
+
+        private Plans(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        public synchronized PreparedPayload get(Object key) {
+            return super.get(key);
+        }
+
+        @Override
+        public synchronized PreparedPayload put(String key, PreparedPayload value) {
+            return super.put(key, value);
+        }
+
+        @Override
+        public synchronized PreparedPayload remove(Object key) {
+            return super.remove(key);
+        }
+
+        @Override
+        public synchronized boolean containsKey(Object key) {
+            return super.containsKey(key);
+        }
+
+        @Override
+        public synchronized int size() {
+            return super.size();
+        }
+
+        @Override
+        public synchronized void clear() {
+            super.clear();
+        }
+    }
+
+    /**
+     * Runs the queries of one bucket with the plans of its cluster group,
+     * counting how often a plan is reused or prepared.
+     */
+    private class Executor extends N1qlQueryExecutor {
+
+        private final Plans plans;
+
+        private Executor(ClusterFacade core, String bucket, Plans plans) {
+            super(core, bucket, "", plans, ENCODED_PLAN);
+            this.plans = plans;
+        }
+
+        @Override
+        protected Observable<AsyncN1qlQueryResult> dispatchPrepared(N1qlQuery query) {
+            if (this.plans.containsKey(query.statement().toString())) {
+                QueryPlanCache.this.hits.increment();
+            } else {
+                QueryPlanCache.this.misses.increment();
+            }
+            return super.dispatchPrepared(query);
+        }
+
+        @Override
+        protected Observable<PreparedPayload> prepare(Statement statement) {
+            QueryPlanCache.this.prepares.increment();
+            return super.prepare(statement);
+        }
+    }
+
+    private static final boolean ENCODED_PLAN = Boolean
+            .parseBoolean(System.getProperty(N1qlQueryExecutor.ENCODED_PLAN_ENABLED_PROPERTY, "true"));
+
+    private final Plans[] plans;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder prepares = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param maxSize
+     *            The maximum number of plans per cluster group.
+     * @param groups
+     *            The number of cluster groups.
+     */
+    public QueryPlanCache(int maxSize, int groups) {
+        this.plans = new Plans[Math.max(1, groups)];
+        for (int i = 0; i < this.plans.length; i++) {
+            this.plans[i] = new Plans(maxSize);
+        }
+    }
+
+    /**
+     * Provides an executor running the queries of a bucket with the plans of
+     * its cluster group.
+     *
+     * @param core
+     *            The core of the bucket.
+     * @param bucket
+     *            The name of the bucket.
+     * @param group
+     *            The cluster group the bucket is opened in.
+     * @return the executor.
+     */
+    N1qlQueryExecutor executor(ClusterFacade core, String bucket, int group) {
+        return new Executor(core, bucket, this.plans[group]);
+    }
+
+    /**
+     * Drops every plan, e.g. after an index was changed, so statements are
+     * prepared again.
+     *
+     * @return the number of plans dropped.
+     */
+    public int invalidate() {
+        int size = 0;
+        for (Plans plans : this.plans) {
+            synchronized (plans) {
+                size += plans.size();
+                plans.clear();
+            }
+        }
+        this.invalidations.increment();
+        return size;
+    }
+
+    /**
+     * @return the number of plans cached, over every cluster group.
+     */
+    public int size() {
+        int size = 0;
+        for (Plans plans : this.plans) {
+            size += plans.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the prepared queries run with a cached plan.
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @return the prepared queries that found no cached plan.
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return the statements prepared, including those prepared again because
+     *         the server dropped their plan.
+     */
+    public long getPrepares() {
+        return this.prepares.sum();
+    }
+
+    /**
+     * @return the times the cache was invalidated.
+     */
+    public long getInvalidations() {
+        return this.invalidations.sum();
+    }
+}
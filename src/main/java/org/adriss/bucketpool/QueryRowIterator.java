@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.couchbase.client.java.query.AsyncN1qlQueryRow;
+import com.couchbase.client.java.query.DefaultN1qlQueryRow;
+import com.couchbase.client.java.query.N1qlQueryRow;
+
+import rx.Observable;
+import rx.subjects.PublishSubject;
+
+/**
+ * The rows of a N1QL query streamed by {@link BucketPool#queryIterator}.
+ * <code>hasNext()</code> blocks until the next row arrives and
+ * <code>next()</code> rethrows the error the query failed with. Closing the
+ * iterator stops the query and returns its bucket to the pool.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+public class QueryRowIterator implements Iterator<N1qlQueryRow>, AutoCloseable {
+
+    private final PublishSubject<Boolean> closing = PublishSubject.create();
+    private final Iterator<AsyncN1qlQueryRow> rows;
+    private volatile boolean closed;
+
+    QueryRowIterator(Observable<AsyncN1qlQueryRow> rows) {
+        this.rows = rows.takeUntil(this.closing).toBlocking().getIterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !this.closed && this.rows.hasNext();
+    }
+
+    @Override
+    public N1qlQueryRow next() {
+        if (this.closed) {
+            throw new NoSuchElementException("Iterator closed");
+        }
+        return new DefaultN1qlQueryRow(this.rows.next());
+    }
+
+    /**
+     * Stops the query, if still running, and returns its bucket to the pool.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.closing.onNext(true);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import com.couchbase.client.java.Bucket;
+
+/**
+ * The order in which a {@link BucketPool} hands its idle {@link Bucket}s
+ * out.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+public enum SelectionPolicy {
+
+    /**
+     * The most recently returned bucket first, the default.
+     */
+    LIFO,
+
+    /**
+     * The least recently returned bucket first.
+     */
+    FIFO,
+
+    /**
+     * Of two idle buckets, the one whose recent operations were the fastest,
+     * as measured by the bucket itself. Buckets are otherwise taken in LIFO
+     * order.
+     */
+    LEAST_LATENCY
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.couchbase.client.java.Bucket;
+
+/**
+ * Holds the {@link Bucket}s of a pool running in shared mode. Every caller is
+ * routed to the bucket with the fewest in-flight borrowers; buckets are
+ * thread-safe so nobody waits for exclusive use of one.
+ * <p>
+ * Slots are filled on demand, only when every open bucket is busy, so the
+ * shared buckets grow up to <code>maxTotal</code> just like an exclusive
+ * pool would. Buckets are opened in the background while callers keep using
+ * the open ones; a caller only opens one itself when none is usable.
+ * </p>
+ * <p>
+ * A bucket that fails validation, e.g. because it was closed, or that a
+ * caller invalidates is no longer handed out and is replaced in the
+ * background. Callers still holding it release it as usual.
+ * </p>
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+class SharedBuckets {
+
+    private final static Logger logger = LoggerFactory.getLogger(SharedBuckets.class);
+
+    /**
+     * Spaces the counters a cache line apart so busy buckets don't contend
+     * on the same line.
+     */
+    private static final int STRIDE = 16;
+    private static final int BROKEN = 1;
+    private static final int DESTROYED = 2;
+
+    private final Callable<Bucket> opener;
+    private final Predicate<Bucket> validator;
+    private final Consumer<Bucket> destroyer;
+    private final AtomicReferenceArray<Bucket> buckets;
+    private final AtomicIntegerArray inFlight;
+    private final AtomicIntegerArray broken;
+    // replaced buckets still held by callers, by slot
+    private final ConcurrentMap<Bucket, Integer> retired = new ConcurrentHashMap<>();
+    private final ReentrantLock fillLock = new ReentrantLock();
+    private final AtomicBoolean growing = new AtomicBoolean();
+    private final ExecutorService filler;
+    private volatile int size;
+    private volatile boolean closed;
+
+    /**
+     * @param capacity
+     *            The max number of shared buckets, at least one.
+     * @param opener
+     *            Provides a new bucket, exclusively owned by this instance.
+     * @param validator
+     *            Determines if a bucket can still be handed out.
+     * @param destroyer
+     *            Destroys a bucket provided by the opener.
+     */
+    SharedBuckets(int capacity, Callable<Bucket> opener, Predicate<Bucket> validator, Consumer<Bucket> destroyer) {
+        this.opener = opener;
+        this.validator = validator;
+        this.destroyer = destroyer;
+        this.buckets = new AtomicReferenceArray<>(capacity);
+        this.inFlight = new AtomicIntegerArray(capacity * STRIDE);
+        this.broken = new AtomicIntegerArray(capacity);
+        this.filler = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bucketpool-shared");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Provides the least loaded bucket, opening another one in the
+     * background if all of them are busy and there's room left.
+     *
+     * @return a shared bucket.
+     * @throws Exception
+     *             if no bucket is usable and none can be opened.
+     */
+    Bucket acquire() throws Exception {
+        while (true) {
+            if (this.closed) {
+                throw new IllegalStateException("Pool not open");
+            }
+            int index = leastLoaded();
+            if (index < 0) {
+                // nothing to share yet, wait for a bucket like an exclusive borrower would
+                fill(true);
+                continue;
+            }
+            if (this.inFlight.get(index * STRIDE) > 0 && this.size < this.buckets.length()
+                    && this.growing.compareAndSet(false, true)) {
+                fillInBackground(true);
+            }
+            this.inFlight.incrementAndGet(index * STRIDE);
+            Bucket bucket = this.buckets.get(index);
+            if (this.validator.test(bucket)) {
+                return bucket;
+            }
+            this.inFlight.decrementAndGet(index * STRIDE);
+            if (this.broken.compareAndSet(index, 0, BROKEN)) {
+                logger.warn("Replacing shared bucket [{}]", bucket);
+                fillInBackground(false);
+            }
+        }
+    }
+
+    /**
+     * Hands a bucket provided by {@link #acquire()} back.
+     *
+     * @param bucket
+     *            the bucket.
+     */
+    void release(Bucket bucket) {
+        int index = slotOf(bucket);
+        if (this.inFlight.decrementAndGet(index * STRIDE) == 0 && !this.retired.isEmpty()) {
+            // nobody holds the slot's buckets, old or new
+            int released = index;
+            this.retired.values().removeIf(slot -> slot == released);
+        }
+    }
+
+    /**
+     * Hands back a bucket provided by {@link #acquire()} that its caller
+     * found unusable. It is no longer handed out and is replaced in the
+     * background; the other callers holding it release it as usual.
+     *
+     * @param bucket
+     *            the bucket.
+     */
+    void invalidate(Bucket bucket) {
+        int index = indexOf(bucket);
+        // a retired bucket was already replaced
+        if (index >= 0 && this.broken.compareAndSet(index, 0, BROKEN)) {
+            logger.warn("Replacing invalidated shared bucket [{}]", bucket);
+            fillInBackground(false);
+        }
+        release(bucket);
+    }
+
+    private int slotOf(Bucket bucket) {
+        int index = indexOf(bucket);
+        if (index < 0) {
+            Integer slot = this.retired.get(bucket);
+            if (slot == null) {
+                throw new IllegalStateException("Returned object not currently part of this pool");
+            }
+            index = slot;
+        }
+        return index;
+    }
+
+    /**
+     * Provides the number of callers currently using a bucket.
+     *
+     * @param bucket
+     *            the bucket.
+     * @return the in-flight count, or -1 if the bucket isn't shared.
+     */
+    int getInFlight(Bucket bucket) {
+        int index = indexOf(bucket);
+        return index < 0 ? -1 : this.inFlight.get(index * STRIDE);
+    }
+
+    /**
+     * Provides the number of open shared buckets.
+     *
+     * @return the size.
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Stops handing buckets out, e.g. when the pool is closed. Callers
+     * already using them keep them until they release them.
+     */
+    void close() {
+        this.closed = true;
+        this.filler.shutdownNow();
+    }
+
+    /**
+     * Waits for the buckets being opened in the background, so callers of
+     * {@link #acquire()} don't have to poll.
+     */
+    void awaitFill() throws InterruptedException, ExecutionException {
+        this.filler.submit(() -> {
+        }).get();
+    }
+
+    /**
+     * Provides the number of callers using any of the buckets.
+     *
+     * @return the in-flight count.
+     */
+    int getInFlight() {
+        int inFlight = 0;
+        int size = this.size;
+        for (int i = 0; i < size; i++) {
+            inFlight += this.inFlight.get(i * STRIDE);
+        }
+        return inFlight;
+    }
+
+    /**
+     * Provides the buckets that weren't destroyed yet.
+     *
+     * @return the buckets.
+     */
+    List<Bucket> getBuckets() {
+        int size = this.size;
+        List<Bucket> buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            if (this.broken.get(i) != DESTROYED) {
+                buckets.add(this.buckets.get(i));
+            }
+        }
+        return buckets;
+    }
+
+    private int indexOf(Bucket bucket) {
+        int size = this.size;
+        for (int i = 0; i < size; i++) {
+            if (this.buckets.get(i) == bucket) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int leastLoaded() {
+        int size = this.size;
+        if (size == 0) {
+            return -1;
+        }
+        // start at a random slot so equally loaded buckets share the traffic
+        int start = ThreadLocalRandom.current().nextInt(size);
+        int best = -1;
+        int bestLoad = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            int index = (start + i) % size;
+            if (this.broken.get(index) != 0) {
+                continue;
+            }
+            int load = this.inFlight.get(index * STRIDE);
+            if (load < bestLoad) {
+                best = index;
+                bestLoad = load;
+                if (load == 0) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    private void fillInBackground(boolean grow) {
+        try {
+            this.filler.execute(() -> {
+                try {
+                    fill(grow);
+                } catch (Exception e) {
+                    logger.warn("Unable to open a shared bucket: {}", e.getMessage());
+                } finally {
+                    if (grow) {
+                        this.growing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Replaces the broken buckets and, if asked to and every usable bucket
+     * is busy, opens the next one. Only one caller fills at a time.
+     *
+     * @param grow
+     *            Whether to open another bucket when all of them are busy.
+     * @throws Exception
+     *             if a bucket couldn't be opened.
+     */
+    private void fill(boolean grow) throws Exception {
+        this.fillLock.lock();
+        try {
+            int size = this.size;
+            for (int i = 0; i < size && !this.closed; i++) {
+                if (this.broken.get(i) != 0) {
+                    replace(i);
+                }
+            }
+            int index = leastLoaded();
+            if (!grow || this.closed || size == this.buckets.length()
+                    || index >= 0 && this.inFlight.get(index * STRIDE) == 0) {
+                return;
+            }
+            Bucket bucket = open();
+            this.buckets.set(size, bucket);
+            this.size = size + 1;
+            logger.debug("Shared bucket [{}] opened, {} shared", bucket, size + 1);
+        } finally {
+            this.fillLock.unlock();
+        }
+    }
+
+    private void replace(int index) throws Exception {
+        Bucket old = this.buckets.get(index);
+        if (this.broken.compareAndSet(index, BROKEN, DESTROYED)) {
+            // frees its room in the pool for the replacement
+            this.destroyer.accept(old);
+        }
+        Bucket bucket = open();
+        // callers holding the old bucket still release it through its slot
+        this.retired.put(old, index);
+        this.buckets.set(index, bucket);
+        this.broken.set(index, 0);
+        logger.debug("Shared bucket [{}] replaced by [{}]", old, bucket);
+    }
+
+    private Bucket open() throws Exception {
+        Bucket bucket = this.opener.call();
+        if (this.closed) {
+            this.destroyer.accept(bucket);
+            throw new IllegalStateException("Pool not open");
+        }
+        return bucket;
+    }
+}
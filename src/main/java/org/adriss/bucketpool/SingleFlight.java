@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical reads running concurrently on any {@link WrappedBucket}
+ * of a {@link BucketPool}: the first caller sends the request to the server
+ * and the others wait for its result, which they all share. A read started
+ * after a mutation of its document through the pool never joins a read
+ * started before it, so callers see their own writes.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+class SingleFlight {
+
+    private final ConcurrentHashMap<Key, CompletableFuture<Object>> flights = new ConcurrentHashMap<>();
+    private final LongAdder deduplicated = new LongAdder();
+
+    /**
+     * Identifies a read by its operation, its document id and what sets
+     * identical reads apart otherwise, e.g. the document type or the
+     * sub-document specs.
+     */
+    private static final class Key {
+
+        final Operation operation;
+        final String id;
+        final Object detail;
+
+        Key(Operation operation, String id, Object detail) {
+            this.operation = operation;
+            this.id = id;
+            this.detail = detail;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return this.operation == other.operation && this.id.equals(other.id)
+                    && Objects.equals(this.detail, other.detail);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * this.operation.hashCode() + this.id.hashCode()) + Objects.hashCode(this.detail);
+        }
+    }
+
+    /**
+     * Runs the read, or waits for the identical read already in flight.
+     *
+     * @param operation
+     *            the operation family of the read.
+     * @param id
+     *            the id of the document.
+     * @param detail
+     *            what else identifies the read.
+     * @param read
+     *            sends the read to the server.
+     * @return the result of the read.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T execute(Operation operation, String id, Object detail, Supplier<T> read) {
+        Key key = new Key(operation, id, detail);
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> leader = this.flights.putIfAbsent(key, flight);
+        if (leader != null) {
+            this.deduplicated.increment();
+            try {
+                return (T) leader.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        try {
+            T result = read.get();
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.flights.remove(key, flight);
+        }
+    }
+
+    /**
+     * Stops reads of a document that were in flight when it was mutated from
+     * being joined by later reads.
+     *
+     * @param id
+     *            the id of the mutated document.
+     */
+    void forget(String id) {
+        if (!this.flights.isEmpty()) {
+            this.flights.keySet().removeIf(key -> key.id.equals(id));
+        }
+    }
+
+    /**
+     * @return the reads that were served by an identical read in flight.
+     */
+    long getDeduplicated() {
+        return this.deduplicated.sum();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.couchbase.client.java.Bucket;
+
+/**
+ * Keeps the {@link Bucket} a thread returned last bound to that thread, so
+ * its next borrow skips the pool's bookkeeping entirely.
+ * <p>
+ * A returned bucket is parked: it stays borrowed from the pool but is
+ * remembered thread-locally and in a queue of parked buckets. The owner
+ * reclaims it with a single compare-and-set; any other thread that finds the
+ * pool exhausted steals it from the queue, so parked buckets never starve
+ * other threads. Buckets are handed back to the pool instead of parked when
+ * borrowers are waiting, when they fail validation, and when their owner
+ * has died, which a borrow finding no idle bucket checks before the pool
+ * opens a new one. Parked buckets are never removed as abandoned.
+ * </p>
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+class ThreadAffinity {
+
+    private final static Logger logger = LoggerFactory.getLogger(ThreadAffinity.class);
+
+    private static final int IN_USE = 0;
+    private static final int PARKED = 1;
+    private static final int GONE = 2;
+
+    /**
+     * How long a borrower waits on the pool before looking for parked
+     * buckets again.
+     */
+    private static final long WAIT_SLICE_MILLIS = 10;
+
+    private final BucketPool pool;
+    private final BucketFactory factory;
+    private final ThreadLocal<Entry> local = new ThreadLocal<>();
+    private final Queue<Entry> parked = new ConcurrentLinkedQueue<>();
+
+    ThreadAffinity(BucketPool pool, BucketFactory factory) {
+        this.pool = pool;
+        this.factory = factory;
+    }
+
+    Bucket borrow(long borrowMaxWaitMillis) throws Exception {
+        Entry entry = this.local.get();
+        if (entry != null && entry.state.compareAndSet(PARKED, IN_USE)) {
+            unpark(entry.bucket);
+            if (this.factory.validate(entry.bucket)) {
+                return entry.bucket;
+            }
+            logger.debug("Parked bucket [{}] is no longer valid", entry.bucket);
+            entry.state.set(GONE);
+            this.pool.invalidateExclusive(entry.bucket);
+        }
+        if (this.pool.getNumIdle() == 0) {
+            // take back the buckets of threads that have died rather than open one
+            reclaim(false);
+        }
+        if (this.pool.hasRoom()) {
+            try {
+                return adopt(this.pool.borrowExclusive(0));
+            } catch (NoSuchElementException e) {
+                // lost the race for the last idle bucket
+            }
+        }
+        long deadline = borrowMaxWaitMillis < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + borrowMaxWaitMillis;
+        while (true) {
+            Bucket stolen = steal();
+            if (stolen != null) {
+                return adopt(stolen);
+            }
+            if (!this.pool.getBlockWhenExhausted()) {
+                return adopt(this.pool.borrowExclusive(borrowMaxWaitMillis));
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new NoSuchElementException("Timeout waiting for idle object");
+            }
+            try {
+                return adopt(this.pool.borrowExclusive(Math.min(remaining, WAIT_SLICE_MILLIS)));
+            } catch (NoSuchElementException e) {
+                // nothing returned to the pool yet, look for parked buckets again
+            }
+        }
+    }
+
+    void release(Bucket bucket) {
+        Entry entry = this.local.get();
+        if (entry == null || entry.bucket != bucket || entry.state.get() != IN_USE) {
+            // borrowed by another thread or already taken away from this one
+            this.pool.returnExclusive(bucket);
+            return;
+        }
+        if (this.pool.getNumWaiters() > 0 || this.pool.isClosed()) {
+            entry.state.set(GONE);
+            this.local.remove();
+            this.pool.returnExclusive(bucket);
+            return;
+        }
+        ((WrappedBucket) bucket).setParked(true);
+        entry.state.set(PARKED);
+        if (entry.queued.compareAndSet(false, true)) {
+            this.parked.offer(entry);
+        }
+    }
+
+    /**
+     * Stops tracking a bucket about to be invalidated by its borrower.
+     */
+    void forget(Bucket bucket) {
+        Entry entry = this.local.get();
+        if (entry != null && entry.bucket == bucket) {
+            entry.state.set(GONE);
+            this.local.remove();
+        }
+    }
+
+    /**
+     * Hands parked buckets back to the pool.
+     *
+     * @param all
+     *            if false only the buckets of threads that have died are
+     *            handed back.
+     */
+    void reclaim(boolean all) {
+        for (Iterator<Entry> iterator = this.parked.iterator(); iterator.hasNext();) {
+            Entry entry = iterator.next();
+            if (entry.state.get() == GONE) {
+                iterator.remove();
+            } else if ((all || !entry.isOwnerAlive()) && entry.state.compareAndSet(PARKED, GONE)) {
+                iterator.remove();
+                logger.debug("Reclaimed parked bucket [{}]", entry.bucket);
+                unpark(entry.bucket);
+                this.pool.returnExclusive(entry.bucket);
+            }
+        }
+    }
+
+    private Bucket steal() throws Exception {
+        Entry entry;
+        while ((entry = this.parked.poll()) != null) {
+            entry.queued.set(false);
+            if (entry.state.compareAndSet(PARKED, GONE)) {
+                unpark(entry.bucket);
+                if (this.factory.validate(entry.bucket)) {
+                    return entry.bucket;
+                }
+                this.pool.invalidateExclusive(entry.bucket);
+            }
+        }
+        return null;
+    }
+
+    private static void unpark(Bucket bucket) {
+        ((WrappedBucket) bucket).setParked(false);
+    }
+
+    private Bucket adopt(Bucket bucket) {
+        this.local.set(new Entry(bucket));
+        return bucket;
+    }
+
+    private static final class Entry {
+
+        private final Bucket bucket;
+        private final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+        private final AtomicInteger state = new AtomicInteger(IN_USE);
+        private final AtomicBoolean queued = new AtomicBoolean();
+
+        private Entry(Bucket bucket) {
+            this.bucket = bucket;
+        }
+
+        private boolean isOwnerAlive() {
+            Thread thread = this.owner.get();
+            return thread != null && thread.isAlive();
+        }
+    }
+}
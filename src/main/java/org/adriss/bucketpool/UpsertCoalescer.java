@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+import com.couchbase.client.java.document.Document;
+
+/**
+ * Collapses the upserts of the same document, on any {@link WrappedBucket} of
+ * a {@link BucketPool}, into one write of the newest document: last write
+ * wins. Upserts of a document are written one at a time; those arriving while
+ * a write is in flight, or during the optional window before it, join the
+ * next batch, and every caller of the batch gets the result of its write.
+ * The first caller of a batch waits for the previous write no longer than
+ * its own timeout, so a slow write only fails the batches that time out
+ * behind it.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+class UpsertCoalescer {
+
+    private final ConcurrentHashMap<Key, Batch> batches = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Key, CompletableFuture<Void>> writing = new ConcurrentHashMap<>();
+    private final long windowNanos;
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Identifies a document by its id and type, so callers always get a
+     * result of the type they upserted.
+     */
+    private static final class Key {
+
+        final String id;
+        final Class<?> type;
+
+        Key(String id, Class<?> type) {
+            this.id = id;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return this.id.equals(other.id) && this.type == other.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.id.hashCode() + this.type.hashCode();
+        }
+    }
+
+    /**
+     * The upserts waiting to be written together.
+     */
+    private static final class Batch {
+
+        final List<CompletableFuture<Object>> callers = new ArrayList<>();
+        final CompletableFuture<Void> written = new CompletableFuture<>();
+        CompletableFuture<Void> previous;
+        Document<?> latest;
+    }
+
+    /**
+     * @param windowMicros
+     *            How long the first upsert of a batch waits for others to
+     *            join it before being written. 0 only coalesces the upserts
+     *            arriving while a write of the document is in flight.
+     */
+    UpsertCoalescer(long windowMicros) {
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(windowMicros, 0));
+    }
+
+    /**
+     * Upserts the document as part of a batch: the first caller writes the
+     * newest document of the batch once the previous write has completed,
+     * the others wait for its result.
+     *
+     * @param document
+     *            the document to upsert.
+     * @param timeoutNanos
+     *            how long a caller waits for the batch to be written, and the
+     *            first caller for the previous write, or -1 to wait
+     *            indefinitely.
+     * @param write
+     *            writes a document to the server.
+     * @return the result of the write of the newest document.
+     */
+    @SuppressWarnings("unchecked")
+    <D extends Document<?>> D upsert(D document, long timeoutNanos, Function<D, D> write) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        Key key = new Key(document.id(), document.getClass());
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        Batch[] led = new Batch[1];
+        this.batches.compute(key, (k, batch) -> {
+            if (batch == null) {
+                batch = new Batch();
+                batch.previous = this.writing.get(k);
+                led[0] = batch;
+            }
+            batch.latest = document;
+            batch.callers.add(result);
+            return batch;
+        });
+        Batch batch = led[0];
+        if (batch == null) {
+            this.coalesced.increment();
+            return (D) await(result, timeoutNanos);
+        }
+        if (this.windowNanos > 0) {
+            LockSupport.parkNanos(this.windowNanos);
+        }
+        if (batch.previous != null) {
+            try {
+                awaitPrevious(batch.previous, timeoutNanos < 0 ? -1 : deadline - System.nanoTime());
+            } catch (RuntimeException e) {
+                // never sealed: later upserts start a new batch behind the previous write
+                this.batches.remove(key, batch);
+                batch.callers.forEach(caller -> caller.completeExceptionally(e));
+                throw e;
+            }
+        }
+        // seals the batch: later upserts start the next one, written after this one
+        this.batches.compute(key, (k, current) -> {
+            this.writing.put(k, batch.written);
+            return current == batch ? null : current;
+        });
+        D written;
+        try {
+            written = write.apply((D) batch.latest);
+        } catch (RuntimeException | Error e) {
+            written(key, batch);
+            batch.callers.forEach(caller -> caller.completeExceptionally(e));
+            throw e;
+        }
+        // lets the next batch be written while this one's callers are woken up
+        written(key, batch);
+        batch.callers.forEach(caller -> caller.complete(written));
+        return written;
+    }
+
+    private void written(Key key, Batch batch) {
+        this.writing.remove(key, batch.written);
+        batch.written.complete(null);
+    }
+
+    private static void awaitPrevious(CompletableFuture<Void> previous, long timeoutNanos) {
+        CompletableFuture<Object> done = previous.handle((written, e) -> null);
+        if (timeoutNanos < 0) {
+            done.join();
+            return;
+        }
+        await(done, Math.max(timeoutNanos, 0));
+    }
+
+    private static Object await(CompletableFuture<Object> result, long timeoutNanos) {
+        try {
+            return timeoutNanos < 0 ? result.get() : result.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the upserts written as part of another caller's write.
+     */
+    long getCoalesced() {
+        return this.coalesced.sum();
+    }
+}
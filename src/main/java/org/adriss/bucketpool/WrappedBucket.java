@@ -18,7 +18,11 @@ package org.adriss.bucketpool;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.TrackedUse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,9 +38,11 @@ import com.couchbase.client.java.document.Document;
 import com.couchbase.client.java.document.JsonDocument;
 import com.couchbase.client.java.document.JsonLongDocument;
 import com.couchbase.client.java.env.CouchbaseEnvironment;
+import com.couchbase.client.java.query.AsyncN1qlQueryResult;
 import com.couchbase.client.java.query.N1qlQuery;
 import com.couchbase.client.java.query.N1qlQueryResult;
 import com.couchbase.client.java.query.Statement;
+import com.couchbase.client.java.query.core.N1qlQueryExecutor;
 import com.couchbase.client.java.repository.Repository;
 import com.couchbase.client.java.search.SearchQuery;
 import com.couchbase.client.java.search.result.SearchQueryResult;
@@ -47,31 +53,194 @@ import com.couchbase.client.java.view.SpatialViewResult;
 import com.couchbase.client.java.view.ViewQuery;
 import com.couchbase.client.java.view.ViewResult;
 
+import rx.Observable;
+
 /**
  * Wraps a Couchbase Server {@link Bucket} to provide additional functionality..
  *
  * @author JC Carrillo
  * @since 0.1
  */
-public class WrappedBucket implements Bucket {
+public class WrappedBucket implements Bucket, TrackedUse {
 
     private final static Logger logger = LoggerFactory.getLogger(Bucket.class);
+    /**
+     * The inverse of the weight of the newest operation in the average
+     * latency.
+     */
+    private static final int LATENCY_WEIGHT = 8;
+    private static final long LATENCY_STALE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // buckets opened in the same millisecond still get distinct names
+    private static final AtomicLong IDS = new AtomicLong(System.currentTimeMillis());
 
     private final WrappedCluster cluster;
     private final String name;
+    private final OperationMetrics metrics;
+    private final NearCache nearCache;
+    private final SingleFlight singleFlight;
+    private final UpsertCoalescer upsertCoalescer;
+    private final QueryPlanCache queryPlanCache;
+    private volatile N1qlQueryExecutor queryExecutor;
+    private volatile InvalidatingAsyncBucket invalidatingAsync;
     private Bucket bucket;
-
-    private final long id = System.currentTimeMillis();
+    private volatile boolean unhealthy;
+    private final boolean latencyAware;
+    private volatile long latency;
+    private volatile long latencySampled;
+    private volatile PooledObject<Bucket> pooled;
+    private volatile long borrowedAt;
+    private volatile LeakDetector.Site borrowSite;
+    private volatile boolean leakReported;
+    private volatile boolean parked;
+    private volatile long lastUsed;
+
+    private final long id = IDS.getAndIncrement();
 
     public WrappedBucket(WrappedCluster cluster, String name) {
+        this(cluster, name, null, null);
+    }
+
+    /**
+     * @param cluster
+     *            The cluster the bucket is opened from.
+     * @param name
+     *            The name of the bucket.
+     * @param metrics
+     *            Where the latency and errors of every operation are recorded.
+     *            If none is used, operations are not measured.
+     */
+    public WrappedBucket(WrappedCluster cluster, String name, OperationMetrics metrics) {
+        this(cluster, name, metrics, null);
+    }
+
+    /**
+     * @param cluster
+     *            The cluster the bucket is opened from.
+     * @param name
+     *            The name of the bucket.
+     * @param metrics
+     *            Where the latency and errors of every operation are recorded.
+     *            If none is used, operations are not measured.
+     * @param nearCache
+     *            The cache serving <code>get</code>s, invalidated by every
+     *            mutation. If none is used, every operation goes to the
+     *            server.
+     */
+    public WrappedBucket(WrappedCluster cluster, String name, OperationMetrics metrics, NearCache nearCache) {
+        this(cluster, name, metrics, nearCache, null, null, false, null);
+    }
+
+    WrappedBucket(WrappedCluster cluster, String name, OperationMetrics metrics, NearCache nearCache,
+            SingleFlight singleFlight, UpsertCoalescer upsertCoalescer, boolean latencyAware,
+            QueryPlanCache queryPlanCache) {
         super();
         this.cluster = cluster;
         this.name = name;
-    }
-
+        this.metrics = metrics;
+        this.nearCache = nearCache;
+        this.singleFlight = singleFlight;
+        this.upsertCoalescer = upsertCoalescer;
+        this.latencyAware = latencyAware;
+        this.queryPlanCache = queryPlanCache;
+    }
+
+    private long started() {
+        return this.metrics == null && !this.latencyAware ? 0 : System.nanoTime();
+    }
+
+    private RuntimeException failed(Operation operation, RuntimeException e) {
+        if (this.metrics != null) {
+            this.metrics.error(operation);
+        }
+        return e;
+    }
+
+    private void completed(Operation operation, long start) {
+        if (this.metrics == null && !this.latencyAware) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (this.metrics != null) {
+            this.metrics.record(operation, now - start);
+        }
+        if (this.latencyAware) {
+            // racy when shared, losing a sample now and then is fine for an average
+            long latency = this.latency;
+            this.latency = latency == 0 ? now - start : latency + (now - start - latency) / LATENCY_WEIGHT;
+            this.latencySampled = now;
+        }
+    }
+
+    private boolean isMeasured() {
+        return this.metrics != null || this.latencyAware;
+    }
+
+    /**
+     * Measures an operation run on behalf of this bucket, e.g. by a
+     * sub-document builder.
+     */
+    <T> T measure(Operation operation, Supplier<T> call) {
+        long start = started();
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            throw failed(operation, e);
+        } finally {
+            completed(operation, start);
+        }
+    }
+
+    /**
+     * Measures a mutation run on behalf of this bucket and invalidates its
+     * document.
+     */
+    <T> T mutate(Operation operation, String id, Supplier<T> call) {
+        long start = started();
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            throw failed(operation, e);
+        } finally {
+            invalidate(id);
+            completed(operation, start);
+        }
+    }
+
+    private boolean isInvalidating() {
+        return this.nearCache != null || this.singleFlight != null;
+    }
+
+    private void invalidate(String id) {
+        if (this.nearCache != null) {
+            this.nearCache.invalidate(id);
+        }
+        if (this.singleFlight != null) {
+            this.singleFlight.forget(id);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <D extends Document<?>> Class<D> type(D document) {
+        return (Class<D>) document.getClass();
+    }
+
+    /**
+     * When a near cache or single flight is used, mutations made through the
+     * returned <code>AsyncBucket</code> invalidate the document as the
+     * blocking ones do.
+     */
     @Override
     public AsyncBucket async() {
-        return this.bucket.async();
+        if (!isInvalidating()) {
+            return this.bucket.async();
+        }
+        Bucket bucket = this.bucket;
+        InvalidatingAsyncBucket async = this.invalidatingAsync;
+        if (async == null || !async.wraps(bucket)) {
+            async = new InvalidatingAsyncBucket(bucket, this::invalidate);
+            this.invalidatingAsync = async;
+        }
+        return async.async();
     }
 
     @Override
@@ -91,1020 +260,2671 @@ public class WrappedBucket implements Bucket {
 
     @Override
     public JsonDocument get(String id) {
-        return this.bucket.get(id);
+        if (this.nearCache != null) {
+            return this.nearCache.get(id, JsonDocument.class, () -> fetch(id));
+        }
+        return fetch(id);
+    }
+
+    private JsonDocument fetch(String id) {
+        long start = started();
+        try {
+            if (this.singleFlight != null) {
+                return this.singleFlight.execute(Operation.GET, id, JsonDocument.class, () -> this.bucket.get(id));
+            }
+            return this.bucket.get(id);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET, e);
+        } finally {
+            completed(Operation.GET, start);
+        }
     }
 
     @Override
     public JsonDocument get(String id, long timeout, TimeUnit timeUnit) {
-        return this.bucket.get(id, timeout, timeUnit);
+        if (this.nearCache != null) {
+            return this.nearCache.get(id, JsonDocument.class, () -> fetch(id, timeout, timeUnit));
+        }
+        return fetch(id, timeout, timeUnit);
+    }
+
+    private JsonDocument fetch(String id, long timeout, TimeUnit timeUnit) {
+        long start = started();
+        try {
+            if (this.singleFlight != null) {
+                return this.singleFlight.execute(Operation.GET, id, JsonDocument.class,
+                        () -> this.bucket.get(id, timeout, timeUnit));
+            }
+            return this.bucket.get(id, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET, e);
+        } finally {
+            completed(Operation.GET, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D get(D document) {
-        return this.bucket.get(document);
+        if (this.nearCache != null) {
+            return this.nearCache.get(document.id(), type(document), () -> fetch(document));
+        }
+        return fetch(document);
+    }
+
+    private <D extends Document<?>> D fetch(D document) {
+        long start = started();
+        try {
+            if (this.singleFlight != null) {
+                return this.singleFlight.execute(Operation.GET, document.id(), document.getClass(),
+                        () -> this.bucket.get(document));
+            }
+            return this.bucket.get(document);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET, e);
+        } finally {
+            completed(Operation.GET, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D get(D document, long timeout, TimeUnit timeUnit) {
-        return this.bucket.get(document, timeout, timeUnit);
+        if (this.nearCache != null) {
+            return this.nearCache.get(document.id(), type(document), () -> fetch(document, timeout, timeUnit));
+        }
+        return fetch(document, timeout, timeUnit);
+    }
+
+    private <D extends Document<?>> D fetch(D document, long timeout, TimeUnit timeUnit) {
+        long start = started();
+        try {
+            if (this.singleFlight != null) {
+                return this.singleFlight.execute(Operation.GET, document.id(), document.getClass(),
+                        () -> this.bucket.get(document, timeout, timeUnit));
+            }
+            return this.bucket.get(document, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET, e);
+        } finally {
+            completed(Operation.GET, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D get(String id, Class<D> target) {
-        return this.bucket.get(id, target);
+        if (this.nearCache != null) {
+            return this.nearCache.get(id, target, () -> fetch(id, target));
+        }
+        return fetch(id, target);
+    }
+
+    private <D extends Document<?>> D fetch(String id, Class<D> target) {
+        long start = started();
+        try {
+            if (this.singleFlight != null) {
+                return this.singleFlight.execute(Operation.GET, id, target, () -> this.bucket.get(id, target));
+            }
+            return this.bucket.get(id, target);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET, e);
+        } finally {
+            completed(Operation.GET, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D get(String id, Class<D> target, long timeout, TimeUnit timeUnit) {
-        return this.bucket.get(id, target, timeout, timeUnit);
+        if (this.nearCache != null) {
+            return this.nearCache.get(id, target, () -> fetch(id, target, timeout, timeUnit));
+        }
+        return fetch(id, target, timeout, timeUnit);
+    }
+
+    private <D extends Document<?>> D fetch(String id, Class<D> target, long timeout, TimeUnit timeUnit) {
+        long start = started();
+        try {
+            if (this.singleFlight != null) {
+                return this.singleFlight.execute(Operation.GET, id, target,
+                        () -> this.bucket.get(id, target, timeout, timeUnit));
+            }
+            return this.bucket.get(id, target, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET, e);
+        } finally {
+            completed(Operation.GET, start);
+        }
     }
 
     @Override
     public boolean exists(String id) {
-        return this.bucket.exists(id);
+        long start = started();
+        try {
+            if (this.singleFlight != null) {
+                return this.singleFlight.execute(Operation.EXISTS, id, null, () -> this.bucket.exists(id));
+            }
+            return this.bucket.exists(id);
+        } catch (RuntimeException e) {
+            throw failed(Operation.EXISTS, e);
+        } finally {
+            completed(Operation.EXISTS, start);
+        }
     }
 
     @Override
     public boolean exists(String id, long timeout, TimeUnit timeUnit) {
-        return this.bucket.exists(id, timeout, timeUnit);
+        long start = started();
+        try {
+            if (this.singleFlight != null) {
+                return this.singleFlight.execute(Operation.EXISTS, id, null,
+                        () -> this.bucket.exists(id, timeout, timeUnit));
+            }
+            return this.bucket.exists(id, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.EXISTS, e);
+        } finally {
+            completed(Operation.EXISTS, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> boolean exists(D document) {
-        return this.bucket.exists(document);
+        long start = started();
+        try {
+            if (this.singleFlight != null) {
+                return this.singleFlight.execute(Operation.EXISTS, document.id(), null,
+                        () -> this.bucket.exists(document));
+            }
+            return this.bucket.exists(document);
+        } catch (RuntimeException e) {
+            throw failed(Operation.EXISTS, e);
+        } finally {
+            completed(Operation.EXISTS, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> boolean exists(D document, long timeout, TimeUnit timeUnit) {
-        return this.bucket.exists(document, timeout, timeUnit);
+        long start = started();
+        try {
+            if (this.singleFlight != null) {
+                return this.singleFlight.execute(Operation.EXISTS, document.id(), null,
+                        () -> this.bucket.exists(document, timeout, timeUnit));
+            }
+            return this.bucket.exists(document, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.EXISTS, e);
+        } finally {
+            completed(Operation.EXISTS, start);
+        }
     }
 
     @Override
     public List<JsonDocument> getFromReplica(String id, ReplicaMode type) {
-        return this.bucket.getFromReplica(id, type);
+        long start = started();
+        try {
+            return this.bucket.getFromReplica(id, type);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_FROM_REPLICA, e);
+        } finally {
+            completed(Operation.GET_FROM_REPLICA, start);
+        }
     }
 
     @Override
     public Iterator<JsonDocument> getFromReplica(String id) {
-        return this.bucket.getFromReplica(id);
+        long start = started();
+        try {
+            return this.bucket.getFromReplica(id);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_FROM_REPLICA, e);
+        } finally {
+            completed(Operation.GET_FROM_REPLICA, start);
+        }
     }
 
     @Override
     public List<JsonDocument> getFromReplica(String id, ReplicaMode type, long timeout, TimeUnit timeUnit) {
-        return this.bucket.getFromReplica(id, type, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.getFromReplica(id, type, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_FROM_REPLICA, e);
+        } finally {
+            completed(Operation.GET_FROM_REPLICA, start);
+        }
     }
 
     @Override
     public Iterator<JsonDocument> getFromReplica(String id, long timeout, TimeUnit timeUnit) {
-        return this.bucket.getFromReplica(id, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.getFromReplica(id, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_FROM_REPLICA, e);
+        } finally {
+            completed(Operation.GET_FROM_REPLICA, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> List<D> getFromReplica(D document, ReplicaMode type) {
-        return this.bucket.getFromReplica(document, type);
+        long start = started();
+        try {
+            return this.bucket.getFromReplica(document, type);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_FROM_REPLICA, e);
+        } finally {
+            completed(Operation.GET_FROM_REPLICA, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> Iterator<D> getFromReplica(D document) {
-        return this.bucket.getFromReplica(document);
+        long start = started();
+        try {
+            return this.bucket.getFromReplica(document);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_FROM_REPLICA, e);
+        } finally {
+            completed(Operation.GET_FROM_REPLICA, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> List<D> getFromReplica(D document, ReplicaMode type, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.getFromReplica(document, type, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.getFromReplica(document, type, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_FROM_REPLICA, e);
+        } finally {
+            completed(Operation.GET_FROM_REPLICA, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> Iterator<D> getFromReplica(D document, long timeout, TimeUnit timeUnit) {
-        return this.bucket.getFromReplica(document, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.getFromReplica(document, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_FROM_REPLICA, e);
+        } finally {
+            completed(Operation.GET_FROM_REPLICA, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> List<D> getFromReplica(String id, ReplicaMode type, Class<D> target) {
-        return this.bucket.getFromReplica(id, type, target);
+        long start = started();
+        try {
+            return this.bucket.getFromReplica(id, type, target);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_FROM_REPLICA, e);
+        } finally {
+            completed(Operation.GET_FROM_REPLICA, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> Iterator<D> getFromReplica(String id, Class<D> target) {
-        return this.bucket.getFromReplica(id, target);
+        long start = started();
+        try {
+            return this.bucket.getFromReplica(id, target);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_FROM_REPLICA, e);
+        } finally {
+            completed(Operation.GET_FROM_REPLICA, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> List<D> getFromReplica(String id, ReplicaMode type, Class<D> target, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.getFromReplica(id, type, target, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.getFromReplica(id, type, target, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_FROM_REPLICA, e);
+        } finally {
+            completed(Operation.GET_FROM_REPLICA, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> Iterator<D> getFromReplica(String id, Class<D> target, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.getFromReplica(id, target, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.getFromReplica(id, target, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_FROM_REPLICA, e);
+        } finally {
+            completed(Operation.GET_FROM_REPLICA, start);
+        }
     }
 
     @Override
     public JsonDocument getAndLock(String id, int lockTime) {
-        return this.bucket.getAndLock(id, lockTime);
+        long start = started();
+        try {
+            return this.bucket.getAndLock(id, lockTime);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_AND_LOCK, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.GET_AND_LOCK, start);
+        }
     }
 
     @Override
     public JsonDocument getAndLock(String id, int lockTime, long timeout, TimeUnit timeUnit) {
-        return this.bucket.getAndLock(id, lockTime, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.getAndLock(id, lockTime, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_AND_LOCK, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.GET_AND_LOCK, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D getAndLock(D document, int lockTime) {
-        return this.bucket.getAndLock(document, lockTime);
+        long start = started();
+        try {
+            return this.bucket.getAndLock(document, lockTime);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_AND_LOCK, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.GET_AND_LOCK, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D getAndLock(D document, int lockTime, long timeout, TimeUnit timeUnit) {
-        return this.bucket.getAndLock(document, lockTime, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.getAndLock(document, lockTime, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_AND_LOCK, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.GET_AND_LOCK, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D getAndLock(String id, int lockTime, Class<D> target) {
-        return this.bucket.getAndLock(id, lockTime, target);
+        long start = started();
+        try {
+            return this.bucket.getAndLock(id, lockTime, target);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_AND_LOCK, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.GET_AND_LOCK, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D getAndLock(String id, int lockTime, Class<D> target, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.getAndLock(id, lockTime, target, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.getAndLock(id, lockTime, target, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_AND_LOCK, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.GET_AND_LOCK, start);
+        }
     }
 
     @Override
     public JsonDocument getAndTouch(String id, int expiry) {
-        return this.bucket.getAndTouch(id, expiry);
+        long start = started();
+        try {
+            return this.bucket.getAndTouch(id, expiry);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_AND_TOUCH, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.GET_AND_TOUCH, start);
+        }
     }
 
     @Override
     public JsonDocument getAndTouch(String id, int expiry, long timeout, TimeUnit timeUnit) {
-        return this.bucket.getAndTouch(id, expiry, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.getAndTouch(id, expiry, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_AND_TOUCH, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.GET_AND_TOUCH, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D getAndTouch(D document) {
-        return this.bucket.getAndTouch(document);
+        long start = started();
+        try {
+            return this.bucket.getAndTouch(document);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_AND_TOUCH, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.GET_AND_TOUCH, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D getAndTouch(D document, long timeout, TimeUnit timeUnit) {
-        return this.bucket.getAndTouch(document, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.getAndTouch(document, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_AND_TOUCH, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.GET_AND_TOUCH, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D getAndTouch(String id, int expiry, Class<D> target) {
-        return this.bucket.getAndTouch(id, expiry, target);
+        long start = started();
+        try {
+            return this.bucket.getAndTouch(id, expiry, target);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_AND_TOUCH, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.GET_AND_TOUCH, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D getAndTouch(String id, int expiry, Class<D> target, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.getAndTouch(id, expiry, target, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.getAndTouch(id, expiry, target, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.GET_AND_TOUCH, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.GET_AND_TOUCH, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D insert(D document) {
-        return this.bucket.insert(document);
+        long start = started();
+        try {
+            return this.bucket.insert(document);
+        } catch (RuntimeException e) {
+            throw failed(Operation.INSERT, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.INSERT, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D insert(D document, long timeout, TimeUnit timeUnit) {
-        return this.bucket.insert(document, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.insert(document, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.INSERT, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.INSERT, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D insert(D document, PersistTo persistTo, ReplicateTo replicateTo) {
-        return this.bucket.insert(document, persistTo, replicateTo);
+        long start = started();
+        try {
+            return this.bucket.insert(document, persistTo, replicateTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.INSERT, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.INSERT, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D insert(D document, PersistTo persistTo, ReplicateTo replicateTo, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.insert(document, persistTo, replicateTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.insert(document, persistTo, replicateTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.INSERT, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.INSERT, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D insert(D document, PersistTo persistTo) {
-        return this.bucket.insert(document, persistTo);
+        long start = started();
+        try {
+            return this.bucket.insert(document, persistTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.INSERT, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.INSERT, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D insert(D document, PersistTo persistTo, long timeout, TimeUnit timeUnit) {
-        return this.bucket.insert(document, persistTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.insert(document, persistTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.INSERT, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.INSERT, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D insert(D document, ReplicateTo replicateTo) {
-        return this.bucket.insert(document, replicateTo);
+        long start = started();
+        try {
+            return this.bucket.insert(document, replicateTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.INSERT, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.INSERT, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D insert(D document, ReplicateTo replicateTo, long timeout, TimeUnit timeUnit) {
-        return this.bucket.insert(document, replicateTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.insert(document, replicateTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.INSERT, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.INSERT, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D upsert(D document) {
-        return this.bucket.upsert(document);
+        long start = started();
+        try {
+            if (this.upsertCoalescer != null) {
+                return this.upsertCoalescer.upsert(document, -1,
+                        latest -> this.bucket.upsert(latest));
+            }
+            return this.bucket.upsert(document);
+        } catch (RuntimeException e) {
+            throw failed(Operation.UPSERT, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.UPSERT, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D upsert(D document, long timeout, TimeUnit timeUnit) {
-        return this.bucket.upsert(document, timeout, timeUnit);
+        long start = started();
+        try {
+            if (this.upsertCoalescer != null) {
+                return this.upsertCoalescer.upsert(document, timeUnit.toNanos(timeout),
+                        latest -> this.bucket.upsert(latest, timeout, timeUnit));
+            }
+            return this.bucket.upsert(document, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.UPSERT, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.UPSERT, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D upsert(D document, PersistTo persistTo, ReplicateTo replicateTo) {
-        return this.bucket.upsert(document, persistTo, replicateTo);
+        long start = started();
+        try {
+            return this.bucket.upsert(document, persistTo, replicateTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.UPSERT, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.UPSERT, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D upsert(D document, PersistTo persistTo, ReplicateTo replicateTo, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.upsert(document, replicateTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.upsert(document, replicateTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.UPSERT, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.UPSERT, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D upsert(D document, PersistTo persistTo) {
-        return this.bucket.upsert(document, persistTo);
+        long start = started();
+        try {
+            return this.bucket.upsert(document, persistTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.UPSERT, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.UPSERT, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D upsert(D document, PersistTo persistTo, long timeout, TimeUnit timeUnit) {
-        return this.bucket.upsert(document, persistTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.upsert(document, persistTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.UPSERT, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.UPSERT, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D upsert(D document, ReplicateTo replicateTo) {
-        return this.bucket.upsert(document, replicateTo);
+        long start = started();
+        try {
+            return this.bucket.upsert(document, replicateTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.UPSERT, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.UPSERT, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D upsert(D document, ReplicateTo replicateTo, long timeout, TimeUnit timeUnit) {
-        return this.bucket.upsert(document, replicateTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.upsert(document, replicateTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.UPSERT, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.UPSERT, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D replace(D document) {
-        return this.bucket.replace(document);
+        long start = started();
+        try {
+            return this.bucket.replace(document);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REPLACE, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.REPLACE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D replace(D document, long timeout, TimeUnit timeUnit) {
-        return this.bucket.replace(document, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.replace(document, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REPLACE, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.REPLACE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D replace(D document, PersistTo persistTo, ReplicateTo replicateTo) {
-        return this.bucket.replace(document, persistTo, replicateTo);
+        long start = started();
+        try {
+            return this.bucket.replace(document, persistTo, replicateTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REPLACE, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.REPLACE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D replace(D document, PersistTo persistTo, ReplicateTo replicateTo, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.replace(document, persistTo, replicateTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.replace(document, persistTo, replicateTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REPLACE, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.REPLACE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D replace(D document, PersistTo persistTo) {
-        return this.bucket.replace(document, persistTo);
+        long start = started();
+        try {
+            return this.bucket.replace(document, persistTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REPLACE, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.REPLACE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D replace(D document, PersistTo persistTo, long timeout, TimeUnit timeUnit) {
-        return this.bucket.replace(document, persistTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.replace(document, persistTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REPLACE, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.REPLACE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D replace(D document, ReplicateTo replicateTo) {
-        return this.bucket.replace(document, replicateTo);
+        long start = started();
+        try {
+            return this.bucket.replace(document, replicateTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REPLACE, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.REPLACE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D replace(D document, ReplicateTo replicateTo, long timeout, TimeUnit timeUnit) {
-        return this.bucket.replace(document, replicateTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.replace(document, replicateTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REPLACE, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.REPLACE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D remove(D document) {
-        return this.bucket.remove(document);
+        long start = started();
+        try {
+            return this.bucket.remove(document);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D remove(D document, long timeout, TimeUnit timeUnit) {
-        return this.bucket.remove(document, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.remove(document, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D remove(D document, PersistTo persistTo, ReplicateTo replicateTo) {
-        return this.bucket.remove(document, persistTo, replicateTo);
+        long start = started();
+        try {
+            return this.bucket.remove(document, persistTo, replicateTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D remove(D document, PersistTo persistTo, ReplicateTo replicateTo, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.remove(document, persistTo, replicateTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.remove(document, persistTo, replicateTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D remove(D document, PersistTo persistTo) {
-        return this.bucket.remove(document, persistTo);
+        long start = started();
+        try {
+            return this.bucket.remove(document, persistTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D remove(D document, PersistTo persistTo, long timeout, TimeUnit timeUnit) {
-        return this.bucket.remove(document, persistTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.remove(document, persistTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D remove(D document, ReplicateTo replicateTo) {
-        return this.bucket.remove(document, replicateTo);
+        long start = started();
+        try {
+            return this.bucket.remove(document, replicateTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D remove(D document, ReplicateTo replicateTo, long timeout, TimeUnit timeUnit) {
-        return this.bucket.remove(document, replicateTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.remove(document, replicateTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public JsonDocument remove(String id) {
-        return this.bucket.remove(id);
+        long start = started();
+        try {
+            return this.bucket.remove(id);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public JsonDocument remove(String id, long timeout, TimeUnit timeUnit) {
-        return this.bucket.remove(id, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.remove(id, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public JsonDocument remove(String id, PersistTo persistTo, ReplicateTo replicateTo) {
-        return this.bucket.remove(id, persistTo, replicateTo);
+        long start = started();
+        try {
+            return this.bucket.remove(id, persistTo, replicateTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public JsonDocument remove(String id, PersistTo persistTo, ReplicateTo replicateTo, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.remove(id, replicateTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.remove(id, replicateTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public JsonDocument remove(String id, PersistTo persistTo) {
-        return this.bucket.remove(id, persistTo);
+        long start = started();
+        try {
+            return this.bucket.remove(id, persistTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public JsonDocument remove(String id, PersistTo persistTo, long timeout, TimeUnit timeUnit) {
-        return this.bucket.remove(id, persistTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.remove(id, persistTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public JsonDocument remove(String id, ReplicateTo replicateTo) {
-        return this.bucket.remove(id, replicateTo);
+        long start = started();
+        try {
+            return this.bucket.remove(id, replicateTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public JsonDocument remove(String id, ReplicateTo replicateTo, long timeout, TimeUnit timeUnit) {
-        return this.bucket.remove(id, replicateTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.remove(id, replicateTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D remove(String id, Class<D> target) {
-        return this.bucket.remove(id, target);
+        long start = started();
+        try {
+            return this.bucket.remove(id, target);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D remove(String id, Class<D> target, long timeout, TimeUnit timeUnit) {
-        return this.bucket.remove(id, target, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.remove(id, target, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D remove(String id, PersistTo persistTo, ReplicateTo replicateTo, Class<D> target) {
-        return this.bucket.remove(id, persistTo, replicateTo, target);
+        long start = started();
+        try {
+            return this.bucket.remove(id, persistTo, replicateTo, target);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D remove(String id, PersistTo persistTo, ReplicateTo replicateTo, Class<D> target,
             long timeout, TimeUnit timeUnit) {
-        return this.bucket.remove(id, persistTo, replicateTo, target, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.remove(id, persistTo, replicateTo, target, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D remove(String id, PersistTo persistTo, Class<D> target) {
-        return this.bucket.remove(id, persistTo, target);
+        long start = started();
+        try {
+            return this.bucket.remove(id, persistTo, target);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D remove(String id, PersistTo persistTo, Class<D> target, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.remove(id, persistTo, target, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.remove(id, persistTo, target, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D remove(String id, ReplicateTo replicateTo, Class<D> target) {
-        return this.bucket.remove(id, replicateTo, target);
+        long start = started();
+        try {
+            return this.bucket.remove(id, replicateTo, target);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D remove(String id, ReplicateTo replicateTo, Class<D> target, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.remove(id, replicateTo, target, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.remove(id, replicateTo, target, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.REMOVE, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.REMOVE, start);
+        }
     }
 
     @Override
     public ViewResult query(ViewQuery query) {
-        return this.bucket.query(query);
+        long start = started();
+        try {
+            return this.bucket.query(query);
+        } catch (RuntimeException e) {
+            throw failed(Operation.VIEW_QUERY, e);
+        } finally {
+            completed(Operation.VIEW_QUERY, start);
+        }
     }
 
     @Override
     public SpatialViewResult query(SpatialViewQuery query) {
-        return this.bucket.query(query);
+        long start = started();
+        try {
+            return this.bucket.query(query);
+        } catch (RuntimeException e) {
+            throw failed(Operation.VIEW_QUERY, e);
+        } finally {
+            completed(Operation.VIEW_QUERY, start);
+        }
     }
 
     @Override
     public ViewResult query(ViewQuery query, long timeout, TimeUnit timeUnit) {
-        return this.bucket.query(query, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.query(query, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.VIEW_QUERY, e);
+        } finally {
+            completed(Operation.VIEW_QUERY, start);
+        }
     }
 
     @Override
     public SpatialViewResult query(SpatialViewQuery query, long timeout, TimeUnit timeUnit) {
-        return this.bucket.query(query, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.query(query, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.VIEW_QUERY, e);
+        } finally {
+            completed(Operation.VIEW_QUERY, start);
+        }
     }
 
     @Override
     public N1qlQueryResult query(Statement statement) {
-        return this.bucket.query(statement);
+        long start = started();
+        try {
+            return this.bucket.query(statement);
+        } catch (RuntimeException e) {
+            throw failed(Operation.N1QL_QUERY, e);
+        } finally {
+            completed(Operation.N1QL_QUERY, start);
+        }
     }
 
     @Override
     public N1qlQueryResult query(Statement statement, long timeout, TimeUnit timeUnit) {
-        return this.bucket.query(statement, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.query(statement, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.N1QL_QUERY, e);
+        } finally {
+            completed(Operation.N1QL_QUERY, start);
+        }
     }
 
     @Override
     public N1qlQueryResult query(N1qlQuery query) {
-        return this.bucket.query(query);
+        long start = started();
+        try {
+            if (this.queryPlanCache != null && !query.params().isAdhoc()) {
+                return prepared(query, this.bucket.environment().queryTimeout(), TimeUnit.MILLISECONDS);
+            }
+            return this.bucket.query(query);
+        } catch (RuntimeException e) {
+            throw failed(Operation.N1QL_QUERY, e);
+        } finally {
+            completed(Operation.N1QL_QUERY, start);
+        }
     }
 
     @Override
     public N1qlQueryResult query(N1qlQuery query, long timeout, TimeUnit timeUnit) {
-        return this.bucket.query(query, timeout, timeUnit);
+        long start = started();
+        try {
+            if (this.queryPlanCache != null && !query.params().isAdhoc()) {
+                return prepared(query, timeout, timeUnit);
+            }
+            return this.bucket.query(query, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.N1QL_QUERY, e);
+        } finally {
+            completed(Operation.N1QL_QUERY, start);
+        }
     }
 
     @Override
     public SearchQueryResult query(SearchQuery query) {
-        return this.bucket.query(query);
+        long start = started();
+        try {
+            return this.bucket.query(query);
+        } catch (RuntimeException e) {
+            throw failed(Operation.SEARCH_QUERY, e);
+        } finally {
+            completed(Operation.SEARCH_QUERY, start);
+        }
     }
 
     @Override
     public SearchQueryResult query(SearchQuery query, long timeout, TimeUnit timeUnit) {
-        return this.bucket.query(query, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.query(query, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.SEARCH_QUERY, e);
+        } finally {
+            completed(Operation.SEARCH_QUERY, start);
+        }
     }
 
     @Override
     public Boolean unlock(String id, long cas) {
-        return this.bucket.unlock(id, cas);
+        long start = started();
+        try {
+            return this.bucket.unlock(id, cas);
+        } catch (RuntimeException e) {
+            throw failed(Operation.UNLOCK, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.UNLOCK, start);
+        }
     }
 
     @Override
     public Boolean unlock(String id, long cas, long timeout, TimeUnit timeUnit) {
-        return this.bucket.unlock(id, cas, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.unlock(id, cas, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.UNLOCK, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.UNLOCK, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> Boolean unlock(D document) {
-        return this.bucket.unlock(document);
+        long start = started();
+        try {
+            return this.bucket.unlock(document);
+        } catch (RuntimeException e) {
+            throw failed(Operation.UNLOCK, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.UNLOCK, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> Boolean unlock(D document, long timeout, TimeUnit timeUnit) {
-        return this.bucket.unlock(document, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.unlock(document, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.UNLOCK, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.UNLOCK, start);
+        }
     }
 
     @Override
     public Boolean touch(String id, int expiry) {
-        return this.bucket.touch(id, expiry);
+        long start = started();
+        try {
+            return this.bucket.touch(id, expiry);
+        } catch (RuntimeException e) {
+            throw failed(Operation.TOUCH, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.TOUCH, start);
+        }
     }
 
     @Override
     public Boolean touch(String id, int expiry, long timeout, TimeUnit timeUnit) {
-        return this.bucket.touch(id, expiry, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.touch(id, expiry, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.TOUCH, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.TOUCH, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> Boolean touch(D document) {
-        return this.bucket.touch(document);
+        long start = started();
+        try {
+            return this.bucket.touch(document);
+        } catch (RuntimeException e) {
+            throw failed(Operation.TOUCH, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.TOUCH, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> Boolean touch(D document, long timeout, TimeUnit timeUnit) {
-        return this.bucket.touch(document, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.touch(document, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.TOUCH, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.TOUCH, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta) {
-        return this.bucket.counter(id, delta);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, PersistTo persistTo) {
-        return this.bucket.counter(id, delta, persistTo);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, persistTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, ReplicateTo replicateTo) {
-        return this.bucket.counter(id, delta, replicateTo);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, replicateTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, PersistTo persistTo, ReplicateTo replicateTo) {
-        return this.bucket.counter(id, delta, persistTo, replicateTo);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, persistTo, replicateTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, long timeout, TimeUnit timeUnit) {
-        return this.bucket.counter(id, delta, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, PersistTo persistTo, long timeout, TimeUnit timeUnit) {
-        return this.bucket.counter(id, delta, persistTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, persistTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, ReplicateTo replicateTo, long timeout, TimeUnit timeUnit) {
-        return this.bucket.counter(id, delta, replicateTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, replicateTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, PersistTo persistTo, ReplicateTo replicateTo, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.counter(id, delta, persistTo, replicateTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, persistTo, replicateTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, long initial) {
-        return this.bucket.counter(id, delta, initial);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, initial);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, long initial, PersistTo persistTo) {
-        return this.bucket.counter(id, delta, initial, persistTo);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, initial, persistTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, long initial, ReplicateTo replicateTo) {
-        return this.bucket.counter(id, delta, initial, replicateTo);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, initial, replicateTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, long initial, PersistTo persistTo, ReplicateTo replicateTo) {
-        return this.bucket.counter(id, delta, initial, persistTo, replicateTo);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, initial, persistTo, replicateTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, long initial, long timeout, TimeUnit timeUnit) {
-        return this.bucket.counter(id, delta, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, long initial, PersistTo persistTo, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.counter(id, delta, initial, persistTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, initial, persistTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, long initial, ReplicateTo replicateTo, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.counter(id, delta, initial, replicateTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, initial, replicateTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, long initial, PersistTo persistTo, ReplicateTo replicateTo,
             long timeout, TimeUnit timeUnit) {
-        return this.bucket.counter(id, delta, initial, persistTo, replicateTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, initial, persistTo, replicateTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, long initial, int expiry) {
-        return this.bucket.counter(id, delta, initial, expiry);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, initial, expiry);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, long initial, int expiry, PersistTo persistTo) {
-        return this.bucket.counter(id, delta, initial, expiry, persistTo);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, initial, expiry, persistTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, long initial, int expiry, ReplicateTo replicateTo) {
-        return this.bucket.counter(id, delta, initial, expiry, replicateTo);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, initial, expiry, replicateTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, long initial, int expiry, PersistTo persistTo,
             ReplicateTo replicateTo) {
-        return this.bucket.counter(id, delta, initial, expiry, persistTo, replicateTo);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, initial, expiry, persistTo, replicateTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, long initial, int expiry, long timeout, TimeUnit timeUnit) {
-        return this.bucket.counter(id, delta, initial, expiry, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, initial, expiry, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, long initial, int expiry, PersistTo persistTo, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.counter(id, delta, initial, expiry, persistTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, initial, expiry, persistTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, long initial, int expiry, ReplicateTo replicateTo,
             long timeout, TimeUnit timeUnit) {
-        return this.bucket.counter(id, delta, initial, expiry, replicateTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, initial, expiry, replicateTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public JsonLongDocument counter(String id, long delta, long initial, int expiry, PersistTo persistTo,
             ReplicateTo replicateTo, long timeout, TimeUnit timeUnit) {
-        return this.bucket.counter(id, delta, initial, expiry, persistTo, replicateTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.counter(id, delta, initial, expiry, persistTo, replicateTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.COUNTER, e);
+        } finally {
+            invalidate(id);
+            completed(Operation.COUNTER, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D append(D document) {
-        return this.bucket.append(document);
+        long start = started();
+        try {
+            return this.bucket.append(document);
+        } catch (RuntimeException e) {
+            throw failed(Operation.APPEND, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.APPEND, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D append(D document, PersistTo persistTo) {
-        return this.bucket.append(document, persistTo);
+        long start = started();
+        try {
+            return this.bucket.append(document, persistTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.APPEND, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.APPEND, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D append(D document, ReplicateTo replicateTo) {
-        return this.bucket.append(document, replicateTo);
+        long start = started();
+        try {
+            return this.bucket.append(document, replicateTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.APPEND, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.APPEND, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D append(D document, PersistTo persistTo, ReplicateTo replicateTo) {
-        return this.bucket.append(document, persistTo, replicateTo);
+        long start = started();
+        try {
+            return this.bucket.append(document, persistTo, replicateTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.APPEND, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.APPEND, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D append(D document, long timeout, TimeUnit timeUnit) {
-        return this.bucket.append(document, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.append(document, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.APPEND, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.APPEND, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D append(D document, PersistTo persistTo, long timeout, TimeUnit timeUnit) {
-        return this.bucket.append(document, persistTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.append(document, persistTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.APPEND, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.APPEND, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D append(D document, ReplicateTo replicateTo, long timeout, TimeUnit timeUnit) {
-        return this.bucket.append(document, replicateTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.append(document, replicateTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.APPEND, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.APPEND, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D append(D document, PersistTo persistTo, ReplicateTo replicateTo, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.append(document, persistTo, replicateTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.append(document, persistTo, replicateTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.APPEND, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.APPEND, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D prepend(D document) {
-        return this.bucket.prepend(document);
+        long start = started();
+        try {
+            return this.bucket.prepend(document);
+        } catch (RuntimeException e) {
+            throw failed(Operation.PREPEND, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.PREPEND, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D prepend(D document, PersistTo persistTo) {
-        return this.bucket.prepend(document, persistTo);
+        long start = started();
+        try {
+            return this.bucket.prepend(document, persistTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.PREPEND, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.PREPEND, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D prepend(D document, ReplicateTo replicateTo) {
-        return this.bucket.prepend(document, replicateTo);
+        long start = started();
+        try {
+            return this.bucket.prepend(document, replicateTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.PREPEND, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.PREPEND, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D prepend(D document, PersistTo persistTo, ReplicateTo replicateTo) {
-        return this.bucket.prepend(document, persistTo, replicateTo);
+        long start = started();
+        try {
+            return this.bucket.prepend(document, persistTo, replicateTo);
+        } catch (RuntimeException e) {
+            throw failed(Operation.PREPEND, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.PREPEND, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D prepend(D document, long timeout, TimeUnit timeUnit) {
-        return this.bucket.prepend(document, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.prepend(document, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.PREPEND, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.PREPEND, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D prepend(D document, PersistTo persistTo, long timeout, TimeUnit timeUnit) {
-        return this.bucket.prepend(document, persistTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.prepend(document, persistTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.PREPEND, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.PREPEND, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D prepend(D document, ReplicateTo replicateTo, long timeout, TimeUnit timeUnit) {
-        return this.bucket.prepend(document, replicateTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.prepend(document, replicateTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.PREPEND, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.PREPEND, start);
+        }
     }
 
     @Override
     public <D extends Document<?>> D prepend(D document, PersistTo persistTo, ReplicateTo replicateTo, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.prepend(document, persistTo, replicateTo, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.prepend(document, persistTo, replicateTo, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.PREPEND, e);
+        } finally {
+            invalidate(document.id());
+            completed(Operation.PREPEND, start);
+        }
     }
 
     @Override
     public LookupInBuilder lookupIn(String docId) {
+        if (this.singleFlight != null || isMeasured()) {
+            return new WrappedLookupInBuilder(this.bucket.async().lookupIn(docId),
+                    this.bucket.environment().kvTimeout(), this, this.singleFlight, docId);
+        }
         return this.bucket.lookupIn(docId);
     }
 
     @Override
     public MutateInBuilder mutateIn(String docId) {
+        if (isInvalidating() || isMeasured()) {
+            return new WrappedMutateInBuilder(this.bucket.async().mutateIn(docId),
+                    this.bucket.environment().kvTimeout(), this, docId);
+        }
         return this.bucket.mutateIn(docId);
     }
 
     @Override
     public <V> boolean mapAdd(String docId, String key, V value) {
-        return this.bucket.mapAdd(docId, key, value);
+        long start = started();
+        try {
+            return this.bucket.mapAdd(docId, key, value);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <V> boolean mapAdd(String docId, String key, V value, long timeout, TimeUnit timeUnit) {
-        return this.bucket.mapAdd(docId, key, value, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.mapAdd(docId, key, value, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <V> boolean mapAdd(String docId, String key, V value, MutationOptionBuilder mutationOptionBuilder) {
-        return this.bucket.mapAdd(docId, key, value, mutationOptionBuilder);
+        long start = started();
+        try {
+            return this.bucket.mapAdd(docId, key, value, mutationOptionBuilder);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <V> boolean mapAdd(String docId, String key, V value, MutationOptionBuilder mutationOptionBuilder,
             long timeout, TimeUnit timeUnit) {
-        return this.bucket.mapAdd(docId, key, value, mutationOptionBuilder, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.mapAdd(docId, key, value, mutationOptionBuilder, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <V> V mapGet(String docId, String key, Class<V> valueType) {
-        return this.bucket.mapGet(docId, key, valueType);
+        long start = started();
+        try {
+            return this.bucket.mapGet(docId, key, valueType);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <V> V mapGet(String docId, String key, Class<V> valueType, long timeout, TimeUnit timeUnit) {
-        return this.bucket.mapGet(docId, key, valueType, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.mapGet(docId, key, valueType, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public boolean mapRemove(String docId, String key) {
-        return this.bucket.mapRemove(docId, key);
+        long start = started();
+        try {
+            return this.bucket.mapRemove(docId, key);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public boolean mapRemove(String docId, String key, long timeout, TimeUnit timeUnit) {
-        return this.bucket.mapRemove(docId, key, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.mapRemove(docId, key, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public boolean mapRemove(String docId, String key, MutationOptionBuilder mutationOptionBuilder) {
-        return this.bucket.mapRemove(docId, key, mutationOptionBuilder);
+        long start = started();
+        try {
+            return this.bucket.mapRemove(docId, key, mutationOptionBuilder);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public boolean mapRemove(String docId, String key, MutationOptionBuilder mutationOptionBuilder, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.mapRemove(docId, key, mutationOptionBuilder, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.mapRemove(docId, key, mutationOptionBuilder, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public int mapSize(String docId) {
-        return this.bucket.mapSize(docId);
+        long start = started();
+        try {
+            return this.bucket.mapSize(docId);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public int mapSize(String docId, long timeout, TimeUnit timeUnit) {
-        return this.bucket.mapSize(docId, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.mapSize(docId, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> E listGet(String docId, int index, Class<E> elementType) {
-        return this.bucket.listGet(docId, index, elementType);
+        long start = started();
+        try {
+            return this.bucket.listGet(docId, index, elementType);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> E listGet(String docId, int index, Class<E> elementType, long timeout, TimeUnit timeUnit) {
-        return this.bucket.listGet(docId, index, elementType, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.listGet(docId, index, elementType, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean listAppend(String docId, E element) {
-        return this.bucket.listAppend(docId, element);
+        long start = started();
+        try {
+            return this.bucket.listAppend(docId, element);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean listAppend(String docId, E element, long timeout, TimeUnit timeUnit) {
-        return this.bucket.listAppend(docId, element, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.listAppend(docId, element, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean listAppend(String docId, E element, MutationOptionBuilder mutationOptionBuilder) {
-        return this.bucket.listAppend(docId, element, mutationOptionBuilder);
+        long start = started();
+        try {
+            return this.bucket.listAppend(docId, element, mutationOptionBuilder);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean listAppend(String docId, E element, MutationOptionBuilder mutationOptionBuilder, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.listAppend(docId, element, mutationOptionBuilder);
+        long start = started();
+        try {
+            return this.bucket.listAppend(docId, element, mutationOptionBuilder);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public boolean listRemove(String docId, int index) {
-        return this.bucket.listRemove(docId, index);
+        long start = started();
+        try {
+            return this.bucket.listRemove(docId, index);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public boolean listRemove(String docId, int index, long timeout, TimeUnit timeUnit) {
-        return this.bucket.listRemove(docId, index, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.listRemove(docId, index, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public boolean listRemove(String docId, int index, MutationOptionBuilder mutationOptionBuilder) {
-        return this.bucket.listRemove(docId, index, mutationOptionBuilder);
+        long start = started();
+        try {
+            return this.bucket.listRemove(docId, index, mutationOptionBuilder);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public boolean listRemove(String docId, int index, MutationOptionBuilder mutationOptionBuilder, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.listRemove(docId, index, mutationOptionBuilder, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.listRemove(docId, index, mutationOptionBuilder, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean listPrepend(String docId, E element) {
-        return this.bucket.listPrepend(docId, element);
+        long start = started();
+        try {
+            return this.bucket.listPrepend(docId, element);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean listPrepend(String docId, E element, long timeout, TimeUnit timeUnit) {
-        return this.bucket.listPrepend(docId, element, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.listPrepend(docId, element, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean listPrepend(String docId, E element, MutationOptionBuilder mutationOptionBuilder) {
-        return this.bucket.listPrepend(docId, element, mutationOptionBuilder);
+        long start = started();
+        try {
+            return this.bucket.listPrepend(docId, element, mutationOptionBuilder);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean listPrepend(String docId, E element, MutationOptionBuilder mutationOptionBuilder, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.listPrepend(docId, element, mutationOptionBuilder);
+        long start = started();
+        try {
+            return this.bucket.listPrepend(docId, element, mutationOptionBuilder);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean listSet(String docId, int index, E element) {
-        return this.bucket.listSet(docId, index, element);
+        long start = started();
+        try {
+            return this.bucket.listSet(docId, index, element);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean listSet(String docId, int index, E element, long timeout, TimeUnit timeUnit) {
-        return this.bucket.listSet(docId, index, element, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.listSet(docId, index, element, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean listSet(String docId, int index, E element, MutationOptionBuilder mutationOptionBuilder) {
-        return this.bucket.listSet(docId, index, element, mutationOptionBuilder);
+        long start = started();
+        try {
+            return this.bucket.listSet(docId, index, element, mutationOptionBuilder);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean listSet(String docId, int index, E element, MutationOptionBuilder mutationOptionBuilder,
             long timeout, TimeUnit timeUnit) {
-        return this.bucket.listSet(docId, index, element, mutationOptionBuilder, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.listSet(docId, index, element, mutationOptionBuilder, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public int listSize(String docId) {
-        return this.bucket.listSize(docId);
+        long start = started();
+        try {
+            return this.bucket.listSize(docId);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public int listSize(String docId, long timeout, TimeUnit timeUnit) {
-        return this.bucket.listSize(docId, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.listSize(docId, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean setAdd(String docId, E element) {
-        return this.bucket.setAdd(docId, element);
+        long start = started();
+        try {
+            return this.bucket.setAdd(docId, element);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean setAdd(String docId, E element, long timeout, TimeUnit timeUnit) {
-        return this.bucket.setAdd(docId, element, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.setAdd(docId, element, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean setAdd(String docId, E element, MutationOptionBuilder mutationOptionBuilder) {
-        return this.bucket.setAdd(docId, element, mutationOptionBuilder);
+        long start = started();
+        try {
+            return this.bucket.setAdd(docId, element, mutationOptionBuilder);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean setAdd(String docId, E element, MutationOptionBuilder mutationOptionBuilder, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.setAdd(docId, element, mutationOptionBuilder, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.setAdd(docId, element, mutationOptionBuilder, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean setContains(String docId, E element) {
-        return this.bucket.setContains(docId, element);
+        long start = started();
+        try {
+            return this.bucket.setContains(docId, element);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean setContains(String docId, E element, long timeout, TimeUnit timeUnit) {
-        return this.bucket.setContains(docId, element, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.setContains(docId, element, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> E setRemove(String docId, E element) {
-        return this.bucket.setRemove(docId, element);
+        long start = started();
+        try {
+            return this.bucket.setRemove(docId, element);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> E setRemove(String docId, E element, long timeout, TimeUnit timeUnit) {
-        return this.bucket.setRemove(docId, element, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.setRemove(docId, element, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> E setRemove(String docId, E element, MutationOptionBuilder mutationOptionBuilder) {
-        return this.bucket.setRemove(docId, element, mutationOptionBuilder);
+        long start = started();
+        try {
+            return this.bucket.setRemove(docId, element, mutationOptionBuilder);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> E setRemove(String docId, E element, MutationOptionBuilder mutationOptionBuilder, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.setRemove(docId, element, mutationOptionBuilder, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.setRemove(docId, element, mutationOptionBuilder, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public int setSize(String docId) {
-        return this.bucket.setSize(docId);
+        long start = started();
+        try {
+            return this.bucket.setSize(docId);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public int setSize(String docId, long timeout, TimeUnit timeUnit) {
-        return this.bucket.setSize(docId, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.setSize(docId, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean queuePush(String docId, E element) {
-        return this.bucket.queuePush(docId, element);
+        long start = started();
+        try {
+            return this.bucket.queuePush(docId, element);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean queuePush(String docId, E element, long timeout, TimeUnit timeUnit) {
-        return this.bucket.queuePush(docId, element, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.queuePush(docId, element, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean queuePush(String docId, E element, MutationOptionBuilder mutationOptionBuilder) {
-        return this.bucket.queuePush(docId, element, mutationOptionBuilder);
+        long start = started();
+        try {
+            return this.bucket.queuePush(docId, element, mutationOptionBuilder);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> boolean queuePush(String docId, E element, MutationOptionBuilder mutationOptionBuilder, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.queuePush(docId, element, mutationOptionBuilder, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.queuePush(docId, element, mutationOptionBuilder, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> E queuePop(String docId, Class<E> elementType) {
-        return this.bucket.queuePop(docId, elementType);
+        long start = started();
+        try {
+            return this.bucket.queuePop(docId, elementType);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> E queuePop(String docId, Class<E> elementType, long timeout, TimeUnit timeUnit) {
-        return this.bucket.queuePop(docId, elementType, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.queuePop(docId, elementType, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> E queuePop(String docId, Class<E> elementType, MutationOptionBuilder mutationOptionBuilder) {
-        return this.bucket.queuePop(docId, elementType, mutationOptionBuilder);
+        long start = started();
+        try {
+            return this.bucket.queuePop(docId, elementType, mutationOptionBuilder);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public <E> E queuePop(String docId, Class<E> elementType, MutationOptionBuilder mutationOptionBuilder, long timeout,
             TimeUnit timeUnit) {
-        return this.bucket.queuePop(docId, elementType, mutationOptionBuilder, timeout, timeUnit);
+        long start = started();
+        try {
+            return this.bucket.queuePop(docId, elementType, mutationOptionBuilder, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            invalidate(docId);
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public int queueSize(String docId) {
-        return this.bucket.queueSize(docId);
+        long start = started();
+        try {
+            return this.bucket.queueSize(docId);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            completed(Operation.DATA_STRUCTURE, start);
+        }
     }
 
     @Override
     public int queueSize(String docId, long timeout, TimeUnit timeUnit) {
-        return this.bucket.queueSize(docId, timeout, timeUnit);
-    }
-
+        long start = started();
+        try {
+            return this.bucket.queueSize(docId, timeout, timeUnit);
+        } catch (RuntimeException e) {
+            throw failed(Operation.DATA_STRUCTURE, e);
+        } finally {
+            completed(Operation.DATA_STRUCTURE, start);
+        }
+    }
+
+    /**
+     * Runs a prepared query with the plans shared by the pool.
+     */
+    private N1qlQueryResult prepared(N1qlQuery query, long timeout, TimeUnit timeUnit) {
+        return planned(query).flatMap(N1qlQueryExecutor.ASYNC_RESULT_TO_SYNC).timeout(timeout, timeUnit)
+                .toBlocking().single();
+    }
+
+    private Observable<AsyncN1qlQueryResult> planned(N1qlQuery query) {
+        N1qlQueryExecutor executor = this.queryExecutor;
+        if (executor == null) {
+            executor = this.queryPlanCache.executor(this.bucket.core(), this.name, this.cluster.getGroup());
+            this.queryExecutor = executor;
+        }
+        if (!query.params().hasServerSideTimeout()) {
+            // as the bucket's own asynchronous query does
+            query.params().serverSideTimeout(this.bucket.environment().queryTimeout(), TimeUnit.MILLISECONDS);
+        }
+        return executor.execute(query);
+    }
+
+    /**
+     * Runs a N1QL query without blocking, with the plans shared by the pool
+     * if it's prepared, so its rows can be streamed.
+     *
+     * @param query
+     *            The query.
+     * @return the result, whose rows are emitted as they arrive.
+     */
+    Observable<AsyncN1qlQueryResult> queryAsync(N1qlQuery query) {
+        if (this.queryPlanCache != null && !query.params().isAdhoc()) {
+            return planned(query);
+        }
+        return this.bucket.async().query(query);
+    }
+
+    /**
+     * Drops the plans cached by this bucket and, if the pool shares its
+     * plans, those of every bucket of the pool.
+     */
     @Override
     public int invalidateQueryCache() {
-        return this.bucket.invalidateQueryCache();
+        int invalidated = this.bucket.invalidateQueryCache();
+        if (this.queryPlanCache != null) {
+            invalidated += this.queryPlanCache.invalidate();
+        }
+        return invalidated;
     }
 
     @Override
@@ -1135,6 +2955,7 @@ public class WrappedBucket implements Bucket {
     public void open() {
         logger.info("Opening {} bucket", this);
         this.bucket = this.cluster.openBucket(this.name);
+        this.queryExecutor = null;
         logger.info("Opened {} bucket", this);
     }
 
@@ -1146,4 +2967,103 @@ public class WrappedBucket implements Bucket {
     public WrappedCluster getCluster() {
         return this.cluster;
     }
-}
\ No newline at end of file
+
+    /**
+     * Provides the latency and errors of the operations run on this bucket.
+     *
+     * @return the metrics, or null if operations are not measured.
+     */
+    public OperationMetrics getOperationMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Flags this bucket as degraded, so the pool destroys it instead of
+     * handing it out or taking it back.
+     */
+    void markUnhealthy() {
+        this.unhealthy = true;
+    }
+
+    boolean isUnhealthy() {
+        return this.unhealthy;
+    }
+
+    /**
+     * Flags this bucket as parked for a thread in affinity mode: it stays
+     * borrowed from the pool but, unlike a bucket its borrower forgot about,
+     * isn't abandoned.
+     */
+    void setParked(boolean parked) {
+        this.lastUsed = System.currentTimeMillis();
+        this.parked = parked;
+    }
+
+    /**
+     * Provides the time this bucket was last parked or taken back from
+     * parking, or the current time while parked, so abandoned object removal
+     * skips parked buckets.
+     */
+    @Override
+    public long getLastUsed() {
+        return this.parked ? System.currentTimeMillis() : this.lastUsed;
+    }
+
+    void setPooledObject(PooledObject<Bucket> pooled) {
+        this.pooled = pooled;
+    }
+
+    /**
+     * Provides the pool's wrapper of this bucket, through which the health
+     * checker claims it while idle.
+     */
+    PooledObject<Bucket> getPooledObject() {
+        return this.pooled;
+    }
+
+    /**
+     * Records when this bucket was handed to a borrower and, if sampled,
+     * where from; 0 once given back.
+     */
+    void setBorrowed(long borrowedAt, LeakDetector.Site borrowSite) {
+        this.borrowSite = borrowSite;
+        this.leakReported = false;
+        this.borrowedAt = borrowedAt;
+    }
+
+    long getBorrowedAt() {
+        return this.borrowedAt;
+    }
+
+    LeakDetector.Site getBorrowSite() {
+        return this.borrowSite;
+    }
+
+    /**
+     * Marks the current borrow of this bucket as reported by the leak
+     * detector.
+     *
+     * @return false if it already was.
+     */
+    boolean markLeakReported() {
+        if (this.leakReported) {
+            return false;
+        }
+        this.leakReported = true;
+        return true;
+    }
+
+    /**
+     * Provides the exponentially weighted moving average of the latency of
+     * the operations run on this bucket, when the pool selects buckets by
+     * latency. An average not updated for a second is forgotten, so a bucket
+     * that was slow gets tried again.
+     *
+     * @param now
+     *            the current <code>System.nanoTime()</code>.
+     * @return the latency in nanoseconds, 0 if unknown.
+     */
+    long getRecentLatency(long now) {
+        return now - this.latencySampled > LATENCY_STALE_NANOS ? 0 : this.latency;
+    }
+}
@@ -40,11 +40,17 @@ public class WrappedCluster implements Cluster {
     private String name;
     private Cluster cluster;
     private final long id = System.currentTimeMillis();
+    private final int group;
 
     public WrappedCluster(Cluster cluster, String name) {
+        this(cluster, name, 0);
+    }
+
+    WrappedCluster(Cluster cluster, String name, int group) {
         super();
         this.cluster = cluster;
         this.name = name;
+        this.group = group;
     }
 
     @Override
@@ -128,6 +134,13 @@ public class WrappedCluster implements Cluster {
         return this.cluster.authenticate(auth);
     }
 
+    /**
+     * Provides the index of the cluster group this cluster is connected to.
+     */
+    int getGroup() {
+        return this.group;
+    }
+
     @Override
     public String toString() {
         return this.name + "-" + Long.toString(this.id);
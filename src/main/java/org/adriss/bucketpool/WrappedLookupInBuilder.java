@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.client.core.message.kv.subdoc.multi.Lookup;
+import com.couchbase.client.java.subdoc.AsyncLookupInBuilder;
+import com.couchbase.client.java.subdoc.DocumentFragment;
+import com.couchbase.client.java.subdoc.LookupInBuilder;
+
+/**
+ * A {@link LookupInBuilder} whose lookups are measured by its
+ * {@link WrappedBucket}. It records its specs so identical lookups running
+ * concurrently are sent to the server once, through {@link SingleFlight} if
+ * used.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+class WrappedLookupInBuilder extends LookupInBuilder {
+
+    private final WrappedBucket bucket;
+    private final SingleFlight singleFlight;
+    private final String docId;
+    private final List<Object> specs = new ArrayList<>();
+
+    WrappedLookupInBuilder(AsyncLookupInBuilder asyncBuilder, long defaultTimeoutMillis, WrappedBucket bucket,
+            SingleFlight singleFlight, String docId) {
+        super(asyncBuilder, defaultTimeoutMillis, TimeUnit.MILLISECONDS);
+        this.bucket = bucket;
+        this.singleFlight = singleFlight;
+        this.docId = docId;
+    }
+
+    @Override
+    public LookupInBuilder get(String... paths) {
+        this.specs.add(Lookup.GET);
+        this.specs.addAll(Arrays.asList(paths));
+        return super.get(paths);
+    }
+
+    @Override
+    public LookupInBuilder exists(String... paths) {
+        this.specs.add(Lookup.EXIST);
+        this.specs.addAll(Arrays.asList(paths));
+        return super.exists(paths);
+    }
+
+    /**
+     * Also runs {@link #execute()}, with the default timeout.
+     */
+    @Override
+    public DocumentFragment<Lookup> execute(long timeout, TimeUnit timeUnit) {
+        return this.bucket.measure(Operation.LOOKUP_IN,
+                () -> this.singleFlight == null ? super.execute(timeout, timeUnit)
+                        : this.singleFlight.execute(Operation.LOOKUP_IN, this.docId, key(),
+                                () -> super.execute(timeout, timeUnit)));
+    }
+
+    private List<Object> key() {
+        List<Object> key = new ArrayList<>(this.specs);
+        key.add(isIncludeRaw());
+        return key;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool;
+
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.client.core.message.kv.subdoc.multi.Mutation;
+import com.couchbase.client.java.PersistTo;
+import com.couchbase.client.java.ReplicateTo;
+import com.couchbase.client.java.subdoc.AsyncMutateInBuilder;
+import com.couchbase.client.java.subdoc.DocumentFragment;
+import com.couchbase.client.java.subdoc.MutateInBuilder;
+
+/**
+ * A {@link MutateInBuilder} whose mutations are measured by its
+ * {@link WrappedBucket}, which also invalidates the document, e.g. in the
+ * {@link NearCache}, once the mutation has been executed. The overloads
+ * without a timeout run through those overridden here.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+class WrappedMutateInBuilder extends MutateInBuilder {
+
+    private final WrappedBucket bucket;
+    private final String docId;
+
+    WrappedMutateInBuilder(AsyncMutateInBuilder asyncBuilder, long defaultTimeoutMillis, WrappedBucket bucket,
+            String docId) {
+        super(asyncBuilder, defaultTimeoutMillis, TimeUnit.MILLISECONDS);
+        this.bucket = bucket;
+        this.docId = docId;
+    }
+
+    @Override
+    public DocumentFragment<Mutation> execute(long timeout, TimeUnit timeUnit) {
+        return this.bucket.mutate(Operation.MUTATE_IN, this.docId, () -> super.execute(timeout, timeUnit));
+    }
+
+    @Override
+    public DocumentFragment<Mutation> execute(PersistTo persistTo, ReplicateTo replicateTo, long timeout,
+            TimeUnit timeUnit) {
+        return this.bucket.mutate(Operation.MUTATE_IN, this.docId,
+                () -> super.execute(persistTo, replicateTo, timeout, timeUnit));
+    }
+
+    @Override
+    public DocumentFragment<Mutation> execute(PersistTo persistTo, long timeout, TimeUnit timeUnit) {
+        return this.bucket.mutate(Operation.MUTATE_IN, this.docId,
+                () -> super.execute(persistTo, timeout, timeUnit));
+    }
+
+    @Override
+    public DocumentFragment<Mutation> execute(ReplicateTo replicateTo, long timeout, TimeUnit timeUnit) {
+        return this.bucket.mutate(Operation.MUTATE_IN, this.docId,
+                () -> super.execute(replicateTo, timeout, timeUnit));
+    }
+}
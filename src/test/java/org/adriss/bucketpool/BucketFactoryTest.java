@@ -0,0 +1,122 @@
+package org.adriss.bucketpool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.adriss.bucketpool.stub.StubCluster;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import com.couchbase.client.java.Bucket;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class BucketFactoryTest {
+
+    @Test
+    public void createOpensConcurrently() throws Exception {
+        final int creators = 4;
+        CountDownLatch opening = new CountDownLatch(creators);
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(creators);
+        // every open waits for all the others; serialized creators would time out
+        BucketFactory factory = new BucketFactory(config, () -> new StubCluster(new ConcurrentHashMap<>(), 0, 0) {
+            @Override
+            public Bucket openBucket(String name) {
+                opening.countDown();
+                try {
+                    if (!opening.await(5, TimeUnit.SECONDS)) {
+                        throw new IllegalStateException("Bucket opens were serialized");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.openBucket(name);
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(creators);
+        List<Future<Bucket>> futures = new ArrayList<>();
+        for (int i = 0; i < creators; i++) {
+            futures.add(executor.submit(factory::create));
+        }
+        for (Future<Bucket> future : futures) {
+            Assert.assertFalse(future.get(10, TimeUnit.SECONDS).isClosed());
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void destroyReturnsClusterForReuse() throws Exception {
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(1);
+        StubCluster cluster = new StubCluster();
+        BucketFactory factory = new BucketFactory(config, () -> cluster);
+        WrappedBucket first = (WrappedBucket) factory.create();
+        factory.destroyObject(factory.wrap(first));
+        WrappedBucket second = (WrappedBucket) factory.create();
+        Assert.assertSame(first.getCluster(), second.getCluster());
+        Assert.assertEquals(2, cluster.getOpened());
+    }
+
+    @Test
+    public void lazyClustersCreatedOnDemand() throws Exception {
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(8);
+        config.setLazyClusters(true);
+        AtomicInteger created = new AtomicInteger();
+        BucketFactory factory = new BucketFactory(config, () -> {
+            created.incrementAndGet();
+            return new StubCluster();
+        });
+        Assert.assertEquals(0, created.get());
+        factory.create();
+        factory.create();
+        Assert.assertEquals(2, created.get());
+    }
+
+    @Test
+    public void unboundedPoolCreatesClustersOnDemand() throws Exception {
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(-1);
+        AtomicInteger created = new AtomicInteger();
+        BucketFactory factory = new BucketFactory(config, () -> {
+            created.incrementAndGet();
+            return new StubCluster();
+        });
+        Assert.assertEquals(0, created.get());
+        factory.create();
+        Assert.assertEquals(1, created.get());
+    }
+
+    @Test
+    public void lazyClustersKeepSpares() throws Exception {
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(3);
+        config.setLazyClusters(true);
+        config.setSpareClusters(2);
+        AtomicInteger created = new AtomicInteger();
+        BucketFactory factory = new BucketFactory(config, () -> {
+            created.incrementAndGet();
+            return new StubCluster();
+        });
+        Assert.assertEquals(2, created.get());
+        factory.create();
+        factory.create();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (factory.getNumUnusedClusters() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        factory.create();
+        Thread.sleep(100);
+        // never more clusters than maxTotal
+        Assert.assertEquals(3, created.get());
+    }
+}
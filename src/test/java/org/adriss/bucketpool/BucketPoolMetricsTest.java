@@ -0,0 +1,220 @@
+package org.adriss.bucketpool;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.adriss.bucketpool.stub.StubCluster;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import com.couchbase.client.java.Bucket;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class BucketPoolMetricsTest {
+
+    @Test
+    public void countsBucketAndClusterLifecycle() throws Exception {
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(2);
+        config.setLazyClusters(true);
+        config.setPassivate(true);
+        config.setJmxEnabled(false);
+        BucketPool pool = new BucketPool(new BucketFactory(config, StubCluster::new), config, null);
+        BucketPoolMetrics metrics = pool.getMetrics();
+
+        Bucket first = pool.borrowObject();
+        Assert.assertEquals(1, metrics.getCreatedCount());
+        Assert.assertEquals(1, metrics.getClusterReuseMisses());
+        Assert.assertEquals(1, metrics.getNumActive());
+        pool.returnObject(first);
+        Assert.assertEquals(1, metrics.getPassivationCloseCount());
+        Assert.assertEquals(1, metrics.getNumIdle());
+
+        Bucket reopened = pool.borrowObject();
+        Assert.assertSame(first, reopened);
+        Assert.assertEquals(1, metrics.getPassivationOpenCount());
+        pool.invalidateObject(reopened);
+        Assert.assertEquals(1, metrics.getDestroyedCount());
+        Assert.assertEquals(1, metrics.getNumUnusedClusters());
+
+        Bucket second = pool.borrowObject();
+        Assert.assertEquals(1, metrics.getClusterReuseHits());
+        Assert.assertEquals(1, metrics.getNumClusters());
+        second.close();
+        Assert.assertEquals(0, metrics.getValidationFailedCount());
+        Assert.assertFalse(((BucketFactory) pool.getFactory()).validate(second));
+        Assert.assertEquals(1, metrics.getValidationFailedCount());
+        Assert.assertEquals(3, metrics.getBorrowWaitCount());
+        pool.invalidateObject(second);
+        pool.close();
+    }
+
+    @Test
+    public void passivatesIdleBucketsAndReopensAhead() throws Exception {
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(4);
+        config.setPassivate(true);
+        config.setPassivateIdleMillis(100);
+        config.setJmxEnabled(false);
+        BucketPool pool = new BucketPool(new BucketFactory(config, StubCluster::new), config, null);
+        BucketPoolMetrics metrics = pool.getMetrics();
+        List<Bucket> buckets = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            buckets.add(pool.borrowObject());
+        }
+        for (Bucket bucket : buckets) {
+            // distinct return times keep the idle order known
+            Thread.sleep(5);
+            pool.returnObject(bucket);
+        }
+        long deadline = System.currentTimeMillis() + 2000;
+        while (metrics.getPassivationCloseCount() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(4, metrics.getPassivationCloseCount());
+
+        // one borrower holding a bucket 20 ms at a time
+        deadline = System.currentTimeMillis() + 400;
+        while (System.currentTimeMillis() < deadline) {
+            Bucket bucket = pool.borrowObject();
+            Thread.sleep(20);
+            pool.returnObject(bucket);
+        }
+        Assert.assertEquals(1, metrics.getPassivationOpenCount());
+        Assert.assertTrue(metrics.getPassivationReopenCount() >= 1);
+        Assert.assertTrue(metrics.getPassivationBorrowRate() > 10);
+        Assert.assertEquals(4, metrics.getPassivationCloseCount());
+
+        // a second borrower finds a bucket reopened ahead
+        Bucket first = pool.borrowObject();
+        Bucket second = pool.borrowObject();
+        Assert.assertEquals(1, metrics.getPassivationOpenCount());
+        pool.returnObject(first);
+        pool.returnObject(second);
+        pool.close();
+    }
+
+    @Test
+    public void reportsHeldBucketsWithSampledSites() throws Exception {
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(3);
+        config.setJmxEnabled(false);
+        BucketPoolAbandonedConfig abandonedConfig = new BucketPoolAbandonedConfig();
+        abandonedConfig.setLeakSampleRate(1);
+        abandonedConfig.setLeakReportMillis(50);
+        BucketPool pool = new BucketPool(new BucketFactory(config, StubCluster::new), config, abandonedConfig);
+        BucketPoolMetrics metrics = pool.getMetrics();
+        pool.returnObject(pool.borrowObject());
+        Bucket held = pool.borrowObject();
+        Bucket heldAsync = pool.borrowAsync().get();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (metrics.getLeaksReported() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, metrics.getLeaksReported());
+        Assert.assertEquals(2, metrics.getLeakSuspectCount());
+        for (String suspect : pool.getLeakSuspects()) {
+            Assert.assertTrue(suspect, suspect.contains("reportsHeldBucketsWithSampledSites"));
+        }
+        Assert.assertEquals(2, pool.getLeaksBySite().values().stream().mapToLong(Long::longValue).sum());
+        Assert.assertEquals(1, metrics.getHoldTimeCount());
+
+        pool.returnObject(held);
+        pool.returnObject(heldAsync);
+        Assert.assertEquals(0, metrics.getLeakSuspectCount());
+        Assert.assertEquals(3, metrics.getHoldTimeCount());
+        Assert.assertTrue(metrics.getHoldTimeMaxMillis() >= 50);
+        Assert.assertEquals(3, pool.getHoldTimesBySite().values().stream().mapToLong(LatencyHistogram::getCount)
+                .sum());
+        pool.close();
+    }
+
+    @Test
+    public void recordsBorrowWait() throws Exception {
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(1);
+        config.setJmxEnabled(false);
+        BucketPool pool = new BucketPool(new BucketFactory(config, StubCluster::new), config, null);
+        Bucket bucket = pool.borrowObject();
+        try {
+            pool.borrowObject(20);
+            Assert.fail("The pool is exhausted");
+        } catch (NoSuchElementException e) {
+        }
+        Assert.assertTrue(pool.getMetrics().getBorrowWaitMaxMillis() >= 20);
+        pool.borrowAsync(-1).thenAccept(pool::returnObject);
+        Assert.assertEquals(1, pool.getNumAsyncWaiters());
+        pool.returnObject(bucket);
+        Assert.assertEquals(0, pool.getNumAsyncWaiters());
+        Assert.assertEquals(1, pool.getMetrics().getAsyncBorrowWaitCount());
+        pool.getMetrics().resetBorrowWait();
+        Assert.assertEquals(0, pool.getMetrics().getBorrowWaitCount());
+        pool.close();
+    }
+
+    @Test
+    public void adaptsSizeToBorrowWait() throws Exception {
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(8);
+        config.setAdaptiveMinTotal(2);
+        config.setAdaptiveIntervalMillis(60000);
+        config.setAdaptiveCooldownMillis(0);
+        config.setJmxEnabled(false);
+        BucketPool pool = new BucketPool(new BucketFactory(config, StubCluster::new), config, null);
+        BucketPoolMetrics metrics = pool.getMetrics();
+        Assert.assertEquals(2, pool.getMaxTotal());
+
+        Bucket first = pool.borrowObject();
+        Bucket second = pool.borrowObject();
+        try {
+            pool.borrowObject(20);
+            Assert.fail("The pool is exhausted");
+        } catch (NoSuchElementException e) {
+        }
+        pool.getSizer().sample();
+        pool.getSizer().adjust();
+        Assert.assertEquals(3, pool.getMaxTotal());
+        Assert.assertEquals(1, metrics.getAdaptiveGrowCount());
+        Assert.assertTrue(metrics.getAdaptiveLastDecision().startsWith("grew 2 -> 3"));
+
+        Bucket third = pool.borrowObject();
+        pool.getSizer().sample();
+        pool.returnObject(first);
+        pool.returnObject(second);
+        pool.returnObject(third);
+        pool.getSizer().adjust();
+        Assert.assertEquals(3, pool.getMaxTotal());
+        Assert.assertEquals(0, metrics.getAdaptiveShrinkCount());
+
+        pool.getSizer().adjust();
+        Assert.assertEquals(2, pool.getMaxTotal());
+        Assert.assertEquals(2, pool.getMaxIdle());
+        Assert.assertEquals(2, pool.getNumIdle());
+        Assert.assertEquals(1, metrics.getDestroyedCount());
+        Assert.assertEquals(1, metrics.getAdaptiveShrinkCount());
+        pool.close();
+    }
+
+    @Test
+    public void registersMXBean() throws Exception {
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(1);
+        config.setMinIdle(1);
+        config.setJmxNamePrefix("metrics-test");
+        BucketPool pool = new BucketPool(new BucketFactory(config, StubCluster::new), config, null);
+        ObjectName name = new ObjectName("org.adriss.bucketpool:type=BucketPoolMetrics,name="
+                + pool.getJmxName().getKeyProperty("name"));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Assert.assertEquals(1, server.getAttribute(name, "NumIdle"));
+        Assert.assertEquals(1L, server.getAttribute(name, "CreatedCount"));
+        pool.close();
+        Assert.assertFalse(server.isRegistered(name));
+    }
+}
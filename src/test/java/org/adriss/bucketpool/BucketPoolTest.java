@@ -0,0 +1,703 @@
+package org.adriss.bucketpool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import org.adriss.bucketpool.stub.StubCluster;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.Document;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.error.DocumentAlreadyExistsException;
+
+import com.couchbase.client.java.query.AsyncN1qlQueryRow;
+import com.couchbase.client.java.query.N1qlQuery;
+
+import rx.Observable;
+import rx.observers.TestSubscriber;
+import com.couchbase.client.java.document.json.JsonObject;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class BucketPoolTest {
+
+    private static BucketPoolConfig config(int minIdle) {
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(minIdle);
+        config.setMaxIdle(minIdle);
+        config.setMinIdle(minIdle);
+        config.setJmxEnabled(false);
+        return config;
+    }
+
+    @Test
+    public void warmUpOpensConcurrently() throws Exception {
+        BucketPoolConfig config = config(4);
+        CountDownLatch opening = new CountDownLatch(4);
+        BucketFactory factory = new BucketFactory(config, () -> new StubCluster(new ConcurrentHashMap<>(), 0, 0) {
+            @Override
+            public Bucket openBucket(String name) {
+                opening.countDown();
+                try {
+                    if (!opening.await(5, TimeUnit.SECONDS)) {
+                        throw new IllegalStateException("Warm-up was sequential");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.openBucket(name);
+            }
+        });
+        BucketPool pool = new BucketPool(factory, config, null);
+        Assert.assertTrue(pool.isReady());
+        Assert.assertEquals(4, pool.getNumIdle());
+        pool.close();
+    }
+
+    @Test
+    public void readyWhenReadyCountOpened() throws Exception {
+        BucketPoolConfig config = config(3);
+        config.setWarmUpReadyCount(1);
+        config.setWarmUpTimeoutMillis(0);
+        CountDownLatch release = new CountDownLatch(1);
+        Iterator<StubCluster> clusters = Arrays
+                .asList(new StubCluster(), blocking(release), blocking(release)).iterator();
+        BucketFactory factory = new BucketFactory(config, clusters::next);
+        BucketPool pool = new BucketPool(factory, config, null);
+        Assert.assertSame(pool, pool.getReadiness().get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(pool.isReady());
+        release.countDown();
+        pool.close();
+    }
+
+    @Test
+    public void sharedRoutesToLeastLoaded() throws Exception {
+        BucketPoolConfig config = config(2);
+        config.setShared(true);
+        BucketPool pool = new BucketPool(new BucketFactory(config, StubCluster::new), config, null);
+        Bucket first = pool.borrowObject();
+        // busy: shared while another one opens in the background
+        Assert.assertSame(first, pool.borrowObject());
+        pool.getShared().awaitFill();
+        pool.returnObject(first);
+        Bucket second = pool.borrowObject();
+        Assert.assertNotSame(first, second);
+        // both buckets busy and maxTotal reached: shared instead of waiting
+        Bucket third = pool.borrowObject();
+        Assert.assertEquals(2, pool.getInFlight(third));
+        pool.returnObject(third);
+        pool.returnObject(first);
+        Assert.assertSame(first, pool.borrowObject());
+        Assert.assertEquals(1, pool.getInFlight(first));
+        Assert.assertEquals(1, pool.getInFlight(second));
+        pool.returnObject(first);
+        pool.returnObject(second);
+        pool.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sharedRequiresBoundedMaxTotal() throws Exception {
+        BucketPoolConfig config = config(0);
+        config.setMaxTotal(-1);
+        config.setLazyClusters(true);
+        config.setShared(true);
+        new BucketPool(new BucketFactory(config, StubCluster::new), config, null);
+    }
+
+    @Test
+    public void sharedReplacesClosedBucket() throws Exception {
+        BucketPoolConfig config = config(1);
+        config.setShared(true);
+        BucketPool pool = new BucketPool(new BucketFactory(config, StubCluster::new), config, null);
+        Bucket first = pool.borrowObject();
+        first.close();
+        Bucket second = pool.borrowObject();
+        Assert.assertNotSame(first, second);
+        Assert.assertFalse(second.isClosed());
+        Assert.assertEquals(1, pool.getMetrics().getDestroyedCount());
+        // holders of the closed bucket return it as usual
+        pool.returnObject(first);
+        Assert.assertEquals(1, pool.getInFlight(second));
+        pool.returnObject(second);
+        Assert.assertSame(second, pool.borrowObject());
+        pool.returnObject(second);
+        pool.close();
+    }
+
+    @Test
+    public void sharedInvalidateReplacesBucketHeldByOthers() throws Exception {
+        BucketPoolConfig config = config(1);
+        config.setShared(true);
+        BucketPool pool = new BucketPool(new BucketFactory(config, StubCluster::new), config, null);
+        Bucket invalidated = pool.borrowObject();
+        Bucket held = pool.borrowObject();
+        Assert.assertSame(invalidated, held);
+        pool.invalidateObject(invalidated);
+        pool.getShared().awaitFill();
+        Assert.assertEquals(1, pool.getMetrics().getDestroyedCount());
+        Bucket replacement = pool.borrowObject();
+        Assert.assertNotSame(held, replacement);
+        Assert.assertFalse(replacement.isClosed());
+        // the other holder returns it as usual
+        pool.returnObject(held);
+        Assert.assertEquals(1, pool.getInFlight(replacement));
+        pool.returnObject(replacement);
+        Assert.assertEquals(1, pool.getMetrics().getDestroyedCount());
+        pool.close();
+    }
+
+    @Test
+    public void shardsStealAndKeepMaxTotal() throws Exception {
+        BucketPoolConfig config = config(4);
+        config.setMinIdle(2);
+        config.setShards(2);
+        config.setMaxWaitMillis(10);
+        BucketPool pool = new BucketPool(new BucketFactory(config, StubCluster::new), config, null);
+        Assert.assertEquals(2, pool.getNumIdle());
+        List<Bucket> borrowed = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            borrowed.add(pool.borrowObject());
+        }
+        Assert.assertEquals(4, pool.getNumActive());
+        try {
+            pool.borrowObject();
+            Assert.fail("maxTotal exceeded");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        borrowed.forEach(pool::returnObject);
+        Assert.assertEquals(4, pool.getNumIdle());
+        pool.close();
+    }
+
+    @Test
+    public void shardsWaitForBucketsReturnedToAnyShard() throws Exception {
+        BucketPoolConfig config = config(2);
+        config.setShards(2);
+        config.setMaxWaitMillis(-1);
+        BucketPool pool = new BucketPool(new BucketFactory(config, StubCluster::new), config, null);
+        Bucket first = pool.borrowObject();
+        Bucket second = pool.borrowObject();
+        // the same waiting thread gets buckets of both shards, one of which isn't its home
+        ExecutorService waiter = Executors.newSingleThreadExecutor();
+        CompletableFuture<Bucket> waited = CompletableFuture.supplyAsync(() -> borrow(pool), waiter);
+        Thread.sleep(50);
+        pool.returnObject(first);
+        Assert.assertSame(first, waited.get(1, TimeUnit.SECONDS));
+        pool.returnObject(first);
+        Assert.assertSame(first, pool.borrowObject());
+        waited = CompletableFuture.supplyAsync(() -> borrow(pool), waiter);
+        Thread.sleep(50);
+        pool.returnObject(second);
+        Assert.assertSame(second, waited.get(1, TimeUnit.SECONDS));
+        pool.returnObject(first);
+        pool.returnObject(second);
+        waiter.shutdown();
+        pool.close();
+    }
+
+    private static Bucket borrow(BucketPool pool) {
+        try {
+            return pool.borrowObject();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void affinityReusesAndHandsBack() throws Exception {
+        BucketPoolConfig config = config(1);
+        config.setAffinity(true);
+        config.setMaxWaitMillis(1000);
+        BucketPool pool = new BucketPool(new BucketFactory(config, StubCluster::new), config, null);
+        Bucket bucket = pool.borrowObject();
+        pool.returnObject(bucket);
+        long borrowed = pool.getBorrowedCount();
+        Assert.assertSame(bucket, pool.borrowObject());
+        Assert.assertEquals(borrowed, pool.getBorrowedCount());
+        pool.returnObject(bucket);
+
+        // another thread takes over the parked bucket
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Bucket stolen = executor.submit(() -> {
+            Bucket other = pool.borrowObject();
+            pool.returnObject(other);
+            return other;
+        }).get(5, TimeUnit.SECONDS);
+        Assert.assertSame(bucket, stolen);
+        executor.shutdown();
+
+        // an invalidated parked bucket is replaced
+        bucket = pool.borrowObject();
+        pool.returnObject(bucket);
+        bucket.close();
+        Bucket replaced = pool.borrowObject();
+        Assert.assertNotSame(bucket, replaced);
+        Assert.assertFalse(replaced.isClosed());
+        pool.returnObject(replaced);
+        pool.close();
+    }
+
+    @Test
+    public void affinityReclaimsBucketsOfDeadThreadsBeforeOpening() throws Exception {
+        BucketPoolConfig config = config(2);
+        config.setMinIdle(0);
+        config.setLazyClusters(true);
+        config.setAffinity(true);
+        BucketPool pool = new BucketPool(new BucketFactory(config, StubCluster::new), config, null);
+        Thread thread = new Thread(() -> pool.returnObject(borrow(pool)));
+        thread.start();
+        thread.join();
+        Assert.assertEquals(1, pool.getNumActive());
+
+        Bucket bucket = pool.borrowObject();
+        Assert.assertEquals(1, pool.getCreatedCount());
+        Assert.assertEquals(1, pool.getNumActive());
+        pool.returnObject(bucket);
+        pool.close();
+    }
+
+    @Test
+    public void affinityParkedBucketIsNotAbandoned() throws Exception {
+        BucketPoolConfig config = config(2);
+        config.setAffinity(true);
+        BucketPoolAbandonedConfig abandonedConfig = new BucketPoolAbandonedConfig();
+        abandonedConfig.setRemoveAbandonedOnBorrow(true);
+        abandonedConfig.setRemoveAbandonedTimeout(1);
+        BucketPool pool = new BucketPool(new BucketFactory(config, StubCluster::new), config, abandonedConfig);
+        Bucket bucket = pool.borrowObject();
+        pool.returnObject(bucket);
+        Thread.sleep(1100);
+
+        // borrowing from another thread removes abandoned buckets
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.submit(() -> pool.returnObject(borrow(pool))).get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+        Assert.assertEquals(0, pool.getDestroyedCount());
+        Assert.assertSame(bucket, pool.borrowObject());
+        Assert.assertFalse(bucket.isClosed());
+        pool.returnObject(bucket);
+        pool.close();
+    }
+
+    @Test
+    public void borrowAsyncWaitsWithoutThread() throws Exception {
+        BucketPoolConfig config = config(1);
+        BucketPool pool = new BucketPool(new BucketFactory(config, StubCluster::new), config, null);
+        Bucket bucket = pool.borrowObject();
+        CompletableFuture<Bucket> future = pool.borrowAsync();
+        Assert.assertFalse(future.isDone());
+        pool.returnObject(bucket);
+        Assert.assertSame(bucket, future.get(5, TimeUnit.SECONDS));
+        pool.returnObject(bucket);
+
+        JsonDocument document = JsonDocument.create("u:example", JsonObject.create().put("name", "myDoc"));
+        JsonDocument upserted = pool.executeAsync(async -> async.upsert(document)).toBlocking().single();
+        Assert.assertSame(document, upserted);
+        Assert.assertEquals(0, pool.getNumActive());
+        pool.close();
+    }
+
+    @Test
+    public void borrowAsyncOpensBucketsOffTheCallingThread() throws Exception {
+        BucketPoolConfig config = config(1);
+        config.setMinIdle(0);
+        config.setLazyClusters(true);
+        List<String> openers = new CopyOnWriteArrayList<>();
+        BucketPool pool = new BucketPool(new BucketFactory(config, () -> {
+            openers.add(Thread.currentThread().getName());
+            return new StubCluster();
+        }), config, null);
+        Bucket bucket = pool.borrowAsync().get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(Arrays.asList("bucketpool-async-open"), openers);
+        pool.returnObject(bucket);
+        // idle buckets are taken on the calling thread
+        CompletableFuture<Bucket> future = pool.borrowAsync();
+        Assert.assertTrue(future.isDone());
+        Assert.assertSame(bucket, future.get());
+        pool.returnObject(bucket);
+        pool.close();
+    }
+
+    @Test
+    public void borrowAsyncTimesOut() throws Exception {
+        BucketPoolConfig config = config(1);
+        BucketPool pool = new BucketPool(new BucketFactory(config, StubCluster::new), config, null);
+        Bucket bucket = pool.borrowObject();
+        try {
+            pool.borrowAsync(10).get(5, TimeUnit.SECONDS);
+            Assert.fail("borrowed from an exhausted pool");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof NoSuchElementException);
+        }
+        pool.returnObject(bucket);
+        Assert.assertEquals(1, pool.getNumIdle());
+        pool.close();
+    }
+
+    @Test
+    public void upsertAllBoundsInFlightPerBucket() throws Exception {
+        BucketPoolConfig config = config(2);
+        config.setBulkBuckets(2);
+        config.setBulkInFlight(3);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        ConcurrentHashMap<String, Document<?>> store = new ConcurrentHashMap<String, Document<?>>() {
+            @Override
+            public Document<?> put(String key, Document<?> value) {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                inFlight.decrementAndGet();
+                return super.put(key, value);
+            }
+        };
+        BucketPool pool = new BucketPool(new BucketFactory(config, () -> new StubCluster(store, 0, 1)), config, null);
+        List<JsonDocument> documents = new ArrayList<>();
+        IntStream.range(0, 60).forEach(nbr -> documents.add(JsonDocument.create("u:" + nbr)));
+        BulkResult<JsonDocument> result = pool.upsertAll(documents);
+        Assert.assertTrue(result.isSuccess());
+        Assert.assertEquals(60, result.getResults().size());
+        Assert.assertEquals(60, store.size());
+        Assert.assertTrue(maxInFlight.get() > 3);
+        Assert.assertTrue(maxInFlight.get() <= 6);
+        Assert.assertEquals(0, pool.getNumActive());
+        pool.close();
+    }
+
+    @Test
+    public void insertAllReportsFailures() throws Exception {
+        BucketPoolConfig config = config(2);
+        ConcurrentHashMap<String, Document<?>> store = new ConcurrentHashMap<>();
+        BucketPool pool = new BucketPool(new BucketFactory(config, () -> new StubCluster(store, 0, 0)), config, null);
+        Bucket bucket = pool.borrowObject();
+        bucket.insert(JsonDocument.create("u:1"));
+        pool.returnObject(bucket);
+        BulkResult<JsonDocument> result = pool
+                .insertAll(Arrays.asList(JsonDocument.create("u:1"), JsonDocument.create("u:2")));
+        Assert.assertFalse(result.isSuccess());
+        Assert.assertTrue(result.getFailures().get("u:1") instanceof DocumentAlreadyExistsException);
+        Assert.assertEquals("u:2", result.getResults().get("u:2").id());
+        Assert.assertEquals(2, pool.removeAll(Arrays.asList(JsonDocument.create("u:1"), JsonDocument.create("u:2")))
+                .getResults().size());
+        Assert.assertEquals(0, pool.getNumActive());
+        pool.close();
+    }
+
+    @Test
+    public void getAllOmitsMissing() throws Exception {
+        BucketPoolConfig config = config(2);
+        ConcurrentHashMap<String, Document<?>> store = new ConcurrentHashMap<>();
+        store.put("u:1", JsonDocument.create("u:1", JsonObject.create().put("name", "one")));
+        store.put("u:2", JsonDocument.create("u:2", JsonObject.create().put("name", "two")));
+        BucketPool pool = new BucketPool(new BucketFactory(config, () -> new StubCluster(store, 0, 1)), config, null);
+        Map<String, JsonDocument> documents = pool.getAll(Arrays.asList("u:1", "u:2", "u:3", "u:1"));
+        Assert.assertEquals(2, documents.size());
+        Assert.assertEquals("two", documents.get("u:2").content().getString("name"));
+        Assert.assertFalse(documents.containsKey("u:3"));
+        Assert.assertEquals(0, pool.getNumActive());
+        pool.close();
+    }
+
+    @Test
+    public void getAllStreamsAndReturnsBuckets() throws Exception {
+        BucketPoolConfig config = config(2);
+        ConcurrentHashMap<String, Document<?>> store = new ConcurrentHashMap<>();
+        IntStream.range(0, 1000).forEach(nbr -> store.put("u:" + nbr, JsonDocument.create("u:" + nbr)));
+        BucketPool pool = new BucketPool(new BucketFactory(config, () -> new StubCluster(store, 0, 1)), config, null);
+        Observable<String> ids = Observable.range(0, 2000).map(nbr -> "u:" + nbr);
+        Assert.assertEquals(1000, pool.getAll(ids, JsonDocument.class).count().toBlocking().single().intValue());
+        Assert.assertEquals(0, pool.getNumActive());
+
+        Assert.assertEquals(10, pool.getAll(ids, JsonDocument.class).take(10).toList().toBlocking().single().size());
+        // take unsubscribes right after completing downstream
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getNumActive() > 0 && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        Assert.assertEquals(0, pool.getNumActive());
+        pool.close();
+    }
+
+    private static StubCluster blocking(CountDownLatch release) {
+        return new StubCluster() {
+            @Override
+            public Bucket openBucket(String name) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.openBucket(name);
+            }
+        };
+    }
+
+    @Test
+    public void closeDrainsAndDisconnectsEveryCluster() throws Exception {
+        BucketPoolConfig config = config(2);
+        config.setMaxTotal(3);
+        config.setCloseTimeoutMillis(5000);
+        List<StubCluster> clusters = new ArrayList<>();
+        BucketPool pool = new BucketPool(new BucketFactory(config, () -> {
+            StubCluster cluster = new StubCluster();
+            synchronized (clusters) {
+                clusters.add(cluster);
+            }
+            return cluster;
+        }), config, null);
+        Bucket borrowed = pool.borrowObject();
+        CompletableFuture<Void> closed = CompletableFuture.runAsync(pool::close);
+        Thread.sleep(50);
+        Assert.assertFalse(closed.isDone());
+        try {
+            pool.borrowObject(0);
+            Assert.fail("The pool is closing");
+        } catch (IllegalStateException e) {
+        }
+        pool.returnObject(borrowed);
+        closed.get(1, TimeUnit.SECONDS);
+        Assert.assertEquals(3, clusters.size());
+        clusters.forEach(cluster -> Assert.assertTrue(cluster.isDisconnected()));
+        Assert.assertEquals(0, pool.getNumActive());
+    }
+
+    @Test
+    public void closeDisconnectsBorrowedBucketsAfterTimeout() throws Exception {
+        BucketPoolConfig config = config(1);
+        config.setCloseTimeoutMillis(100);
+        StubCluster cluster = new StubCluster();
+        BucketPool pool = new BucketPool(new BucketFactory(config, () -> cluster), config, null);
+        pool.borrowObject();
+        long start = System.nanoTime();
+        pool.close();
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        Assert.assertTrue(cluster.isDisconnected());
+    }
+
+    private static BucketPool healthCheckedPool(AtomicInteger clusters, int shards) throws Exception {
+        BucketPoolConfig config = config(2);
+        config.setMaxTotal(3);
+        config.setShards(shards);
+        config.setLazyClusters(true);
+        config.setHealthCheckIntervalMillis(60000);
+        config.setHealthCheckMaxLatencyMillis(100);
+        ConcurrentHashMap<String, Document<?>> store = new ConcurrentHashMap<>();
+        // the first cluster answers slowly, probes complete before check() returns
+        BucketPool pool = new BucketPool(new BucketFactory(config, () -> new StubCluster(store, 0,
+                clusters.getAndIncrement() == 0 ? TimeUnit.MILLISECONDS.toNanos(200) : 0, true)), config, null);
+        // load the classes of the probe, the first one would be slow on any bucket
+        Bucket first = pool.borrowObject();
+        Bucket second = pool.borrowObject();
+        for (Bucket bucket : Arrays.asList(first, second)) {
+            bucket.async().exists("id").timeout(1, TimeUnit.SECONDS).toBlocking().single();
+        }
+        pool.returnObject(second);
+        pool.returnObject(first);
+        return pool;
+    }
+
+    private static void checkHealth(BucketPool pool) throws Exception {
+        pool.getHealthChecker().check();
+        pool.getHealthChecker().awaitEvictions();
+        Assert.assertEquals(1, pool.getMetrics().getHealthCheckEvictions());
+        Assert.assertEquals(1, pool.getBucketHealth().values().stream().filter(latency -> latency > 100).count());
+    }
+
+    @Test
+    public void healthCheckReplacesSlowIdleBucket() throws Exception {
+        AtomicInteger clusters = new AtomicInteger();
+        BucketPool pool = healthCheckedPool(clusters, 1);
+        Assert.assertEquals(2, pool.getNumIdle());
+        checkHealth(pool);
+        Assert.assertEquals(1, pool.getMetrics().getDestroyedCount());
+        Assert.assertEquals(3, pool.getMetrics().getCreatedCount());
+        Assert.assertEquals(2, pool.getNumIdle());
+        pool.close();
+    }
+
+    @Test
+    public void healthCheckReplacesSlowIdleBucketOfShard() throws Exception {
+        AtomicInteger clusters = new AtomicInteger();
+        BucketPool pool = healthCheckedPool(clusters, 2);
+        Assert.assertEquals(2, pool.getNumIdle());
+        checkHealth(pool);
+        Assert.assertEquals(1, pool.getMetrics().getDestroyedCount());
+        Assert.assertEquals(3, pool.getMetrics().getCreatedCount());
+        Assert.assertEquals(2, pool.getNumIdle());
+        // the slow bucket's slot is free again
+        List<Bucket> borrowed = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            borrowed.add(pool.borrowObject(0));
+        }
+        borrowed.forEach(pool::returnObject);
+        pool.close();
+    }
+
+    @Test
+    public void healthCheckDestroysSlowBorrowedBucketOnReturn() throws Exception {
+        AtomicInteger clusters = new AtomicInteger();
+        BucketPool pool = healthCheckedPool(clusters, 1);
+        Bucket first = pool.borrowObject();
+        Bucket second = pool.borrowObject();
+        checkHealth(pool);
+        Assert.assertEquals(0, pool.getMetrics().getDestroyedCount());
+        pool.returnObject(first);
+        pool.returnObject(second);
+        Assert.assertEquals(1, pool.getMetrics().getDestroyedCount());
+        Assert.assertEquals(1, pool.getNumIdle());
+        pool.close();
+    }
+
+    @Test
+    public void leastLatencyPrefersFasterBucket() throws Exception {
+        BucketPoolConfig config = config(2);
+        config.setSelectionPolicy(SelectionPolicy.LEAST_LATENCY);
+        Assert.assertTrue(config.getLifo());
+        AtomicInteger clusters = new AtomicInteger();
+        ConcurrentHashMap<String, Document<?>> store = new ConcurrentHashMap<>();
+        BucketPool pool = new BucketPool(new BucketFactory(config, () -> new StubCluster(store, 0,
+                clusters.getAndIncrement() == 0 ? TimeUnit.MILLISECONDS.toNanos(20) : 1)), config, null);
+        Bucket first = pool.borrowObject();
+        Bucket second = pool.borrowObject();
+        first.get("id");
+        second.get("id");
+        long now = System.nanoTime();
+        Bucket fast = ((WrappedBucket) first).getRecentLatency(now) < ((WrappedBucket) second).getRecentLatency(now)
+                ? first : second;
+        Bucket slow = fast == first ? second : first;
+        Assert.assertTrue(((WrappedBucket) slow).getRecentLatency(now) >= TimeUnit.MILLISECONDS.toNanos(20));
+        // returned last, LIFO alone would hand the slow one out
+        pool.returnObject(fast);
+        pool.returnObject(slow);
+        Assert.assertSame(fast, pool.borrowObject());
+        pool.returnObject(fast);
+        for (int i = 0; i < 5; i++) {
+            Bucket bucket = pool.borrowObject();
+            Assert.assertSame(fast, bucket);
+            Assert.assertEquals(1, pool.getNumIdle());
+            pool.returnObject(bucket);
+        }
+        pool.close();
+    }
+
+    private static void awaitActiveGroup(BucketPool pool, int group) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getMetrics().getActiveClusterGroup() != group && System.currentTimeMillis() < deadline) {
+            pool.getHealthChecker().check();
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(group, pool.getMetrics().getActiveClusterGroup());
+    }
+
+    @Test
+    public void clusterGroupsFailOverAndBack() throws Exception {
+        BucketPoolConfig config = config(1);
+        config.setMaxTotal(2);
+        config.addClusterGroup("dc1");
+        config.addClusterGroup("dc2");
+        config.setHealthCheckIntervalMillis(60000);
+        config.setHealthCheckTimeoutMillis(50);
+        config.setHealthCheckMaxLatencyMillis(20);
+        config.setHealthCheckMaxFailures(1);
+        AtomicLong dc1Latency = new AtomicLong(1);
+        ConcurrentHashMap<String, Document<?>> store = new ConcurrentHashMap<>();
+        BucketPool pool = new BucketPool(new BucketFactory(nodes -> new StubCluster(store, 0,
+                "dc1".equals(nodes[0]) ? dc1Latency.get() : 1), config), config, null);
+        Bucket bucket = pool.borrowObject();
+        Assert.assertEquals(0, ((WrappedBucket) bucket).getCluster().getGroup());
+        pool.returnObject(bucket);
+
+        // the preferred group times out
+        dc1Latency.set(TimeUnit.MILLISECONDS.toNanos(200));
+        awaitActiveGroup(pool, 1);
+        Assert.assertEquals(1, pool.getMetrics().getClusterGroupFailovers());
+        // idle buckets of the preferred group are retired, not borrowed
+        bucket = pool.borrowObject();
+        Assert.assertEquals(1, ((WrappedBucket) bucket).getCluster().getGroup());
+        pool.returnObject(bucket);
+
+        // and recovers
+        dc1Latency.set(1);
+        awaitActiveGroup(pool, 0);
+        Assert.assertEquals(2, pool.getMetrics().getClusterGroupFailovers());
+        bucket = pool.borrowObject();
+        Assert.assertEquals(0, ((WrappedBucket) bucket).getCluster().getGroup());
+        pool.returnObject(bucket);
+        pool.close();
+    }
+
+    private static BucketPool queryPool(int rows) throws Exception {
+        BucketPoolConfig config = config(1);
+        config.setMaxTotal(1);
+        ConcurrentHashMap<String, Document<?>> store = new ConcurrentHashMap<>();
+        IntStream.range(0, rows).forEach(i -> store.put("row" + i,
+                JsonDocument.create("row" + i, JsonObject.create().put("n", i))));
+        return new BucketPool(new BucketFactory(config, () -> new StubCluster(store, 0, 0)), config, null);
+    }
+
+    @Test
+    public void queryRowsAreEmittedAsRequested() throws Exception {
+        BucketPool pool = queryPool(300);
+        TestSubscriber<AsyncN1qlQueryRow> subscriber = new TestSubscriber<>(0);
+        pool.queryRows(N1qlQuery.simple("SELECT * FROM default")).subscribe(subscriber);
+        subscriber.requestMore(10);
+        subscriber.assertValueCount(10);
+        Assert.assertEquals(1, pool.getNumActive());
+        subscriber.requestMore(Long.MAX_VALUE);
+        subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        subscriber.assertNoErrors();
+        subscriber.assertValueCount(300);
+        Assert.assertEquals(0, pool.getNumActive());
+
+        // unsubscribing returns the bucket too
+        List<AsyncN1qlQueryRow> first = pool.queryRows(N1qlQuery.simple("SELECT * FROM default")).take(5)
+                .toList().toBlocking().single();
+        Assert.assertEquals(5, first.size());
+        Assert.assertEquals(0, pool.getNumActive());
+        pool.close();
+    }
+
+    @Test
+    public void queryIteratorReturnsBucketWhenDoneOrClosed() throws Exception {
+        BucketPool pool = queryPool(300);
+        int count = 0;
+        try (QueryRowIterator rows = pool.queryIterator(N1qlQuery.simple("SELECT * FROM default"))) {
+            while (rows.hasNext()) {
+                Assert.assertTrue(rows.next().value().containsKey("n"));
+                count++;
+            }
+            Assert.assertEquals(0, pool.getNumActive());
+        }
+        Assert.assertEquals(300, count);
+
+        QueryRowIterator rows = pool.queryIterator(N1qlQuery.simple("SELECT * FROM default"));
+        rows.next();
+        Assert.assertEquals(1, pool.getNumActive());
+        rows.close();
+        Assert.assertFalse(rows.hasNext());
+        Assert.assertEquals(0, pool.getNumActive());
+        pool.close();
+    }
+}
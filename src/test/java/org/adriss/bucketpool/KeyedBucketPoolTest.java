@@ -0,0 +1,76 @@
+package org.adriss.bucketpool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.adriss.bucketpool.stub.StubCluster;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import com.couchbase.client.java.Bucket;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class KeyedBucketPoolTest {
+
+    private static KeyedBucketPoolConfig config() {
+        KeyedBucketPoolConfig config = new KeyedBucketPoolConfig();
+        config.setMaxTotalPerKey(2);
+        config.setJmxEnabled(false);
+        return config;
+    }
+
+    @Test
+    public void namesShareClusters() throws Exception {
+        List<StubCluster> clusters = new ArrayList<>();
+        KeyedBucketPool pool = new KeyedBucketPool(new KeyedBucketFactory(config(), () -> {
+            StubCluster cluster = new StubCluster();
+            clusters.add(cluster);
+            return cluster;
+        }), config());
+        Bucket users = pool.borrowObject("users");
+        Bucket sessions = pool.borrowObject("sessions");
+        Assert.assertEquals("users", users.name());
+        Assert.assertEquals("sessions", sessions.name());
+        Assert.assertSame(((WrappedBucket) users).getCluster(), ((WrappedBucket) sessions).getCluster());
+        Assert.assertEquals(1, pool.getNumClusters());
+
+        Bucket moreUsers = pool.borrowObject("users");
+        Bucket moreSessions = pool.borrowObject("sessions");
+        Assert.assertSame(((WrappedBucket) moreUsers).getCluster(), ((WrappedBucket) moreSessions).getCluster());
+        Assert.assertEquals(2, pool.getNumClusters());
+
+        pool.invalidateObject("users", users);
+        Bucket reopened = pool.borrowObject("users");
+        Assert.assertSame(((WrappedBucket) sessions).getCluster(), ((WrappedBucket) reopened).getCluster());
+        Assert.assertEquals(2, pool.getNumClusters());
+
+        pool.returnObject("users", reopened);
+        pool.returnObject("users", moreUsers);
+        pool.returnObject("sessions", sessions);
+        pool.returnObject("sessions", moreSessions);
+        pool.close();
+        Assert.assertEquals(2, clusters.size());
+        clusters.forEach(cluster -> Assert.assertTrue(cluster.isDisconnected()));
+    }
+
+    @Test
+    public void limitsPerName() throws Exception {
+        KeyedBucketPoolConfig config = config();
+        config.setMaxTotalPerName("events", 1);
+        KeyedBucketPool pool = new KeyedBucketPool(new KeyedBucketFactory(config, StubCluster::new), config);
+        Bucket events = pool.borrowObject("events");
+        try {
+            pool.borrowObject("events", 20);
+            Assert.fail("events is limited to one bucket");
+        } catch (NoSuchElementException e) {
+        }
+        pool.returnObject("users", pool.borrowObject("users"));
+        pool.returnObject("events", events);
+        Assert.assertSame(events, pool.borrowObject("events", 20));
+        pool.returnObject("events", events);
+        pool.close();
+    }
+}
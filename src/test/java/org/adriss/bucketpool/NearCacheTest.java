@@ -0,0 +1,118 @@
+package org.adriss.bucketpool;
+
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.adriss.bucketpool.stub.StubCluster;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.Document;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class NearCacheTest {
+
+    @Test
+    public void mutationOnAnyBucketInvalidates() throws Exception {
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(2);
+        config.setNearCacheSize(10);
+        config.setJmxEnabled(false);
+        ConcurrentHashMap<String, Document<?>> store = new ConcurrentHashMap<>();
+        BucketPool pool = new BucketPool(new BucketFactory(config, () -> new StubCluster(store, 0, 0)), config, null);
+        Bucket reader = pool.borrowObject();
+        Bucket writer = pool.borrowObject();
+        writer.upsert(JsonDocument.create("u:1", JsonObject.create().put("name", "one")));
+
+        Assert.assertEquals("one", reader.get("u:1").content().getString("name"));
+        Assert.assertSame(reader.get("u:1"), writer.get("u:1"));
+        Assert.assertEquals(2, pool.getNearCache().getHits());
+        Assert.assertEquals(1, pool.getNearCache().getMisses());
+
+        writer.upsert(JsonDocument.create("u:1", JsonObject.create().put("name", "uno")));
+        Assert.assertEquals(1, pool.getNearCache().getInvalidations());
+        Assert.assertEquals("uno", reader.get("u:1").content().getString("name"));
+        writer.remove("u:1");
+        Assert.assertNull(reader.get("u:1"));
+        Assert.assertEquals(0, pool.getNearCache().getSize());
+        pool.returnObject(reader);
+        pool.returnObject(writer);
+
+        store.put("u:2", JsonDocument.create("u:2"));
+        Assert.assertNotNull(pool.getAll(Collections.singleton("u:2")).get("u:2"));
+        Assert.assertNotNull(reader.get("u:2"));
+        pool.removeAll(Collections.singleton(JsonDocument.create("u:2")));
+        Assert.assertNull(reader.get("u:2"));
+        pool.close();
+    }
+
+    @Test
+    public void asyncMutationInvalidates() throws Exception {
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(1);
+        config.setNearCacheSize(10);
+        config.setJmxEnabled(false);
+        ConcurrentHashMap<String, Document<?>> store = new ConcurrentHashMap<>();
+        BucketPool pool = new BucketPool(new BucketFactory(config, () -> new StubCluster(store, 0, 0)), config, null);
+        Bucket bucket = pool.borrowObject();
+        bucket.upsert(JsonDocument.create("u:1", JsonObject.create().put("name", "one")));
+        Assert.assertEquals("one", bucket.get("u:1").content().getString("name"));
+
+        bucket.async().upsert(JsonDocument.create("u:1", JsonObject.create().put("name", "uno"))).toBlocking()
+                .single();
+        Assert.assertEquals("uno", bucket.get("u:1").content().getString("name"));
+        pool.returnObject(bucket);
+
+        pool.executeAsync(async -> async.remove("u:1")).toBlocking().single();
+        Assert.assertEquals(0, pool.getNearCache().getSize());
+        pool.close();
+    }
+
+    @Test
+    public void expiresAfterTtl() throws Exception {
+        NearCache cache = new NearCache(10, 20);
+        JsonDocument document = JsonDocument.create("u:1");
+        cache.get("u:1", JsonDocument.class, () -> document);
+        Assert.assertSame(document, cache.get("u:1", JsonDocument.class, () -> null));
+        TimeUnit.MILLISECONDS.sleep(30);
+        Assert.assertNull(cache.get("u:1", JsonDocument.class, () -> null));
+        Assert.assertEquals(1, cache.getExpirations());
+
+        JsonDocument expiring = JsonDocument.create("u:2", 1, JsonObject.empty());
+        NearCache longLived = new NearCache(10, TimeUnit.HOURS.toMillis(1));
+        longLived.get("u:2", JsonDocument.class, () -> expiring);
+        TimeUnit.MILLISECONDS.sleep(1100);
+        Assert.assertNull(longLived.get("u:2", JsonDocument.class, () -> null));
+    }
+
+    @Test
+    public void evictsLeastRecentlyRead() throws Exception {
+        NearCache cache = new NearCache(2, TimeUnit.HOURS.toMillis(1));
+        cache.get("a", JsonDocument.class, () -> JsonDocument.create("a"));
+        cache.get("b", JsonDocument.class, () -> JsonDocument.create("b"));
+        cache.get("a", JsonDocument.class, () -> null);
+        cache.get("c", JsonDocument.class, () -> JsonDocument.create("c"));
+        Assert.assertEquals(2, cache.getSize());
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertNotNull(cache.get("a", JsonDocument.class, () -> null));
+        Assert.assertNull(cache.get("b", JsonDocument.class, () -> null));
+    }
+
+    @Test
+    public void invalidatedLoadIsNotCached() throws Exception {
+        NearCache cache = new NearCache(10, TimeUnit.HOURS.toMillis(1));
+        JsonDocument stale = cache.get("a", JsonDocument.class, () -> {
+            // a mutation completing while the get is in flight
+            cache.invalidate("a");
+            return JsonDocument.create("a");
+        });
+        Assert.assertNotNull(stale);
+        Assert.assertEquals(0, cache.getSize());
+    }
+}
@@ -0,0 +1,82 @@
+package org.adriss.bucketpool;
+
+import org.adriss.bucketpool.stub.StubCluster;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.error.DocumentDoesNotExistException;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class OperationMetricsTest {
+
+    @Test
+    public void histogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 1000; nanos++) {
+            histogram.record(nanos * 1000);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000000, histogram.getMax());
+        Assert.assertEquals(500500, histogram.getMean(), 0.001);
+        // bins are accurate to 12.5%
+        Assert.assertEquals(500000, histogram.getValueAtPercentile(50), 500000 * 0.125);
+        Assert.assertEquals(990000, histogram.getValueAtPercentile(99), 990000 * 0.125);
+        Assert.assertEquals(1000000, histogram.getValueAtPercentile(100), 1000000 * 0.125);
+    }
+
+    @Test
+    public void binsCoverEveryValue() {
+        for (int shift = 0; shift < 63; shift++) {
+            long value = 1L << shift;
+            int bin = LatencyHistogram.bin(value);
+            Assert.assertTrue(LatencyHistogram.lowestValue(bin) <= value);
+            Assert.assertEquals(bin, LatencyHistogram.bin(LatencyHistogram.lowestValue(bin)));
+        }
+        LatencyHistogram.bin(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void wrappedBucketRecordsPerOperation() {
+        WrappedBucket bucket = new WrappedBucket(new WrappedCluster(new StubCluster(), "default"), "default",
+                new OperationMetrics());
+        bucket.open();
+        bucket.upsert(JsonDocument.create("u:example"));
+        bucket.get("u:example");
+        bucket.get("u:missing");
+        try {
+            bucket.remove("u:missing");
+            Assert.fail("removed a missing document");
+        } catch (DocumentDoesNotExistException e) {
+            // expected
+        }
+        Assert.assertEquals(2, bucket.getOperationMetrics().getLatency(Operation.GET).getCount());
+        Assert.assertEquals(1, bucket.getOperationMetrics().getLatency(Operation.UPSERT).getCount());
+        Assert.assertEquals(1, bucket.getOperationMetrics().getErrors(Operation.REMOVE));
+        Assert.assertEquals(0, bucket.getOperationMetrics().getErrors(Operation.GET));
+    }
+
+    @Test
+    public void poolAddsUpLiveAndDestroyedBuckets() throws Exception {
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(2);
+        config.setOperationMetrics(true);
+        config.setJmxEnabled(false);
+        BucketPool pool = new BucketPool(new BucketFactory(config, StubCluster::new), config, null);
+        Bucket first = pool.borrowObject();
+        Bucket second = pool.borrowObject();
+        first.upsert(JsonDocument.create("u:example"));
+        second.get("u:example");
+        Assert.assertEquals(2, pool.getBucketOperationMetrics().size());
+        pool.invalidateObject(first);
+        OperationMetrics metrics = pool.getOperationMetrics();
+        Assert.assertEquals(1, metrics.getLatency(Operation.UPSERT).getCount());
+        Assert.assertEquals(1, metrics.getLatency(Operation.GET).getCount());
+        Assert.assertEquals(1, pool.getBucketOperationMetrics().size());
+        pool.returnObject(second);
+        pool.close();
+    }
+}
@@ -0,0 +1,96 @@
+package org.adriss.bucketpool;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import com.couchbase.client.core.ClusterFacade;
+import com.couchbase.client.core.message.CouchbaseRequest;
+import com.couchbase.client.core.message.CouchbaseResponse;
+import com.couchbase.client.core.message.ResponseStatus;
+import com.couchbase.client.core.message.query.GenericQueryRequest;
+import com.couchbase.client.core.message.query.GenericQueryResponse;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+import com.couchbase.client.java.query.N1qlParams;
+import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.query.N1qlQueryResult;
+import com.couchbase.client.java.query.core.N1qlQueryExecutor;
+
+import rx.Observable;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class QueryPlanCacheTest {
+
+    /**
+     * Answers PREPARE statements with a plan and any other query with a row.
+     */
+    private static class PlanningCore implements ClusterFacade {
+        private final AtomicInteger prepares = new AtomicInteger();
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <R extends CouchbaseResponse> Observable<R> send(CouchbaseRequest request) {
+            boolean prepare = ((GenericQueryRequest) request).query().contains("PREPARE");
+            if (prepare) {
+                this.prepares.incrementAndGet();
+            }
+            String row = prepare ? "{\"name\":\"plan-" + this.prepares.get() + "\",\"encoded_plan\":\"plan\"}"
+                    : "{\"value\":1}";
+            return Observable.just((R) new GenericQueryResponse(Observable.empty(),
+                    Observable.just(Unpooled.copiedBuffer(row, StandardCharsets.UTF_8)), Observable.empty(),
+                    Observable.just("success"), Observable.empty(), request, ResponseStatus.SUCCESS, "id", ""));
+        }
+    }
+
+    private static N1qlQueryResult query(N1qlQueryExecutor executor, String statement) {
+        N1qlQuery query = N1qlQuery.simple(statement, N1qlParams.build().adhoc(false));
+        return executor.execute(query).flatMap(N1qlQueryExecutor.ASYNC_RESULT_TO_SYNC).timeout(5, TimeUnit.SECONDS)
+                .toBlocking().single();
+    }
+
+    @Test
+    public void bucketsSharePlans() {
+        QueryPlanCache cache = new QueryPlanCache(10, 2);
+        PlanningCore core = new PlanningCore();
+        Assert.assertTrue(query(cache.executor(core, "default", 0), "SELECT 1").finalSuccess());
+        Assert.assertTrue(query(cache.executor(core, "default", 0), "SELECT 1").finalSuccess());
+        Assert.assertEquals(1, core.prepares.get());
+        Assert.assertEquals(1, cache.getPrepares());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.size());
+
+        // another cluster group prepares its own plan
+        query(cache.executor(core, "default", 1), "SELECT 1");
+        Assert.assertEquals(2, cache.getPrepares());
+        Assert.assertEquals(2, cache.size());
+
+        Assert.assertEquals(2, cache.invalidate());
+        Assert.assertEquals(0, cache.size());
+        query(cache.executor(core, "default", 0), "SELECT 1");
+        Assert.assertEquals(3, cache.getPrepares());
+        Assert.assertEquals(1, cache.getInvalidations());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedPlans() {
+        QueryPlanCache cache = new QueryPlanCache(2, 1);
+        PlanningCore core = new PlanningCore();
+        N1qlQueryExecutor executor = cache.executor(core, "default", 0);
+        query(executor, "SELECT 1");
+        query(executor, "SELECT 2");
+        query(executor, "SELECT 1");
+        query(executor, "SELECT 3");
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(3, cache.getPrepares());
+        query(executor, "SELECT 1");
+        Assert.assertEquals(3, cache.getPrepares());
+        query(executor, "SELECT 2");
+        Assert.assertEquals(4, cache.getPrepares());
+    }
+}
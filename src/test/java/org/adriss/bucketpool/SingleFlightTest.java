@@ -0,0 +1,130 @@
+package org.adriss.bucketpool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.adriss.bucketpool.stub.StubCluster;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.Document;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.RawJsonDocument;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class SingleFlightTest {
+
+    @Test
+    public void concurrentGetsAcrossBucketsShareOneRead() throws Exception {
+        final int readers = 8;
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(readers);
+        config.setSingleFlight(true);
+        config.setJmxEnabled(false);
+        AtomicInteger reads = new AtomicInteger();
+        ConcurrentHashMap<String, Document<?>> store = new ConcurrentHashMap<String, Document<?>>() {
+            @Override
+            public Document<?> get(Object key) {
+                reads.incrementAndGet();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.get(key);
+            }
+        };
+        store.put("u:1", JsonDocument.create("u:1"));
+        BucketPool pool = new BucketPool(new BucketFactory(config, () -> new StubCluster(store, 0, 0)), config, null);
+        List<Bucket> buckets = new ArrayList<>();
+        for (int i = 0; i < readers; i++) {
+            buckets.add(pool.borrowObject());
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(readers);
+        List<Future<JsonDocument>> results = new ArrayList<>();
+        for (Bucket bucket : buckets) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return bucket.get("u:1");
+            }));
+        }
+        start.countDown();
+        for (Future<JsonDocument> result : results) {
+            Assert.assertEquals("u:1", result.get(5, TimeUnit.SECONDS).id());
+        }
+        executor.shutdown();
+        Assert.assertTrue(reads.get() < readers);
+        Assert.assertEquals(readers, reads.get() + pool.getDeduplicatedReads());
+        buckets.forEach(pool::returnObject);
+        pool.close();
+    }
+
+    @Test
+    public void waitersShareTheFailure() throws Exception {
+        SingleFlight singleFlight = new SingleFlight();
+        CountDownLatch inFlight = new CountDownLatch(1);
+        IllegalStateException failure = new IllegalStateException("read failed");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Object> leader = executor.submit(() -> singleFlight.execute(Operation.GET, "u:1", null, () -> {
+            inFlight.countDown();
+            try {
+                TimeUnit.MILLISECONDS.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw failure;
+        }));
+        Assert.assertTrue(inFlight.await(5, TimeUnit.SECONDS));
+        try {
+            singleFlight.execute(Operation.GET, "u:1", null, () -> null);
+            Assert.fail("the read failed");
+        } catch (IllegalStateException e) {
+            Assert.assertSame(failure, e);
+        }
+        Assert.assertEquals(1, singleFlight.getDeduplicated());
+        try {
+            leader.get(5, TimeUnit.SECONDS);
+            Assert.fail("the read failed");
+        } catch (ExecutionException e) {
+            Assert.assertSame(failure, e.getCause());
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void differentReadsAreNotCoalesced() throws Exception {
+        SingleFlight singleFlight = new SingleFlight();
+        Object result = singleFlight.execute(Operation.GET, "u:1", JsonDocument.class,
+                () -> singleFlight.execute(Operation.GET, "u:1", RawJsonDocument.class,
+                        () -> singleFlight.execute(Operation.EXISTS, "u:1", null, () -> Boolean.TRUE)));
+        Assert.assertEquals(Boolean.TRUE, result);
+        Assert.assertEquals(0, singleFlight.getDeduplicated());
+    }
+
+    @Test
+    public void readAfterMutationDoesNotJoinEarlierRead() throws Exception {
+        SingleFlight singleFlight = new SingleFlight();
+        Object result = singleFlight.execute(Operation.GET, "u:1", null, () -> {
+            // a mutation completes while the first read is in flight
+            singleFlight.forget("u:1");
+            return singleFlight.execute(Operation.GET, "u:1", null, () -> "written");
+        });
+        Assert.assertEquals("written", result);
+        Assert.assertEquals(0, singleFlight.getDeduplicated());
+        Assert.assertEquals("u:1", singleFlight.execute(Operation.LOOKUP_IN, "u:1", null,
+                () -> singleFlight.execute(Operation.GET, "u:1", null, () -> "u:1")));
+        Assert.assertEquals(0, singleFlight.getDeduplicated());
+    }
+}
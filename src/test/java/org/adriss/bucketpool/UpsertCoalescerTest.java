@@ -0,0 +1,131 @@
+package org.adriss.bucketpool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.adriss.bucketpool.stub.StubCluster;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.Document;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class UpsertCoalescerTest {
+
+    @Test
+    public void upsertsInFlightAreCoalesced() throws Exception {
+        final int writers = 8;
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(writers);
+        config.setUpsertCoalescingWindowMicros(0);
+        config.setJmxEnabled(false);
+        AtomicInteger writes = new AtomicInteger();
+        ConcurrentHashMap<String, Document<?>> store = new ConcurrentHashMap<String, Document<?>>() {
+            @Override
+            public Document<?> put(String key, Document<?> value) {
+                writes.incrementAndGet();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.put(key, value);
+            }
+        };
+        BucketPool pool = new BucketPool(new BucketFactory(config, () -> new StubCluster(store, 0, 0)), config, null);
+        List<Bucket> buckets = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            buckets.add(pool.borrowObject());
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        List<Future<JsonDocument>> results = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            Bucket bucket = buckets.get(i);
+            JsonDocument document = JsonDocument.create("u:example", JsonObject.create().put("version", i));
+            results.add(executor.submit(() -> {
+                start.await();
+                return bucket.upsert(document);
+            }));
+        }
+        start.countDown();
+        List<JsonDocument> written = new ArrayList<>();
+        for (Future<JsonDocument> result : results) {
+            written.add(result.get(5, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        Assert.assertTrue(writes.get() < writers);
+        Assert.assertEquals(writers, writes.get() + pool.getCoalescedUpserts());
+        // the last write wins and is returned to the callers of its batch
+        Assert.assertTrue(written.contains(store.get("u:example")));
+        buckets.forEach(pool::returnObject);
+        pool.close();
+    }
+
+    @Test
+    public void windowCollectsUpserts() throws Exception {
+        UpsertCoalescer coalescer = new UpsertCoalescer(TimeUnit.MILLISECONDS.toMicros(200));
+        AtomicInteger writes = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<Future<JsonDocument>> results = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            JsonDocument document = JsonDocument.create("u:1", JsonObject.create().put("version", i));
+            results.add(executor.submit(() -> {
+                start.await();
+                return coalescer.upsert(document, -1, latest -> {
+                    writes.incrementAndGet();
+                    return latest;
+                });
+            }));
+        }
+        start.countDown();
+        JsonDocument written = results.get(0).get(5, TimeUnit.SECONDS);
+        Assert.assertSame(written, results.get(1).get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, writes.get());
+        Assert.assertEquals(1, coalescer.getCoalesced());
+        executor.shutdown();
+    }
+
+    @Test
+    public void waitForPreviousWriteIsBoundedByTimeout() throws Exception {
+        UpsertCoalescer coalescer = new UpsertCoalescer(0);
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<JsonDocument> slow = executor.submit(() -> coalescer.upsert(JsonDocument.create("u:1"), -1, latest -> {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return latest;
+        }));
+        Assert.assertTrue(writing.await(5, TimeUnit.SECONDS));
+        try {
+            coalescer.upsert(JsonDocument.create("u:1"), TimeUnit.MILLISECONDS.toNanos(20), latest -> latest);
+            Assert.fail("the previous write is still in flight");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        release.countDown();
+        Assert.assertNotNull(slow.get(5, TimeUnit.SECONDS));
+        JsonDocument next = JsonDocument.create("u:1");
+        Assert.assertSame(next, coalescer.upsert(next, TimeUnit.SECONDS.toNanos(5), latest -> latest));
+        executor.shutdown();
+    }
+}
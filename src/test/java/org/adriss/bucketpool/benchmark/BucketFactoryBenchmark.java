@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool.benchmark;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.adriss.bucketpool.BucketFactory;
+import org.adriss.bucketpool.BucketPoolConfig;
+import org.adriss.bucketpool.stub.StubCluster;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.Document;
+
+/**
+ * Measures {@link BucketFactory#create()} throughput when each bucket open
+ * takes <code>openDelayMillis</code>, simulating the bootstrap round trip.
+ * With creators opening in parallel the throughput scales with the number
+ * of benchmark threads; serialized creators would stay flat at
+ * <code>1 / openDelayMillis</code>.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BucketFactoryBenchmark {
+
+    @Param({ "1" })
+    public long openDelayMillis;
+
+    private BucketFactory factory;
+
+    @Setup
+    public void setup() {
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(256);
+        ConcurrentMap<String, Document<?>> store = new ConcurrentHashMap<>();
+        long openDelayNanos = TimeUnit.MILLISECONDS.toNanos(this.openDelayMillis);
+        this.factory = new BucketFactory(config, () -> new StubCluster(store, openDelayNanos, 0));
+    }
+
+    @Benchmark
+    public Bucket createDestroy() throws Exception {
+        Bucket bucket = this.factory.create();
+        this.factory.destroyObject(this.factory.wrap(bucket));
+        return bucket;
+    }
+}
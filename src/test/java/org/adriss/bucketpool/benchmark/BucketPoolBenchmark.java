@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool.benchmark;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.adriss.bucketpool.BucketFactory;
+import org.adriss.bucketpool.BucketPool;
+import org.adriss.bucketpool.BucketPoolConfig;
+import org.adriss.bucketpool.stub.StubCluster;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.Document;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+
+/**
+ * Measures {@link BucketPool#borrowObject()} / {@link BucketPool#returnObject}
+ * against in-process {@link StubCluster}s, so the numbers reflect the pool's
+ * own bookkeeping rather than the network.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BucketPoolBenchmark {
+
+    @Param({ "4", "16" })
+    public int maxTotal;
+
+    @Param({ "1", "4" })
+    public int shards;
+
+    @Param({ "false", "true" })
+    public boolean affinity;
+
+    private final JsonDocument document = JsonDocument.create("u:example", JsonObject.create().put("name", "myDoc"));
+    private BucketPool pool;
+
+    @Setup
+    public void setup() throws Exception {
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(this.maxTotal);
+        config.setMaxIdle(this.maxTotal);
+        config.setMinIdle(this.maxTotal / 2);
+        config.setShards(this.shards);
+        config.setAffinity(this.affinity);
+        config.setJmxEnabled(false);
+        ConcurrentMap<String, Document<?>> store = new ConcurrentHashMap<>();
+        this.pool = new BucketPool(new BucketFactory(config, () -> new StubCluster(store, 0, 0)), config, null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.pool.close();
+    }
+
+    @Benchmark
+    public Bucket borrowReturn() throws Exception {
+        Bucket bucket = this.pool.borrowObject();
+        this.pool.returnObject(bucket);
+        return bucket;
+    }
+
+    @Benchmark
+    public JsonDocument borrowUpsertReturn() throws Exception {
+        Bucket bucket = this.pool.borrowObject();
+        try {
+            return bucket.upsert(this.document);
+        } finally {
+            this.pool.returnObject(bucket);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.adriss.bucketpool.BucketFactory;
+import org.adriss.bucketpool.BucketPool;
+import org.adriss.bucketpool.BucketPoolConfig;
+import org.adriss.bucketpool.BulkResult;
+import org.adriss.bucketpool.stub.StubCluster;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.Document;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+
+/**
+ * An ingest job upserting a batch of {@link #BATCH} documents, each upsert
+ * taking <code>latencyMicros</code>: one borrow and blocking upsert per
+ * document against {@link BucketPool#upsertAll(java.util.Collection)}.
+ * Throughput is in documents.
+ * <p>
+ * <code>mvn -Pbenchmark verify -Dbenchmark.include=BulkBenchmark -Dbenchmark.threads=1</code>
+ * </p>
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @Param({ "100" })
+    public long latencyMicros;
+
+    @Param({ "16", "64" })
+    public int bulkInFlight;
+
+    private final List<JsonDocument> documents = new ArrayList<>();
+    private BucketPool pool;
+
+    @Setup
+    public void setup() throws Exception {
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(4);
+        config.setMinIdle(4);
+        config.setBulkBuckets(4);
+        config.setBulkInFlight(this.bulkInFlight);
+        config.setJmxEnabled(false);
+        ConcurrentMap<String, Document<?>> store = new ConcurrentHashMap<>();
+        long latencyNanos = TimeUnit.MICROSECONDS.toNanos(this.latencyMicros);
+        this.pool = new BucketPool(new BucketFactory(config, () -> new StubCluster(store, 0, latencyNanos)), config,
+                null);
+        for (int i = 0; i < BATCH; i++) {
+            this.documents.add(JsonDocument.create("u:" + i, JsonObject.create().put("name", "myDoc")));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.pool.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int loopOfBorrows() throws Exception {
+        int upserted = 0;
+        for (JsonDocument document : this.documents) {
+            Bucket bucket = this.pool.borrowObject();
+            try {
+                bucket.upsert(document);
+                upserted++;
+            } finally {
+                this.pool.returnObject(bucket);
+            }
+        }
+        return upserted;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public BulkResult<JsonDocument> upsertAll() throws Exception {
+        return this.pool.upsertAll(this.documents);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool.benchmark;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.adriss.bucketpool.BucketFactory;
+import org.adriss.bucketpool.BucketPool;
+import org.adriss.bucketpool.BucketPoolConfig;
+import org.adriss.bucketpool.stub.StubCluster;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.Document;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+
+/**
+ * The README workload: 100 threads upserting the same document through a
+ * pool of <code>maxTotal=4</code>, with each upsert taking
+ * <code>latencyMicros</code>. Compares exclusive borrows with shared mode,
+ * with and without upsert coalescing.
+ * <p>
+ * <code>mvn -Pbenchmark verify -Dbenchmark.include=SharedModeBenchmark -Dbenchmark.threads=100</code>
+ * </p>
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(100)
+@Fork(1)
+public class SharedModeBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean shared;
+
+    @Param({ "100" })
+    public long latencyMicros;
+
+    @Param({ "-1", "0" })
+    public long upsertCoalescingWindowMicros;
+
+    private final JsonDocument document = JsonDocument.create("u:example", JsonObject.create().put("name", "myDoc"));
+    private BucketPool pool;
+
+    @Setup
+    public void setup() throws Exception {
+        BucketPoolConfig config = new BucketPoolConfig();
+        config.setMaxTotal(4);
+        config.setMaxIdle(3);
+        config.setMinIdle(2);
+        config.setShared(this.shared);
+        config.setUpsertCoalescingWindowMicros(this.upsertCoalescingWindowMicros);
+        config.setJmxEnabled(false);
+        ConcurrentMap<String, Document<?>> store = new ConcurrentHashMap<>();
+        long latencyNanos = TimeUnit.MICROSECONDS.toNanos(this.latencyMicros);
+        this.pool = new BucketPool(new BucketFactory(config, () -> new StubCluster(store, 0, latencyNanos)), config,
+                null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.pool.close();
+    }
+
+    @Benchmark
+    public JsonDocument upsert() throws Exception {
+        Bucket bucket = this.pool.borrowObject();
+        try {
+            return bucket.upsert(this.document);
+        } finally {
+            this.pool.returnObject(bucket);
+        }
+    }
+}
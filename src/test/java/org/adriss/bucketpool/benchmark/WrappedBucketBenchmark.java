@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.adriss.bucketpool.OperationMetrics;
+import org.adriss.bucketpool.WrappedBucket;
+import org.adriss.bucketpool.WrappedCluster;
+import org.adriss.bucketpool.stub.StubCluster;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+
+/**
+ * Measures the overhead of the {@link WrappedBucket} delegation layer by
+ * calling the same {@link Bucket} operations directly, through the wrapper
+ * and through a wrapper recording {@link OperationMetrics}.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WrappedBucketBenchmark {
+
+    private final JsonDocument document = JsonDocument.create("u:example", JsonObject.create().put("name", "myDoc"));
+    private Bucket direct;
+    private WrappedBucket wrapped;
+    private WrappedBucket measured;
+
+    @Setup
+    public void setup() {
+        StubCluster cluster = new StubCluster();
+        this.direct = cluster.openBucket("default");
+        this.wrapped = new WrappedBucket(new WrappedCluster(cluster, "default"), "default");
+        this.wrapped.open();
+        this.measured = new WrappedBucket(new WrappedCluster(cluster, "default"), "default", new OperationMetrics());
+        this.measured.open();
+        this.direct.upsert(this.document);
+    }
+
+    @Benchmark
+    public JsonDocument directGet() {
+        return this.direct.get(this.document.id());
+    }
+
+    @Benchmark
+    public JsonDocument wrappedGet() {
+        return this.wrapped.get(this.document.id());
+    }
+
+    @Benchmark
+    public JsonDocument measuredGet() {
+        return this.measured.get(this.document.id());
+    }
+
+    @Benchmark
+    public JsonDocument directUpsert() {
+        return this.direct.upsert(this.document);
+    }
+
+    @Benchmark
+    public JsonDocument wrappedUpsert() {
+        return this.wrapped.upsert(this.document);
+    }
+
+    @Benchmark
+    public JsonDocument measuredUpsert() {
+        return this.measured.upsert(this.document);
+    }
+}
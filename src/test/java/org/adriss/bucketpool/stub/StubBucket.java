@@ -0,0 +1,1263 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool.stub;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.couchbase.client.core.ClusterFacade;
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.PersistTo;
+import com.couchbase.client.java.ReplicaMode;
+import com.couchbase.client.java.ReplicateTo;
+import com.couchbase.client.java.bucket.BucketManager;
+import com.couchbase.client.java.datastructures.MutationOptionBuilder;
+import com.couchbase.client.java.document.Document;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.JsonLongDocument;
+import com.couchbase.client.java.env.CouchbaseEnvironment;
+import com.couchbase.client.java.error.DocumentAlreadyExistsException;
+import com.couchbase.client.java.error.DocumentDoesNotExistException;
+import com.couchbase.client.java.query.AsyncN1qlQueryResult;
+import com.couchbase.client.java.query.AsyncN1qlQueryRow;
+import com.couchbase.client.java.query.DefaultAsyncN1qlQueryResult;
+import com.couchbase.client.java.query.DefaultAsyncN1qlQueryRow;
+import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.query.N1qlQueryResult;
+import com.couchbase.client.java.query.Statement;
+import com.couchbase.client.java.repository.Repository;
+import com.couchbase.client.java.search.SearchQuery;
+import com.couchbase.client.java.search.result.SearchQueryResult;
+import com.couchbase.client.java.subdoc.LookupInBuilder;
+import com.couchbase.client.java.subdoc.MutateInBuilder;
+import com.couchbase.client.java.view.SpatialViewQuery;
+import com.couchbase.client.java.view.SpatialViewResult;
+import com.couchbase.client.java.view.ViewQuery;
+import com.couchbase.client.java.view.ViewResult;
+
+import rx.Observable;
+import rx.schedulers.Schedulers;
+
+/**
+ * An in-process {@link Bucket} backed by a map shared with the other buckets
+ * of its {@link StubCluster}. It stands in for a live Couchbase Server in
+ * tests and benchmarks; only the key-value operations exercised by the pool
+ * and their {@link #async()} counterparts are supported, along with
+ * asynchronous N1QL queries, which return every JSON document as a row. Every
+ * other operation throws {@link UnsupportedOperationException}.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+public class StubBucket implements Bucket {
+
+    private final String name;
+    private final ConcurrentMap<String, Document<?>> store;
+    private final long latencyNanos;
+    private final boolean inline;
+    private final AsyncBucket async;
+    private volatile boolean closed;
+
+    /**
+     * @param name
+     *            The name of the bucket.
+     * @param store
+     *            The documents, shared by every bucket of the same name.
+     * @param latencyNanos
+     *            Time each key-value operation parks for, to simulate a
+     *            network round trip. Zero disables it.
+     */
+    public StubBucket(String name, ConcurrentMap<String, Document<?>> store, long latencyNanos) {
+        this(name, store, latencyNanos, false);
+    }
+
+    /**
+     * @param name
+     *            The name of the bucket.
+     * @param store
+     *            The documents, shared by every bucket of the same name.
+     * @param latencyNanos
+     *            Time each key-value operation parks for, to simulate a
+     *            network round trip. Zero disables it.
+     * @param inline
+     *            Whether the {@link #async()} operations park on the
+     *            subscribing thread rather than on the io scheduler, so they
+     *            complete before <code>subscribe</code> returns.
+     */
+    public StubBucket(String name, ConcurrentMap<String, Document<?>> store, long latencyNanos, boolean inline) {
+        super();
+        this.name = name;
+        this.store = store;
+        this.latencyNanos = latencyNanos;
+        this.inline = inline;
+        this.async = (AsyncBucket) Proxy.newProxyInstance(AsyncBucket.class.getClassLoader(),
+                new Class<?>[] { AsyncBucket.class }, this::invokeAsync);
+    }
+
+    /**
+     * Implements the {@link AsyncBucket} operations returning an
+     * {@link Observable} by deferring to the blocking operation of the same
+     * signature. With a latency the operation runs on the io scheduler, so
+     * subscribers aren't blocked, unless the bucket is inline.
+     */
+    private Object invokeAsync(Object proxy, Method method, Object[] args) throws Exception {
+        if (method.getDeclaringClass() == Object.class) {
+            return method.invoke(this, args);
+        }
+        if (method.getName().equals("name")) {
+            return this.name;
+        }
+        if (method.getName().equals("query") && args.length == 1 && args[0] instanceof N1qlQuery) {
+            return Observable.just(query());
+        }
+        if (method.getReturnType() != Observable.class) {
+            throw new UnsupportedOperationException(method.getName());
+        }
+        Method blocking = Bucket.class.getMethod(method.getName(), method.getParameterTypes());
+        Observable<Object> result = Observable.defer(() -> {
+            try {
+                Object value = blocking.invoke(this, args);
+                return value == null ? Observable.empty() : Observable.just(value);
+            } catch (InvocationTargetException e) {
+                return Observable.error(e.getCause());
+            } catch (IllegalAccessException e) {
+                return Observable.error(e);
+            }
+        });
+        return this.latencyNanos > 0 && !this.inline ? result.subscribeOn(Schedulers.io()) : result;
+    }
+
+    /**
+     * Provides the JSON documents as rows, emitted as they are requested.
+     */
+    private AsyncN1qlQueryResult query() {
+        Observable<AsyncN1qlQueryRow> rows = Observable.from(this.store.entrySet())
+                .filter(entry -> entry.getValue() instanceof JsonDocument)
+                .map(entry -> new DefaultAsyncN1qlQueryRow(((JsonDocument) entry.getValue()).content().toString()
+                        .getBytes(StandardCharsets.UTF_8)));
+        return new DefaultAsyncN1qlQueryResult(rows, Observable.empty(), Observable.empty(), Observable.empty(),
+                Observable.just("success"), true, "stub", "");
+    }
+
+    private void pause() {
+        if (this.latencyNanos > 0) {
+            LockSupport.parkNanos(this.latencyNanos);
+        }
+    }
+
+    @Override
+    public AsyncBucket async() {
+        return this.async;
+    }
+
+    @Override
+    public ClusterFacade core() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CouchbaseEnvironment environment() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String name() {
+        return this.name;
+    }
+
+    @Override
+    public JsonDocument get(String id) {
+        pause();
+        return (JsonDocument) this.store.get(id);
+    }
+
+    @Override
+    public JsonDocument get(String id, long timeout, TimeUnit timeUnit) {
+        return get(id);
+    }
+
+    @Override
+    public <D extends Document<?>> D get(D document) {
+        pause();
+        @SuppressWarnings("unchecked")
+        D found = (D) this.store.get(document.id());
+        return found;
+    }
+
+    @Override
+    public <D extends Document<?>> D get(D document, long timeout, TimeUnit timeUnit) {
+        return get(document);
+    }
+
+    @Override
+    public <D extends Document<?>> D get(String id, Class<D> target) {
+        pause();
+        return target.cast(this.store.get(id));
+    }
+
+    @Override
+    public <D extends Document<?>> D get(String id, Class<D> target, long timeout, TimeUnit timeUnit) {
+        return get(id, target);
+    }
+
+    @Override
+    public boolean exists(String id) {
+        pause();
+        return this.store.containsKey(id);
+    }
+
+    @Override
+    public boolean exists(String id, long timeout, TimeUnit timeUnit) {
+        return exists(id);
+    }
+
+    @Override
+    public <D extends Document<?>> boolean exists(D document) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> boolean exists(D document, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<JsonDocument> getFromReplica(String id, ReplicaMode type) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterator<JsonDocument> getFromReplica(String id) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<JsonDocument> getFromReplica(String id, ReplicaMode type, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterator<JsonDocument> getFromReplica(String id, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> List<D> getFromReplica(D document, ReplicaMode type) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> Iterator<D> getFromReplica(D document) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> List<D> getFromReplica(D document, ReplicaMode type, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> Iterator<D> getFromReplica(D document, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> List<D> getFromReplica(String id, ReplicaMode type, Class<D> target) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> Iterator<D> getFromReplica(String id, Class<D> target) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> List<D> getFromReplica(String id, ReplicaMode type, Class<D> target, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> Iterator<D> getFromReplica(String id, Class<D> target, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonDocument getAndLock(String id, int lockTime) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonDocument getAndLock(String id, int lockTime, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D getAndLock(D document, int lockTime) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D getAndLock(D document, int lockTime, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D getAndLock(String id, int lockTime, Class<D> target) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D getAndLock(String id, int lockTime, Class<D> target, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonDocument getAndTouch(String id, int expiry) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonDocument getAndTouch(String id, int expiry, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D getAndTouch(D document) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D getAndTouch(D document, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D getAndTouch(String id, int expiry, Class<D> target) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D getAndTouch(String id, int expiry, Class<D> target, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D insert(D document) {
+        pause();
+        if (this.store.putIfAbsent(document.id(), document) != null) {
+            throw new DocumentAlreadyExistsException();
+        }
+        return document;
+    }
+
+    @Override
+    public <D extends Document<?>> D insert(D document, long timeout, TimeUnit timeUnit) {
+        return insert(document);
+    }
+
+    @Override
+    public <D extends Document<?>> D insert(D document, PersistTo persistTo, ReplicateTo replicateTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D insert(D document, PersistTo persistTo, ReplicateTo replicateTo, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D insert(D document, PersistTo persistTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D insert(D document, PersistTo persistTo, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D insert(D document, ReplicateTo replicateTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D insert(D document, ReplicateTo replicateTo, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D upsert(D document) {
+        pause();
+        this.store.put(document.id(), document);
+        return document;
+    }
+
+    @Override
+    public <D extends Document<?>> D upsert(D document, long timeout, TimeUnit timeUnit) {
+        return upsert(document);
+    }
+
+    @Override
+    public <D extends Document<?>> D upsert(D document, PersistTo persistTo, ReplicateTo replicateTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D upsert(D document, PersistTo persistTo, ReplicateTo replicateTo, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D upsert(D document, PersistTo persistTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D upsert(D document, PersistTo persistTo, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D upsert(D document, ReplicateTo replicateTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D upsert(D document, ReplicateTo replicateTo, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D replace(D document) {
+        pause();
+        if (this.store.replace(document.id(), document) == null) {
+            throw new DocumentDoesNotExistException();
+        }
+        return document;
+    }
+
+    @Override
+    public <D extends Document<?>> D replace(D document, long timeout, TimeUnit timeUnit) {
+        return replace(document);
+    }
+
+    @Override
+    public <D extends Document<?>> D replace(D document, PersistTo persistTo, ReplicateTo replicateTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D replace(D document, PersistTo persistTo, ReplicateTo replicateTo, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D replace(D document, PersistTo persistTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D replace(D document, PersistTo persistTo, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D replace(D document, ReplicateTo replicateTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D replace(D document, ReplicateTo replicateTo, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D remove(D document) {
+        pause();
+        if (this.store.remove(document.id()) == null) {
+            throw new DocumentDoesNotExistException();
+        }
+        return document;
+    }
+
+    @Override
+    public <D extends Document<?>> D remove(D document, long timeout, TimeUnit timeUnit) {
+        return remove(document);
+    }
+
+    @Override
+    public <D extends Document<?>> D remove(D document, PersistTo persistTo, ReplicateTo replicateTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D remove(D document, PersistTo persistTo, ReplicateTo replicateTo, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D remove(D document, PersistTo persistTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D remove(D document, PersistTo persistTo, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D remove(D document, ReplicateTo replicateTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D remove(D document, ReplicateTo replicateTo, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonDocument remove(String id) {
+        pause();
+        if (this.store.remove(id) == null) {
+            throw new DocumentDoesNotExistException();
+        }
+        return JsonDocument.create(id);
+    }
+
+    @Override
+    public JsonDocument remove(String id, long timeout, TimeUnit timeUnit) {
+        return remove(id);
+    }
+
+    @Override
+    public JsonDocument remove(String id, PersistTo persistTo, ReplicateTo replicateTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonDocument remove(String id, PersistTo persistTo, ReplicateTo replicateTo, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonDocument remove(String id, PersistTo persistTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonDocument remove(String id, PersistTo persistTo, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonDocument remove(String id, ReplicateTo replicateTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonDocument remove(String id, ReplicateTo replicateTo, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D remove(String id, Class<D> target) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D remove(String id, Class<D> target, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D remove(String id, PersistTo persistTo, ReplicateTo replicateTo, Class<D> target) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D remove(String id, PersistTo persistTo, ReplicateTo replicateTo, Class<D> target,
+            long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D remove(String id, PersistTo persistTo, Class<D> target) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D remove(String id, PersistTo persistTo, Class<D> target, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D remove(String id, ReplicateTo replicateTo, Class<D> target) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D remove(String id, ReplicateTo replicateTo, Class<D> target, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ViewResult query(ViewQuery query) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SpatialViewResult query(SpatialViewQuery query) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ViewResult query(ViewQuery query, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SpatialViewResult query(SpatialViewQuery query, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public N1qlQueryResult query(Statement statement) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public N1qlQueryResult query(Statement statement, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public N1qlQueryResult query(N1qlQuery query) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public N1qlQueryResult query(N1qlQuery query, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SearchQueryResult query(SearchQuery query) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SearchQueryResult query(SearchQuery query, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Boolean unlock(String id, long cas) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Boolean unlock(String id, long cas, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> Boolean unlock(D document) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> Boolean unlock(D document, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Boolean touch(String id, int expiry) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Boolean touch(String id, int expiry, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> Boolean touch(D document) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> Boolean touch(D document, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, PersistTo persistTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, ReplicateTo replicateTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, PersistTo persistTo, ReplicateTo replicateTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, PersistTo persistTo, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, ReplicateTo replicateTo, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, PersistTo persistTo, ReplicateTo replicateTo, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, long initial) {
+        pause();
+        return (JsonLongDocument) this.store.compute(id, (key, current) -> JsonLongDocument.create(key,
+                current == null ? initial : ((JsonLongDocument) current).content() + delta));
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, long initial, PersistTo persistTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, long initial, ReplicateTo replicateTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, long initial, PersistTo persistTo, ReplicateTo replicateTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, long initial, long timeout, TimeUnit timeUnit) {
+        return counter(id, delta, initial);
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, long initial, PersistTo persistTo, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, long initial, ReplicateTo replicateTo, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, long initial, PersistTo persistTo, ReplicateTo replicateTo,
+            long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, long initial, int expiry) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, long initial, int expiry, PersistTo persistTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, long initial, int expiry, ReplicateTo replicateTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, long initial, int expiry, PersistTo persistTo,
+            ReplicateTo replicateTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, long initial, int expiry, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, long initial, int expiry, PersistTo persistTo, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, long initial, int expiry, ReplicateTo replicateTo,
+            long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JsonLongDocument counter(String id, long delta, long initial, int expiry, PersistTo persistTo,
+            ReplicateTo replicateTo, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D append(D document) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D append(D document, PersistTo persistTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D append(D document, ReplicateTo replicateTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D append(D document, PersistTo persistTo, ReplicateTo replicateTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D append(D document, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D append(D document, PersistTo persistTo, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D append(D document, ReplicateTo replicateTo, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D append(D document, PersistTo persistTo, ReplicateTo replicateTo, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D prepend(D document) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D prepend(D document, PersistTo persistTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D prepend(D document, ReplicateTo replicateTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D prepend(D document, PersistTo persistTo, ReplicateTo replicateTo) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D prepend(D document, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D prepend(D document, PersistTo persistTo, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D prepend(D document, ReplicateTo replicateTo, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <D extends Document<?>> D prepend(D document, PersistTo persistTo, ReplicateTo replicateTo, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public LookupInBuilder lookupIn(String docId) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public MutateInBuilder mutateIn(String docId) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <V> boolean mapAdd(String docId, String key, V value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <V> boolean mapAdd(String docId, String key, V value, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <V> boolean mapAdd(String docId, String key, V value, MutationOptionBuilder mutationOptionBuilder) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <V> boolean mapAdd(String docId, String key, V value, MutationOptionBuilder mutationOptionBuilder,
+            long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <V> V mapGet(String docId, String key, Class<V> valueType) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <V> V mapGet(String docId, String key, Class<V> valueType, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean mapRemove(String docId, String key) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean mapRemove(String docId, String key, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean mapRemove(String docId, String key, MutationOptionBuilder mutationOptionBuilder) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean mapRemove(String docId, String key, MutationOptionBuilder mutationOptionBuilder, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int mapSize(String docId) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int mapSize(String docId, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> E listGet(String docId, int index, Class<E> elementType) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> E listGet(String docId, int index, Class<E> elementType, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean listAppend(String docId, E element) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean listAppend(String docId, E element, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean listAppend(String docId, E element, MutationOptionBuilder mutationOptionBuilder) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean listAppend(String docId, E element, MutationOptionBuilder mutationOptionBuilder, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean listRemove(String docId, int index) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean listRemove(String docId, int index, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean listRemove(String docId, int index, MutationOptionBuilder mutationOptionBuilder) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean listRemove(String docId, int index, MutationOptionBuilder mutationOptionBuilder, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean listPrepend(String docId, E element) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean listPrepend(String docId, E element, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean listPrepend(String docId, E element, MutationOptionBuilder mutationOptionBuilder) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean listPrepend(String docId, E element, MutationOptionBuilder mutationOptionBuilder, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean listSet(String docId, int index, E element) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean listSet(String docId, int index, E element, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean listSet(String docId, int index, E element, MutationOptionBuilder mutationOptionBuilder) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean listSet(String docId, int index, E element, MutationOptionBuilder mutationOptionBuilder,
+            long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int listSize(String docId) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int listSize(String docId, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean setAdd(String docId, E element) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean setAdd(String docId, E element, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean setAdd(String docId, E element, MutationOptionBuilder mutationOptionBuilder) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean setAdd(String docId, E element, MutationOptionBuilder mutationOptionBuilder, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean setContains(String docId, E element) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean setContains(String docId, E element, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> E setRemove(String docId, E element) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> E setRemove(String docId, E element, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> E setRemove(String docId, E element, MutationOptionBuilder mutationOptionBuilder) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> E setRemove(String docId, E element, MutationOptionBuilder mutationOptionBuilder, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int setSize(String docId) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int setSize(String docId, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean queuePush(String docId, E element) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean queuePush(String docId, E element, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean queuePush(String docId, E element, MutationOptionBuilder mutationOptionBuilder) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> boolean queuePush(String docId, E element, MutationOptionBuilder mutationOptionBuilder, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> E queuePop(String docId, Class<E> elementType) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> E queuePop(String docId, Class<E> elementType, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> E queuePop(String docId, Class<E> elementType, MutationOptionBuilder mutationOptionBuilder) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> E queuePop(String docId, Class<E> elementType, MutationOptionBuilder mutationOptionBuilder, long timeout,
+            TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int queueSize(String docId) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int queueSize(String docId, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int invalidateQueryCache() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public BucketManager bucketManager() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Repository repository() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Boolean close() {
+        this.closed = true;
+        return true;
+    }
+
+    @Override
+    public Boolean close(long timeout, TimeUnit timeUnit) {
+        return close();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    @Override
+    public String toString() {
+        throw new UnsupportedOperationException();
+    }
+}
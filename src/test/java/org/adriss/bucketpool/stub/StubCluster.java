@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2017 Adriss, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.adriss.bucketpool.stub;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.couchbase.client.core.ClusterFacade;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.auth.Authenticator;
+import com.couchbase.client.java.cluster.ClusterManager;
+import com.couchbase.client.java.document.Document;
+import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.query.N1qlQueryResult;
+import com.couchbase.client.java.transcoder.Transcoder;
+
+/**
+ * An in-process {@link Cluster} that opens {@link StubBucket}s. Clusters
+ * created from the same store see the same documents, as clusters connected
+ * to the same Couchbase Server would.
+ *
+ * @author JC Carrillo
+ * @since 0.2
+ */
+public class StubCluster implements Cluster {
+
+    private final ConcurrentMap<String, Document<?>> store;
+    private final long openDelayNanos;
+    private final long latencyNanos;
+    private final boolean inline;
+    private final AtomicInteger opened = new AtomicInteger();
+    private volatile boolean disconnected;
+
+    /**
+     * Creates a cluster with its own store, opening buckets instantly.
+     */
+    public StubCluster() {
+        this(new ConcurrentHashMap<>(), 0, 0);
+    }
+
+    /**
+     * @param store
+     *            The documents, shared by every bucket opened from this
+     *            cluster.
+     * @param openDelayNanos
+     *            Time {@link #openBucket(String)} parks for, to simulate the
+     *            bucket bootstrap. Zero disables it.
+     * @param latencyNanos
+     *            Time each key-value operation parks for. Zero disables it.
+     */
+    public StubCluster(ConcurrentMap<String, Document<?>> store, long openDelayNanos, long latencyNanos) {
+        this(store, openDelayNanos, latencyNanos, false);
+    }
+
+    /**
+     * @param store
+     *            The documents, shared by every bucket opened from this
+     *            cluster.
+     * @param openDelayNanos
+     *            Time {@link #openBucket(String)} parks for, to simulate the
+     *            bucket bootstrap. Zero disables it.
+     * @param latencyNanos
+     *            Time each key-value operation parks for. Zero disables it.
+     * @param inline
+     *            Whether the asynchronous operations park on the subscribing
+     *            thread, completing before <code>subscribe</code> returns.
+     */
+    public StubCluster(ConcurrentMap<String, Document<?>> store, long openDelayNanos, long latencyNanos,
+            boolean inline) {
+        super();
+        this.store = store;
+        this.openDelayNanos = openDelayNanos;
+        this.latencyNanos = latencyNanos;
+        this.inline = inline;
+    }
+
+    @Override
+    public Bucket openBucket() {
+        return openBucket("default");
+    }
+
+    @Override
+    public Bucket openBucket(long timeout, TimeUnit timeUnit) {
+        return openBucket();
+    }
+
+    @Override
+    public Bucket openBucket(String name) {
+        if (this.disconnected) {
+            throw new IllegalStateException("Cluster is disconnected");
+        }
+        if (this.openDelayNanos > 0) {
+            LockSupport.parkNanos(this.openDelayNanos);
+        }
+        this.opened.incrementAndGet();
+        return new StubBucket(name, this.store, this.latencyNanos, this.inline);
+    }
+
+    @Override
+    public Bucket openBucket(String name, long timeout, TimeUnit timeUnit) {
+        return openBucket(name);
+    }
+
+    @Override
+    public Bucket openBucket(String name, String password) {
+        return openBucket(name);
+    }
+
+    @Override
+    public Bucket openBucket(String name, String password, long timeout, TimeUnit timeUnit) {
+        return openBucket(name);
+    }
+
+    @Override
+    public Bucket openBucket(String name, String password, List<Transcoder<? extends Document, ?>> transcoders) {
+        return openBucket(name);
+    }
+
+    @Override
+    public Bucket openBucket(String name, String password, List<Transcoder<? extends Document, ?>> transcoders,
+            long timeout, TimeUnit timeUnit) {
+        return openBucket(name);
+    }
+
+    @Override
+    public N1qlQueryResult query(N1qlQuery query) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public N1qlQueryResult query(N1qlQuery query, long timeout, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ClusterManager clusterManager(String username, String password) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ClusterManager clusterManager() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Boolean disconnect() {
+        this.disconnected = true;
+        return true;
+    }
+
+    @Override
+    public Boolean disconnect(long timeout, TimeUnit timeUnit) {
+        return disconnect();
+    }
+
+    @Override
+    public ClusterFacade core() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Cluster authenticate(Authenticator auth) {
+        return this;
+    }
+
+    /**
+     * Provides the number of buckets opened from this cluster.
+     *
+     * @return the number of opened buckets.
+     */
+    public int getOpened() {
+        return this.opened.get();
+    }
+
+    /**
+     * Determines if {@link #disconnect()} has been called.
+     *
+     * @return boolean
+     */
+    public boolean isDisconnected() {
+        return this.disconnected;
+    }
+}